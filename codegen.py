@@ -161,6 +161,7 @@ def genJavaApi(spec):
         print()
         print("import com.rabbitmq.client.impl.ContentHeaderPropertyWriter;")
         print("import com.rabbitmq.client.impl.ContentHeaderPropertyReader;")
+        print("import com.rabbitmq.client.impl.LazyContentHeaderProperties;")
         print("import com.rabbitmq.client.impl.LongStringHelper;")
 
     def printProtocolClass():
@@ -254,19 +255,20 @@ def genJavaApi(spec):
         print("        {")
         if c.fields:
             for f in c.fields:
-                print("            writer.writePresence(this.%s != null);" % (java_field_name(f.name)))
+                print("            writer.writePresence(this.%s() != null);" % (java_getter_name(f.name)))
             print()
         print("            writer.finishPresence();")
         if c.fields:
             print()
             for f in c.fields:
                 (jfName, jfClass) = (java_field_name(f.name), java_class_name(f.domain))
-                print("            if (this.%s != null) writer.write%s(this.%s);" % (jfName, jfClass, jfName))
+                jgName = java_getter_name(f.name)
+                print("            if (this.%s() != null) writer.write%s(this.%s());" % (jgName, jfClass, jgName))
         print("        }")
 
     def printAppendPropertyDebugStringTo(c):
-        appendList = [ "%s=\")\n               .append(this.%s)\n               .append(\""
-                       % (f.name, java_field_name(f.name))
+        appendList = [ "%s=\")\n               .append(this.%s())\n               .append(\""
+                       % (f.name, java_getter_name(f.name))
                        for f in c.fields ]
         print()
         print("        public void appendPropertyDebugStringTo(StringBuilder acc) {")
@@ -314,17 +316,19 @@ def genJavaApi(spec):
         print()
         print("        public Builder builder() {")
         print("            Builder builder = new Builder()")
-        setFieldList = [ "%s(%s)" % (fn, fn)
-                         for fn in [ java_field_name(f.name) for f in c.fields ]
+        setFieldList = [ "%s(%s())" % (java_field_name(f.name), java_getter_name(f.name))
+                         for f in c.fields
                          ]
         print("                .%s;" % ("\n                .".join(setFieldList)))
         print("            return builder;")
         print("        }")
 
     def printPropertiesClass(c):
-        def printGetter(fieldType, fieldName):
+        def printGetter(fieldType, fieldName, fieldDomain, index):
             capFieldName = fieldName[0].upper() + fieldName[1:]
-            print("        public %s get%s() { return this.%s; }" % (java_boxed_type(fieldType), capFieldName, fieldName))
+            print("        public %s get%s() {" % (java_boxed_type(fieldType), capFieldName))
+            print("            return this.lazyProperties == null ? this.%s : this.lazyProperties.read%s(%i);" % (fieldName, java_class_name(fieldDomain), index))
+            print("        }")
 
         jClassName = java_class_name(c.name)
 
@@ -334,6 +338,15 @@ def genJavaApi(spec):
         for f in c.fields:
             (fType, fName) = (java_boxed_type(java_field_type(spec, f.domain)), java_field_name(f.name))
             print("        private %s %s;" % (fType, fName))
+        if c.fields:
+            # properties decoded on access, when read from a content header frame
+            print("        private LazyContentHeaderProperties lazyProperties;")
+            print()
+            typeList = [ "LazyContentHeaderProperties.%s" % (java_class_name(f.domain).upper())
+                         for f in c.fields ]
+            print("        private static final int[] PROPERTY_TYPES = new int[] {")
+            print("            %s" % (",\n            ".join(typeList)))
+            print("        };")
 
         #explicit constructor
         if c.fields:
@@ -361,6 +374,14 @@ def genJavaApi(spec):
 
         print("        }")
 
+        #lazy datainputstream constructor
+        if c.fields:
+            print()
+            print("        public %sProperties(DataInputStream in, int size) throws IOException {" % (jClassName))
+            print("            super(in);")
+            print("            this.lazyProperties = new LazyContentHeaderProperties(in, size - WEIGHT_AND_BODY_SIZE_LENGTH, PROPERTY_TYPES);")
+            print("        }")
+
         # default constructor
         print("        public %sProperties() {}" % (jClassName))
 
@@ -372,9 +393,9 @@ def genJavaApi(spec):
 
         #accessor methods
         print()
-        for f in c.fields:
+        for (index, f) in enumerate(c.fields):
             (jType, jName) = (java_field_type(spec, f.domain), java_field_name(f.name))
-            printGetter(jType, jName)
+            printGetter(jType, jName, f.domain, index)
 
         printWritePropertiesTo(c)
         printAppendPropertyDebugStringTo(c)
@@ -529,6 +550,10 @@ def genJavaImpl(spec):
     def printMethodArgumentReader():
         print()
         print("    public static Method readMethodFrom(DataInputStream in) throws IOException {")
+        print("        return readMethodFrom(in, null);")
+        print("    }")
+        print()
+        print("    static Method readMethodFrom(DataInputStream in, ShortStringCache shortStrings) throws IOException {")
         print("        int classId = in.readShort();")
         print("        int methodId = in.readShort();")
         print("        switch (classId) {")
@@ -538,7 +563,7 @@ def genJavaImpl(spec):
             for m in c.allMethods():
                 fq_name = java_class_name(c.name) + '.' + java_class_name(m.name)
                 print("                    case %s: {" % (m.index))
-                print("                        return new %s(new MethodArgumentReader(new ValueReader(in)));" % (fq_name))
+                print("                        return new %s(new MethodArgumentReader(new ValueReader(in), shortStrings));" % (fq_name))
                 print("                    }")
             print("                    default: break;")
             print("                } break;")
@@ -560,6 +585,22 @@ def genJavaImpl(spec):
         print()
         print("        throw new UnknownClassOrMethodId(classId);")
         print("    }")
+        print()
+        print("    /**")
+        print("     * Reads a content header, its properties are decoded on access.")
+        print("     * @param size the size of the content header, including the class id")
+        print("     */")
+        print("    public static AMQContentHeader readContentHeaderFrom(DataInputStream in, int size) throws IOException {")
+        print("        int classId = in.readShort();")
+        print("        switch (classId) {")
+        for c in spec.allClasses():
+            if c.fields:
+                print("            case %s: return new %sProperties(in, size - 2);" %(c.index, (java_class_name(c.name))))
+        print("            default: break;")
+        print("        }")
+        print()
+        print("        throw new UnknownClassOrMethodId(classId);")
+        print("    }")
 
     printHeader()
     print()
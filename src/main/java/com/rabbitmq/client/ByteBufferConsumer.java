@@ -0,0 +1,49 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client;
+
+import java.io.IOException;
+
+/**
+ * {@link Consumer} receiving message bodies as {@link MessageBody}s, which
+ * can avoid allocating a byte array for every delivery when the connection
+ * pools inbound frame buffers.
+ * <p>
+ * Deliveries for such consumers go to {@link #handleDelivery(String, Envelope, AMQP.BasicProperties, MessageBody)},
+ * {@link #handleDelivery(String, Envelope, AMQP.BasicProperties, byte[])} is not called.
+ * </p>
+ *
+ * @see ConnectionFactory#setInboundFrameBufferPoolSize(int)
+ */
+public interface ByteBufferConsumer extends Consumer {
+
+    /**
+     * Called when a <code><b>basic.deliver</b></code> is received for this consumer.
+     * The body is released when this method returns, unless it has been
+     * retained with {@link MessageBody#retain()}.
+     * @param consumerTag the <i>consumer tag</i> associated with the consumer
+     * @param envelope packaging data for the message
+     * @param properties content header data for the message
+     * @param body the message body
+     * @throws IOException if the consumer encounters an I/O error while processing the message
+     * @see Envelope
+     */
+    void handleDelivery(String consumerTag,
+                        Envelope envelope,
+                        AMQP.BasicProperties properties,
+                        MessageBody body)
+        throws IOException;
+}
@@ -313,6 +313,82 @@ public interface Channel extends ShutdownNotifier {
     void basicPublish(String exchange, String routingKey, boolean mandatory, boolean immediate, BasicProperties props, byte[] body)
             throws IOException;
 
+    /**
+     * Publish a batch of messages.
+     *
+     * The messages are written back-to-back and the underlying connection
+     * is flushed once, after the last message. When publisher confirms
+     * are enabled, the messages get contiguous sequence numbers, starting
+     * at the value of {@link #getNextPublishSeqNo()} before the call.
+     *
+     * Invocations of <code>Channel#basicPublish</code> will eventually block if a
+     * <a href="http://www.rabbitmq.com/alarms.html">resource-driven alarm</a> is in effect.
+     *
+     * @see com.rabbitmq.client.AMQP.Basic.Publish
+     * @see <a href="http://www.rabbitmq.com/alarms.html">Resource-driven alarms</a>
+     * @param batch the messages to publish
+     * @throws java.io.IOException if an error is encountered
+     */
+    void basicPublish(PublishBatch batch) throws IOException;
+
+    /**
+     * Publish a message with the exchange, routing key, flags and
+     * properties of a template.
+     *
+     * The method and content header are encoded once, when the template
+     * is created, so publishing many messages with the same template
+     * is cheaper than with {@link #basicPublish(String, String, boolean, BasicProperties, byte[])}.
+     *
+     * Invocations of <code>Channel#basicPublish</code> will eventually block if a
+     * <a href="http://www.rabbitmq.com/alarms.html">resource-driven alarm</a> is in effect.
+     *
+     * @see com.rabbitmq.client.AMQP.Basic.Publish
+     * @see <a href="http://www.rabbitmq.com/alarms.html">Resource-driven alarms</a>
+     * @param template the exchange, routing key, flags and properties of the message
+     * @param body the message body
+     * @throws java.io.IOException if an error is encountered
+     */
+    void basicPublish(PublishTemplate template, byte[] body) throws IOException;
+
+    /**
+     * Publish a message and get a handle on its confirm.
+     *
+     * Publisher confirms must be enabled with {@link #confirmSelect()}.
+     * The returned {@link PublishConfirm} completes when the broker
+     * acks or nacks the message, or fails if the channel is closed before.
+     *
+     * Invocations of <code>Channel#basicPublish</code> will eventually block if a
+     * <a href="http://www.rabbitmq.com/alarms.html">resource-driven alarm</a> is in effect.
+     *
+     * @see com.rabbitmq.client.AMQP.Basic.Publish
+     * @see <a href="http://www.rabbitmq.com/confirms.html">Publisher Confirms</a>
+     * @param exchange the exchange to publish the message to
+     * @param routingKey the routing key
+     * @param props other properties for the message - routing headers etc
+     * @param body the message body
+     * @return the confirm of the message
+     * @throws java.io.IOException if an error is encountered
+     * @throws IllegalStateException if confirms aren't enabled
+     */
+    PublishConfirm basicPublishWithConfirm(String exchange, String routingKey, BasicProperties props, byte[] body)
+            throws IOException;
+
+    /**
+     * Publish a message and get a handle on its confirm.
+     *
+     * @see #basicPublishWithConfirm(String, String, BasicProperties, byte[])
+     * @param exchange the exchange to publish the message to
+     * @param routingKey the routing key
+     * @param mandatory true if the 'mandatory' flag is to be set
+     * @param props other properties for the message - routing headers etc
+     * @param body the message body
+     * @return the confirm of the message
+     * @throws java.io.IOException if an error is encountered
+     * @throws IllegalStateException if confirms aren't enabled
+     */
+    PublishConfirm basicPublishWithConfirm(String exchange, String routingKey, boolean mandatory, BasicProperties props, byte[] body)
+            throws IOException;
+
     /**
      * Actively declare a non-autodelete, non-durable exchange with no extra arguments
      * @see com.rabbitmq.client.AMQP.Exchange.Declare
@@ -0,0 +1,52 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client;
+
+import java.io.IOException;
+
+/**
+ * Exception thrown when publishing on a channel that already has
+ * the maximum number of unconfirmed messages and is configured
+ * not to block.
+ * The message is not published, it can be published again once
+ * the broker has confirmed some messages.
+ *
+ * @see ConnectionFactory#setMaxUnconfirmedMessagesPerChannel(int)
+ * @see ConnectionFactory#setBlockOnMaxUnconfirmedMessages(boolean)
+ * @since 4.1.0
+ */
+public class ConfirmWindowFullException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The maximum number of unconfirmed messages of the channel.
+     */
+    private final int maxUnconfirmedMessages;
+
+    public ConfirmWindowFullException(int maxUnconfirmedMessages) {
+        super("Channel already has " + maxUnconfirmedMessages + " unconfirmed messages");
+        this.maxUnconfirmedMessages = maxUnconfirmedMessages;
+    }
+
+    /**
+     *
+     * @return the maximum number of unconfirmed messages of the channel
+     */
+    public int getMaxUnconfirmedMessages() {
+        return maxUnconfirmedMessages;
+    }
+}
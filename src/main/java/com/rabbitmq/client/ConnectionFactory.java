@@ -78,6 +78,15 @@ public class ConnectionFactory implements Cloneable {
     /** The default continuation timeout for RPC calls in channels: 10 minutes */
     public static final int    DEFAULT_CHANNEL_RPC_TIMEOUT = (int) MINUTES.toMillis(10);
 
+    /** The default size of pooled inbound frame buffers: 8 kB */
+    public static final int    DEFAULT_INBOUND_FRAME_BUFFER_SIZE = 8192;
+
+    /** The default unflushed bytes triggering a flush with write coalescing: 64 kB */
+    public static final int    DEFAULT_WRITE_COALESCING_THRESHOLD = 65536;
+
+    /** The default max wait for a flush with write coalescing: 100 microseconds */
+    public static final long   DEFAULT_WRITE_COALESCING_DEADLINE = 100;
+
     private static final String PREFERRED_TLS_PROTOCOL = "TLSv1.2";
 
     private static final String FALLBACK_TLS_PROTOCOL = "TLSv1";
@@ -127,6 +136,84 @@ public class ConnectionFactory implements Cloneable {
      */
     private int channelRpcTimeout = DEFAULT_CHANNEL_RPC_TIMEOUT;
 
+    /**
+     * Max number of idle outbound frame buffers kept per connection.
+     * 0 means outbound frames are not encoded to pooled buffers.
+     * @since 4.1.0
+     */
+    private int frameBufferPoolSize = 0;
+
+    /**
+     * Whether pooled outbound frame buffers are direct buffers.
+     * @since 4.1.0
+     */
+    private boolean directFrameBuffers = false;
+
+    /**
+     * Max number of idle inbound frame buffers kept per connection.
+     * 0 means inbound frames are not read into pooled buffers.
+     * @since 4.1.0
+     */
+    private int inboundFrameBufferPoolSize = 0;
+
+    /**
+     * Size of pooled inbound frame buffers.
+     * @since 4.1.0
+     */
+    private int inboundFrameBufferSize = DEFAULT_INBOUND_FRAME_BUFFER_SIZE;
+
+    /**
+     * Whether flushes of threads writing concurrently are coalesced.
+     * @since 4.1.0
+     */
+    private boolean writeCoalescing = false;
+
+    /**
+     * Number of unflushed bytes that triggers a flush with write coalescing.
+     * @since 4.1.0
+     */
+    private int writeCoalescingThreshold = DEFAULT_WRITE_COALESCING_THRESHOLD;
+
+    /**
+     * Max time in microseconds a frame waits for a flush with write coalescing.
+     * @since 4.1.0
+     */
+    private long writeCoalescingDeadline = DEFAULT_WRITE_COALESCING_DEADLINE;
+
+    /**
+     * Max number of unconfirmed messages per channel in confirm mode.
+     * 0 means no limit.
+     * @since 4.1.0
+     */
+    private int maxUnconfirmedMessagesPerChannel = 0;
+
+    /**
+     * Whether publishing blocks when a channel has the max number
+     * of unconfirmed messages.
+     * @since 4.1.0
+     */
+    private boolean blockOnMaxUnconfirmedMessages = true;
+
+    /**
+     * Settings of the dispatching of deliveries to consumers.
+     * @since 4.1.0
+     */
+    private ConsumerDispatchParams consumerDispatchParams = new ConsumerDispatchParams();
+
+    /**
+     * Factory of the virtual threads of connections, null if
+     * they don't use virtual threads. Shared by connections
+     * so they share the heartbeat timer.
+     * @since 4.1.0
+     */
+    private ThreadFactory virtualThreadFactory = null;
+
+    /**
+     * Whether blocking IO connections share a single heartbeat timer.
+     * @since 4.1.0
+     */
+    private boolean sharedHeartbeatTimer = true;
+
     /** @return the default host to use for connections */
     public String getHost() {
         return host;
@@ -492,6 +579,23 @@ public class ConnectionFactory implements Cloneable {
         this.sharedExecutor = executor;
     }
 
+    /**
+     * Pin each channel to one of a fixed number of consumer threads,
+     * instead of dispatching consumer callbacks on a thread pool.
+     * Callbacks of a channel then always run on the same thread.
+     * The shared executor isn't used when channels are pinned to threads.
+     *
+     * Shortcut for {@link ConsumerDispatchParams#setAffinityThreads(int)}
+     * on the current consumer dispatch params.
+     *
+     * @param threads number of consumer threads per connection,
+     *                0 to dispatch on a thread pool (the default)
+     * @see #setConsumerDispatchParams(ConsumerDispatchParams)
+     */
+    public void setChannelAffinityThreads(int threads) {
+        this.consumerDispatchParams.setAffinityThreads(threads);
+    }
+
     /**
      * Set the executor to use for connection shutdown.
      * All connections that use this executor share it.
@@ -518,6 +622,31 @@ public class ConnectionFactory implements Cloneable {
     public void setHeartbeatExecutor(ScheduledExecutorService executor) {
         this.heartbeatExecutor = executor;
     }
+
+    /**
+     * Whether blocking IO connections send their heartbeats using a timer
+     * shared by all connections using the same {@link ThreadFactory},
+     * instead of a thread per connection.
+     * The shared timer threads are created with the thread factory
+     * and only run while there are connections with heartbeats enabled.
+     * <p>
+     * Ignored when an executor is set with {@link #setHeartbeatExecutor(ScheduledExecutorService)}.
+     * NIO connections always use the timer of their IO thread.
+     * Default is true.
+     * </p>
+     * @param sharedHeartbeatTimer true to use the shared heartbeat timer
+     */
+    public void setSharedHeartbeatTimer(boolean sharedHeartbeatTimer) {
+        this.sharedHeartbeatTimer = sharedHeartbeatTimer;
+    }
+
+    /**
+     * Whether blocking IO connections share a single heartbeat timer.
+     * @return
+     */
+    public boolean isSharedHeartbeatTimer() {
+        return sharedHeartbeatTimer;
+    }
     
     /**
      * Retrieve the thread factory used to instantiate new threads.
@@ -535,6 +664,39 @@ public class ConnectionFactory implements Cloneable {
         this.threadFactory = threadFactory;
     }
 
+    /**
+     * Use virtual threads for the threads of blocking IO connections:
+     * the thread reading from the socket, the consumer dispatch threads
+     * and the heartbeat thread. The thread factory set with
+     * {@link #setThreadFactory(ThreadFactory)} is then not used for those threads.
+     * Deliveries of a given channel are still dispatched in order.
+     * <p>
+     * Requires Java 24 or later: connection threads block in monitors,
+     * which pin virtual threads to their carrier thread on older versions.
+     * Default is false.
+     * </p>
+     * @param virtualThreads true to use virtual threads
+     * @throws IllegalArgumentException if the JVM is older than Java 24
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        if (virtualThreads && !VirtualThreads.isAvailable()) {
+            throw new IllegalArgumentException("Virtual threads require Java 24 or later");
+        }
+        if (!virtualThreads) {
+            this.virtualThreadFactory = null;
+        } else if (this.virtualThreadFactory == null) {
+            this.virtualThreadFactory = VirtualThreads.threadFactory("rabbitmq-connection-");
+        }
+    }
+
+    /**
+     * Whether connection threads are virtual threads.
+     * @return
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreadFactory != null;
+    }
+
     /**
     * Get the exception handler.
     *
@@ -943,12 +1105,23 @@ public class ConnectionFactory implements Cloneable {
         result.setNetworkRecoveryInterval(networkRecoveryInterval);
         result.setTopologyRecovery(topologyRecovery);
         result.setExceptionHandler(exceptionHandler);
-        result.setThreadFactory(threadFactory);
+        result.setThreadFactory(virtualThreadFactory != null ? virtualThreadFactory : threadFactory);
         result.setHandshakeTimeout(handshakeTimeout);
         result.setRequestedHeartbeat(requestedHeartbeat);
         result.setShutdownExecutor(shutdownExecutor);
         result.setHeartbeatExecutor(heartbeatExecutor);
+        result.setSharedHeartbeatTimer(sharedHeartbeatTimer);
         result.setChannelRpcTimeout(channelRpcTimeout);
+        result.setFrameBufferPoolSize(frameBufferPoolSize);
+        result.setDirectFrameBuffers(directFrameBuffers);
+        result.setInboundFrameBufferPoolSize(inboundFrameBufferPoolSize);
+        result.setInboundFrameBufferSize(inboundFrameBufferSize);
+        result.setWriteCoalescing(writeCoalescing);
+        result.setWriteCoalescingThreshold(writeCoalescingThreshold);
+        result.setWriteCoalescingDeadline(writeCoalescingDeadline);
+        result.setMaxUnconfirmedMessagesPerChannel(maxUnconfirmedMessagesPerChannel);
+        result.setBlockOnMaxUnconfirmedMessages(blockOnMaxUnconfirmedMessages);
+        result.setConsumerDispatchParams(new ConsumerDispatchParams(consumerDispatchParams));
         return result;
     }
 
@@ -1111,4 +1284,237 @@ public class ConnectionFactory implements Cloneable {
     public int getChannelRpcTimeout() {
         return channelRpcTimeout;
     }
+
+    /**
+     * Encode outbound frames straight into pooled {@link java.nio.ByteBuffer}s
+     * as large as the negotiated frame max, instead of going
+     * through an intermediate buffer for each frame.
+     * Frames are not pooled if the negotiated frame max is 0 (no limit).
+     * Default is 0 (disabled).
+     * @param frameBufferPoolSize max number of idle buffers kept per connection,
+     *                            0 to disable pooling
+     * @see #setDirectFrameBuffers(boolean)
+     */
+    public void setFrameBufferPoolSize(int frameBufferPoolSize) {
+        if(frameBufferPoolSize < 0) {
+            throw new IllegalArgumentException("Frame buffer pool size cannot be less than 0");
+        }
+        this.frameBufferPoolSize = frameBufferPoolSize;
+    }
+
+    /**
+     * Get the max number of idle outbound frame buffers kept per connection.
+     * @return
+     */
+    public int getFrameBufferPoolSize() {
+        return frameBufferPoolSize;
+    }
+
+    /**
+     * Whether pooled outbound frame buffers are direct buffers.
+     * Direct buffers avoid a copy when using NIO without TLS.
+     * Default is false (heap buffers).
+     * @param directFrameBuffers
+     * @see #setFrameBufferPoolSize(int)
+     */
+    public void setDirectFrameBuffers(boolean directFrameBuffers) {
+        this.directFrameBuffers = directFrameBuffers;
+    }
+
+    /**
+     * Whether pooled outbound frame buffers are direct buffers.
+     * @return
+     */
+    public boolean isDirectFrameBuffers() {
+        return directFrameBuffers;
+    }
+
+    /**
+     * Read inbound frames into pooled buffers, instead of allocating
+     * a new array for every frame. Frames with a payload larger than
+     * the pooled buffers are read into a new array, as usual.
+     * A message body held in one frame is then handed over
+     * to {@link ByteBufferConsumer}s without copy, and its buffer goes
+     * back to the pool once the {@link MessageBody} is released.
+     * Default is 0 (disabled).
+     * @param inboundFrameBufferPoolSize max number of idle buffers kept per connection,
+     *                                   0 to disable pooling
+     * @see #setInboundFrameBufferSize(int)
+     * @see ByteBufferConsumer
+     */
+    public void setInboundFrameBufferPoolSize(int inboundFrameBufferPoolSize) {
+        if(inboundFrameBufferPoolSize < 0) {
+            throw new IllegalArgumentException("Inbound frame buffer pool size cannot be less than 0");
+        }
+        this.inboundFrameBufferPoolSize = inboundFrameBufferPoolSize;
+    }
+
+    /**
+     * Get the max number of idle inbound frame buffers kept per connection.
+     * @return
+     */
+    public int getInboundFrameBufferPoolSize() {
+        return inboundFrameBufferPoolSize;
+    }
+
+    /**
+     * Set the size in bytes of pooled inbound frame buffers.
+     * Default is 8192.
+     * @param inboundFrameBufferSize
+     * @see #setInboundFrameBufferPoolSize(int)
+     */
+    public void setInboundFrameBufferSize(int inboundFrameBufferSize) {
+        if(inboundFrameBufferSize <= 0) {
+            throw new IllegalArgumentException("Inbound frame buffer size must be greater than 0");
+        }
+        this.inboundFrameBufferSize = inboundFrameBufferSize;
+    }
+
+    /**
+     * Get the size in bytes of pooled inbound frame buffers.
+     * @return
+     */
+    public int getInboundFrameBufferSize() {
+        return inboundFrameBufferSize;
+    }
+
+    /**
+     * Coalesce the flushes of threads publishing concurrently on
+     * the same connection, instead of flushing after every command.
+     * The output is flushed by the last writing thread out,
+     * when unflushed frames reach a size threshold, or when
+     * a frame has been waiting for a flush longer than a deadline.
+     * Frames per flush are reported to the {@link MetricsCollector},
+     * if it is an {@link ExtendedMetricsCollector}.
+     * Default is false (flush after every command).
+     * @param writeCoalescing
+     * @see #setWriteCoalescingThreshold(int)
+     * @see #setWriteCoalescingDeadline(long)
+     */
+    public void setWriteCoalescing(boolean writeCoalescing) {
+        this.writeCoalescing = writeCoalescing;
+    }
+
+    /**
+     * Whether flushes of threads writing concurrently are coalesced.
+     * @return
+     */
+    public boolean isWriteCoalescing() {
+        return writeCoalescing;
+    }
+
+    /**
+     * Set the number of unflushed bytes that triggers a flush
+     * when write coalescing is enabled.
+     * Default is 65536.
+     * @param writeCoalescingThreshold
+     * @see #setWriteCoalescing(boolean)
+     */
+    public void setWriteCoalescingThreshold(int writeCoalescingThreshold) {
+        if(writeCoalescingThreshold <= 0) {
+            throw new IllegalArgumentException("Write coalescing threshold must be greater than 0");
+        }
+        this.writeCoalescingThreshold = writeCoalescingThreshold;
+    }
+
+    /**
+     * Get the number of unflushed bytes that triggers a flush
+     * when write coalescing is enabled.
+     * @return
+     */
+    public int getWriteCoalescingThreshold() {
+        return writeCoalescingThreshold;
+    }
+
+    /**
+     * Set the max time in microseconds a frame can wait for a flush
+     * while other threads keep writing, when write coalescing is enabled.
+     * Default is 100 microseconds.
+     * @param writeCoalescingDeadline
+     * @see #setWriteCoalescing(boolean)
+     */
+    public void setWriteCoalescingDeadline(long writeCoalescingDeadline) {
+        if(writeCoalescingDeadline < 0) {
+            throw new IllegalArgumentException("Write coalescing deadline cannot be less than 0");
+        }
+        this.writeCoalescingDeadline = writeCoalescingDeadline;
+    }
+
+    /**
+     * Get the max time in microseconds a frame can wait for a flush
+     * when write coalescing is enabled.
+     * @return
+     */
+    public long getWriteCoalescingDeadline() {
+        return writeCoalescingDeadline;
+    }
+
+    /**
+     * Set the max number of unconfirmed messages per channel, for channels
+     * in confirm mode. Publishing on a channel that already has that many
+     * unconfirmed messages blocks until the broker confirms some,
+     * or fails, see {@link #setBlockOnMaxUnconfirmedMessages(boolean)}.
+     * Default is 0 (no limit).
+     * @param maxUnconfirmedMessagesPerChannel max number of unconfirmed messages,
+     *                                         0 for no limit
+     * @see Channel#confirmSelect()
+     */
+    public void setMaxUnconfirmedMessagesPerChannel(int maxUnconfirmedMessagesPerChannel) {
+        if(maxUnconfirmedMessagesPerChannel < 0) {
+            throw new IllegalArgumentException("Max unconfirmed messages per channel cannot be less than 0");
+        }
+        this.maxUnconfirmedMessagesPerChannel = maxUnconfirmedMessagesPerChannel;
+    }
+
+    /**
+     * Get the max number of unconfirmed messages per channel.
+     * @return
+     */
+    public int getMaxUnconfirmedMessagesPerChannel() {
+        return maxUnconfirmedMessagesPerChannel;
+    }
+
+    /**
+     * Whether publishing blocks when a channel has the max number
+     * of unconfirmed messages. If false, publishing throws a
+     * {@link ConfirmWindowFullException} instead.
+     * Default is true.
+     * @param blockOnMaxUnconfirmedMessages
+     * @see #setMaxUnconfirmedMessagesPerChannel(int)
+     */
+    public void setBlockOnMaxUnconfirmedMessages(boolean blockOnMaxUnconfirmedMessages) {
+        this.blockOnMaxUnconfirmedMessages = blockOnMaxUnconfirmedMessages;
+    }
+
+    /**
+     * Whether publishing blocks when a channel has the max number
+     * of unconfirmed messages.
+     * @return
+     */
+    public boolean isBlockOnMaxUnconfirmedMessages() {
+        return blockOnMaxUnconfirmedMessages;
+    }
+
+    /**
+     * Set the settings of the dispatching of deliveries to consumers:
+     * number of deliveries a dispatch thread handles for a channel
+     * before moving to the next one, max number of deliveries queued
+     * per channel, and how channels are scheduled.
+     * @param consumerDispatchParams
+     * @see ConsumerDispatchParams
+     */
+    public void setConsumerDispatchParams(ConsumerDispatchParams consumerDispatchParams) {
+        if(consumerDispatchParams == null) {
+            throw new IllegalArgumentException("Consumer dispatch params cannot be null");
+        }
+        this.consumerDispatchParams = consumerDispatchParams;
+    }
+
+    /**
+     * Get the settings of the dispatching of deliveries to consumers.
+     * @return
+     */
+    public ConsumerDispatchParams getConsumerDispatchParams() {
+        return consumerDispatchParams;
+    }
 }
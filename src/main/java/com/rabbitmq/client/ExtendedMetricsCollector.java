@@ -0,0 +1,53 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client;
+
+/**
+ * {@link MetricsCollector} that also collects write coalescing,
+ * confirm window and consumer dispatch metrics.
+ * <p>
+ * These metrics are only computed for collectors implementing
+ * this interface. Consumer queue depths are sampled, at most
+ * every 100 milliseconds for the channels of a connection.
+ * </p>
+ *
+ * @since 4.1.0
+ */
+public interface ExtendedMetricsCollector extends MetricsCollector {
+
+    /**
+     * Frames of several commands have been flushed together.
+     * @param connection the connection
+     * @param frames the number of frames flushed
+     */
+    void framesFlushed(Connection connection, int frames);
+
+    /**
+     * The number of unconfirmed messages of a channel
+     * with a max number of unconfirmed messages has changed.
+     * @param channel the channel
+     * @param unconfirmed the number of unconfirmed messages
+     */
+    void unconfirmedMessages(Channel channel, int unconfirmed);
+
+    /**
+     * Sample of the number of deliveries waiting to be dispatched
+     * to the consumers of a channel.
+     * @param channel the channel
+     * @param depth the number of deliveries queued for the channel
+     */
+    void consumerQueueDepth(Channel channel, int depth);
+}
@@ -0,0 +1,58 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client;
+
+/**
+ * Marker interface for {@link Consumer}s whose callbacks are called
+ * directly on the thread reading from the connection, instead of being
+ * handed off to the consumer thread pool.
+ * <p>
+ * This saves a thread hand-off per delivery, but the connection doesn't
+ * read anything while a callback runs: callbacks must return quickly and
+ * must not block. In particular, they must not call synchronous channel
+ * methods (e.g. {@link Channel#queueDeclare()}), as the reply could never
+ * be read. Asynchronous methods like {@link Channel#basicAck(long, boolean)}
+ * can be called.
+ * </p>
+ * <p>
+ * Publishing from a callback is only safe when nothing can make the publish
+ * wait:
+ * <ul>
+ * <li>with publisher confirms and a confirm window which blocks when full
+ * (see {@link ConnectionFactory#setMaxUnconfirmedMessagesPerChannel(int)}),
+ * the publish waits for acks that only the blocked thread can read, and
+ * the connection deadlocks;</li>
+ * <li>while the broker has paused the channel with <code>channel.flow</code>,
+ * the publish waits for the broker to resume it, which the blocked thread
+ * can't read either;</li>
+ * <li>{@link Channel#waitForConfirms()} and
+ * {@link PublishConfirm#get()} never return, for the same reason;</li>
+ * <li>with NIO, a publish waits for room in the connection's write queue,
+ * and the IO thread, shared with other connections, stalls until there is
+ * room or the enqueuing times out.</li>
+ * </ul>
+ * Hand publishes off to another thread in these cases.
+ * </p>
+ * <p>
+ * {@link Consumer#handleShutdownSignal(String, ShutdownSignalException)}
+ * is still called from the consumer thread pool.
+ * </p>
+ *
+ * @since 4.1.0
+ */
+public interface InlineConsumer extends Consumer {
+
+}
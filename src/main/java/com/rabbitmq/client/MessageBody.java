@@ -0,0 +1,49 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Body of a message delivered to a {@link ByteBufferConsumer}.
+ * <p>
+ * The body may be backed by a pooled buffer, which is given back to
+ * the pool once every reference has been released. The delivery callback
+ * holds one reference, released when the callback returns. Call {@link #retain()}
+ * to keep the body beyond the callback, then {@link #release()} once done with it.
+ * </p>
+ * The buffer must not be used once the body has been released.
+ *
+ * @see ConnectionFactory#setInboundFrameBufferPoolSize(int)
+ */
+public interface MessageBody {
+
+    /**
+     * @return read-only view of the body
+     */
+    ByteBuffer getBuffer();
+
+    /**
+     * Take a reference to the body.
+     * @return this body
+     */
+    MessageBody retain();
+
+    /**
+     * Give up a reference to the body.
+     */
+    void release();
+}
@@ -0,0 +1,135 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A batch of messages to publish with {@link Channel#basicPublish(PublishBatch)}.
+ * <p>
+ * The messages of a batch are written back-to-back and the connection is
+ * flushed once for the whole batch, instead of once per message. When publisher
+ * confirms are enabled, the messages get contiguous sequence numbers, in the
+ * order they were added to the batch.
+ * </p>
+ * A batch can be re-used once published, see {@link #clear()}.
+ * It is not thread-safe.
+ */
+public class PublishBatch {
+
+    private final List<Message> messages;
+
+    public PublishBatch() {
+        this.messages = new ArrayList<Message>();
+    }
+
+    /**
+     * @param capacity the expected number of messages in the batch
+     */
+    public PublishBatch(int capacity) {
+        this.messages = new ArrayList<Message>(capacity);
+    }
+
+    /**
+     * Add a message to the batch.
+     * @param exchange the exchange to publish the message to
+     * @param routingKey the routing key
+     * @param props other properties for the message - routing headers etc
+     * @param body the message body
+     * @return this batch
+     */
+    public PublishBatch add(String exchange, String routingKey, AMQP.BasicProperties props, byte[] body) {
+        return add(exchange, routingKey, false, props, body);
+    }
+
+    /**
+     * Add a message to the batch.
+     * @param exchange the exchange to publish the message to
+     * @param routingKey the routing key
+     * @param mandatory true if the 'mandatory' flag is to be set
+     * @param props other properties for the message - routing headers etc
+     * @param body the message body
+     * @return this batch
+     */
+    public PublishBatch add(String exchange, String routingKey, boolean mandatory, AMQP.BasicProperties props, byte[] body) {
+        messages.add(new Message(exchange, routingKey, mandatory, props, body));
+        return this;
+    }
+
+    /**
+     * @return the messages of the batch, in the order they were added
+     */
+    public List<Message> getMessages() {
+        return Collections.unmodifiableList(messages);
+    }
+
+    public int size() {
+        return messages.size();
+    }
+
+    public boolean isEmpty() {
+        return messages.isEmpty();
+    }
+
+    /**
+     * Remove all the messages from the batch.
+     */
+    public void clear() {
+        messages.clear();
+    }
+
+    /**
+     * A message of a {@link PublishBatch}.
+     */
+    public static class Message {
+
+        private final String exchange;
+        private final String routingKey;
+        private final boolean mandatory;
+        private final AMQP.BasicProperties props;
+        private final byte[] body;
+
+        Message(String exchange, String routingKey, boolean mandatory, AMQP.BasicProperties props, byte[] body) {
+            this.exchange = exchange;
+            this.routingKey = routingKey;
+            this.mandatory = mandatory;
+            this.props = props;
+            this.body = body;
+        }
+
+        public String getExchange() {
+            return exchange;
+        }
+
+        public String getRoutingKey() {
+            return routingKey;
+        }
+
+        public boolean isMandatory() {
+            return mandatory;
+        }
+
+        public AMQP.BasicProperties getProps() {
+            return props;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Outcome of a message published with {@link Channel#basicPublishWithConfirm}.
+ * <p/>
+ * Completes with true when the broker acks the message, with false
+ * when it nacks it, and fails with a {@link ShutdownSignalException}
+ * if the channel is closed before the message is confirmed.
+ * Confirms can't be cancelled.
+ *
+ * @see PublishConfirmListener
+ */
+public class PublishConfirm implements Future<Boolean> {
+
+    private final long sequenceNumber;
+
+    private boolean done = false;
+
+    private boolean ack = false;
+
+    private ShutdownSignalException cause;
+
+    private List<PublishConfirmListener> listeners;
+
+    /**
+     * Confirms are created by the channel, which is the only one to complete them.
+     * @param sequenceNumber the publish sequence number of the message
+     */
+    protected PublishConfirm(long sequenceNumber) {
+        this.sequenceNumber = sequenceNumber;
+    }
+
+    /**
+     * @return the publish sequence number of the message
+     * @see Channel#getNextPublishSeqNo()
+     */
+    public long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    /**
+     * @return true if the broker acked the message, false if it
+     * nacked it or if the outcome isn't known yet
+     */
+    public synchronized boolean isAck() {
+        return ack;
+    }
+
+    /**
+     * @return the reason the message will never be confirmed, if the channel
+     * was closed before, null otherwise
+     */
+    public synchronized ShutdownSignalException getCause() {
+        return cause;
+    }
+
+    /**
+     * Add a listener, called once the outcome is known.
+     * The listener is called right away in the calling
+     * thread if the outcome is already known.
+     * @param listener the listener
+     */
+    public void addListener(PublishConfirmListener listener) {
+        synchronized (this) {
+            if (!done) {
+                if (listeners == null) {
+                    listeners = new ArrayList<PublishConfirmListener>(1);
+                }
+                listeners.add(listener);
+                return;
+            }
+        }
+        listener.handleConfirm(this);
+    }
+
+    /**
+     * The broker acked or nacked the message.
+     * @param ack true for an ack, false for a nack
+     */
+    protected void complete(boolean ack) {
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            this.ack = ack;
+            this.done = true;
+            notifyAll();
+        }
+        callListeners();
+    }
+
+    /**
+     * The message will never be confirmed.
+     * @param cause the reason the channel was closed
+     */
+    protected void fail(ShutdownSignalException cause) {
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            this.cause = cause;
+            this.done = true;
+            notifyAll();
+        }
+        callListeners();
+    }
+
+    private void callListeners() {
+        List<PublishConfirmListener> toCall;
+        synchronized (this) {
+            toCall = listeners;
+            listeners = null;
+        }
+        if (toCall != null) {
+            for (PublishConfirmListener listener : toCall) {
+                listener.handleConfirm(this);
+            }
+        }
+    }
+
+    /**
+     * Confirms can't be cancelled.
+     * @return false
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Wait for the outcome.
+     * @return true if the broker acked the message, false if it nacked it
+     * @throws InterruptedException if the thread is interrupted
+     * @throws ExecutionException wrapping a {@link ShutdownSignalException}
+     * if the channel was closed before the message was confirmed
+     */
+    @Override
+    public synchronized Boolean get() throws InterruptedException, ExecutionException {
+        while (!done) {
+            wait();
+        }
+        return outcome();
+    }
+
+    /**
+     * Wait for the outcome.
+     * @return true if the broker acked the message, false if it nacked it
+     * @throws InterruptedException if the thread is interrupted
+     * @throws ExecutionException wrapping a {@link ShutdownSignalException}
+     * if the channel was closed before the message was confirmed
+     * @throws TimeoutException if the outcome isn't known before the timeout
+     */
+    @Override
+    public synchronized Boolean get(long timeout, TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!done) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return outcome();
+    }
+
+    private Boolean outcome() throws ExecutionException {
+        if (cause != null) {
+            throw new ExecutionException(cause);
+        }
+        return ack;
+    }
+}
@@ -0,0 +1,38 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client;
+
+/**
+ * Implement this interface in order to be notified when
+ * a message published with {@link Channel#basicPublishWithConfirm}
+ * is confirmed, or will never be.
+ * <p/>
+ * Listeners are usually called in the connection thread, so they
+ * shouldn't block.
+ *
+ * @see PublishConfirm#addListener(PublishConfirmListener)
+ */
+public interface PublishConfirmListener {
+
+    /**
+     * Called once the outcome of the publish is known:
+     * {@link PublishConfirm#isAck()} tells whether the broker
+     * acked or nacked the message and {@link PublishConfirm#getCause()}
+     * is set if the channel was closed before.
+     * @param confirm the completed confirm
+     */
+    void handleConfirm(PublishConfirm confirm);
+}
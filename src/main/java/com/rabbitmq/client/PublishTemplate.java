@@ -0,0 +1,96 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client;
+
+import com.rabbitmq.client.impl.EncodedPublish;
+
+import java.io.IOException;
+
+/**
+ * The exchange, routing key, flags and properties of messages to publish
+ * with {@link Channel#basicPublish(PublishTemplate, byte[])}.
+ * <p>
+ * The <code>basic.publish</code> method and the content header are encoded
+ * once, when the template is created, instead of once per message. Only the
+ * body size is written for each message, so the cost of publishing does not
+ * depend on the number of headers in the properties.
+ * </p>
+ * The properties are encoded as they are when the template is created,
+ * changes made to them afterwards, e.g. to the headers map, are not
+ * taken into account.
+ * A template is immutable and can be used from several threads
+ * and on several channels.
+ */
+public class PublishTemplate {
+
+    private final String exchange;
+    private final String routingKey;
+    private final boolean mandatory;
+    private final AMQP.BasicProperties props;
+    private final EncodedPublish encoded;
+
+    /**
+     * @param exchange the exchange to publish messages to
+     * @param routingKey the routing key
+     * @param props other properties for the messages - routing headers etc
+     */
+    public PublishTemplate(String exchange, String routingKey, AMQP.BasicProperties props) {
+        this(exchange, routingKey, false, props);
+    }
+
+    /**
+     * @param exchange the exchange to publish messages to
+     * @param routingKey the routing key
+     * @param mandatory true if the 'mandatory' flag is to be set
+     * @param props other properties for the messages - routing headers etc
+     * @throws IllegalArgumentException if the method or the properties cannot be encoded
+     */
+    public PublishTemplate(String exchange, String routingKey, boolean mandatory, AMQP.BasicProperties props) {
+        this.exchange = exchange;
+        this.routingKey = routingKey;
+        this.mandatory = mandatory;
+        this.props = props == null ? MessageProperties.MINIMAL_BASIC : props;
+        try {
+            this.encoded = new EncodedPublish(exchange, routingKey, mandatory, this.props);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not encode publish template", e);
+        }
+    }
+
+    public String getExchange() {
+        return exchange;
+    }
+
+    public String getRoutingKey() {
+        return routingKey;
+    }
+
+    public boolean isMandatory() {
+        return mandatory;
+    }
+
+    public AMQP.BasicProperties getProps() {
+        return props;
+    }
+
+    /**
+     * Private API - the pre-encoded method and content header
+     * @return the encoded template
+     */
+    public EncodedPublish getEncoded() {
+        return encoded;
+    }
+}
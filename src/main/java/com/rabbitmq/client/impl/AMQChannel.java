@@ -17,6 +17,7 @@
 package com.rabbitmq.client.impl;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.concurrent.TimeoutException;
 
 import com.rabbitmq.client.*;
@@ -54,8 +55,11 @@ public abstract class AMQChannel extends ShutdownNotifierComponent {
     /** This channel's channel number. */
     private final int _channelNumber;
 
+    /** Decoded short strings of the connection's inbound methods */
+    private final ShortStringCache _shortStrings;
+
     /** Command being assembled */
-    private AMQCommand _command = new AMQCommand();
+    private AMQCommand _command;
 
     /** The current outstanding RPC request, if any. (Could become a queue in future.) */
     private RpcContinuation _activeRpc = null;
@@ -66,6 +70,9 @@ public abstract class AMQChannel extends ShutdownNotifierComponent {
     /** Timeout for RPC calls */
     private final int _rpcTimeout;
 
+    /** Encoder for outbound commands, created once the connection pools frame buffers */
+    private FrameEncoder _frameEncoder;
+
     /**
      * Construct a channel on the given connection, with the given channel number.
      * @param connection the underlying connection for this channel
@@ -74,6 +81,8 @@ public abstract class AMQChannel extends ShutdownNotifierComponent {
     public AMQChannel(AMQConnection connection, int channelNumber) {
         this._connection = connection;
         this._channelNumber = channelNumber;
+        this._shortStrings = connection.getShortStringCache();
+        this._command = new AMQCommand(_shortStrings);
         if(connection.getChannelRpcTimeout() < 0) {
             throw new IllegalArgumentException("Continuation timeout on RPC calls cannot be less than 0");
         }
@@ -97,7 +106,7 @@ public abstract class AMQChannel extends ShutdownNotifierComponent {
     public void handleFrame(Frame frame) throws IOException {
         AMQCommand command = _command;
         if (command.handleFrame(frame)) { // a complete command has rolled off the assembly line
-            _command = new AMQCommand(); // prepare for the next one
+            _command = new AMQCommand(_shortStrings); // prepare for the next one
             handleCompleteInboundCommand(command);
         }
     }
@@ -346,28 +355,95 @@ public abstract class AMQChannel extends ShutdownNotifierComponent {
         }
     }
 
+    /**
+     * Transmits the commands back-to-back, flushing the connection
+     * once after the last one rather than after each command.
+     * @param commands the commands to transmit
+     * @throws IOException if an error is encountered
+     */
+    public void transmit(Collection<AMQCommand> commands) throws IOException {
+        transmit(commands, null);
+    }
+
+    /**
+     * Transmits the commands back-to-back, flushing the connection
+     * once after the last one rather than after each command.
+     * @param commands the commands to transmit
+     * @param written where to count the commands written in its first element,
+     *                to know how far a failed transmit got, can be null
+     * @throws IOException if an error is encountered
+     */
+    protected void transmit(Collection<AMQCommand> commands, int[] written) throws IOException {
+        synchronized (_channelMutex) {
+            ensureIsOpen();
+            for (AMQCommand c : commands) {
+                if (c.getMethod().hasContent()) {
+                    awaitContentUnblocked();
+                    break;
+                }
+            }
+            // the channel lock is held from here on, channel.flow can't block content
+            // again, and the connection only counts this writer while it writes
+            _connection.beginTransmit();
+            boolean completed = false;
+            try {
+                for (AMQCommand c : commands) {
+                    c.transmit(this, false);
+                    if (written != null) {
+                        written[0]++;
+                    }
+                }
+                completed = true;
+            } finally {
+                _connection.endTransmit(completed);
+            }
+        }
+    }
+
     public void quiescingTransmit(AMQCommand c) throws IOException {
         synchronized (_channelMutex) {
             if (c.getMethod().hasContent()) {
-                while (_blockContent) {
-                    try {
-                        _channelMutex.wait();
-                    } catch (InterruptedException ignored) {}
-
-                    // This is to catch a situation when the thread wakes up during
-                    // shutdown. Currently, no command that has content is allowed
-                    // to send anything in a closing state.
-                    ensureIsOpen();
-                }
+                awaitContentUnblocked();
             }
             c.transmit(this);
         }
     }
 
+    /** Wait while the broker blocks content with channel.flow, with the channel lock held */
+    private void awaitContentUnblocked() {
+        while (_blockContent) {
+            try {
+                _channelMutex.wait();
+            } catch (InterruptedException ignored) {}
+
+            // This is to catch a situation when the thread wakes up during
+            // shutdown. Currently, no command that has content is allowed
+            // to send anything in a closing state.
+            ensureIsOpen();
+        }
+    }
+
     public AMQConnection getConnection() {
         return _connection;
     }
 
+    /**
+     * Private API - Called by {@link AMQCommand#transmit}
+     * @return the encoder for this channel's outbound commands,
+     * or null if the connection does not pool frame buffers
+     */
+    public FrameEncoder getFrameEncoder() {
+        synchronized (_channelMutex) {
+            if (_frameEncoder == null) {
+                ByteBufferPool pool = _connection.getFrameBufferPool();
+                if (pool != null) {
+                    _frameEncoder = new FrameEncoder(_connection, pool);
+                }
+            }
+            return _frameEncoder;
+        }
+    }
+
     public interface RpcContinuation {
         void handleCommand(AMQCommand command);
         void handleShutdownSignal(ShutdownSignalException signal);
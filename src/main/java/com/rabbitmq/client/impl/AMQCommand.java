@@ -21,6 +21,7 @@ import java.io.IOException;
 
 import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.Command;
+import com.rabbitmq.client.MessageBody;
 
 /**
  * AMQP 0-9-1-specific implementation of {@link Command} which accumulates
@@ -49,6 +50,15 @@ public class AMQCommand implements Command {
         this(null, null, null);
     }
 
+    /**
+     * Construct a command ready to fill in by reading frames, decoding
+     * short strings through the connection's cache.
+     * @param shortStrings the cache, null to decode short strings every time
+     */
+    AMQCommand(ShortStringCache shortStrings) {
+        this.assembler = new CommandAssembler(null, null, null, shortStrings);
+    }
+
     /**
      * Construct a command with just a method, and without header or body.
      * @param method the wrapped method
@@ -85,6 +95,16 @@ public class AMQCommand implements Command {
         return this.assembler.getContentBody();
     }
 
+    /**
+     * Private API - Called by {@link ChannelN#processDelivery}. Hands the
+     * content body over as a {@link MessageBody} the caller
+     * must release, {@link #getContentBody()} cannot be used afterwards.
+     * @return the content body
+     */
+    public MessageBody takeMessageBody() {
+        return this.assembler.takeMessageBody();
+    }
+
     public boolean handleFrame(Frame f) throws IOException {
         return this.assembler.handleFrame(f);
     }
@@ -96,35 +116,75 @@ public class AMQCommand implements Command {
      * @throws IOException if an error is encountered
      */
     public void transmit(AMQChannel channel) throws IOException {
+        transmit(channel, true);
+    }
+
+    /**
+     * Sends this command down the named channel on the channel's
+     * connection, possibly in multiple frames.
+     * @param channel the channel on which to transmit the command
+     * @param flush whether to flush the connection once the command is written
+     * @throws IOException if an error is encountered
+     */
+    public void transmit(AMQChannel channel, boolean flush) throws IOException {
         int channelNumber = channel.getChannelNumber();
         AMQConnection connection = channel.getConnection();
 
-        synchronized (assembler) {
-            Method m = this.assembler.getMethod();
-            connection.writeFrame(m.toFrame(channelNumber));
-            if (m.hasContent()) {
-                byte[] body = this.assembler.getContentBody();
-
-                connection.writeFrame(this.assembler.getContentHeader()
-                        .toFrame(channelNumber, body.length));
-
-                int frameMax = connection.getFrameMax();
-                int bodyPayloadMax = (frameMax == 0) ? body.length : frameMax
-                        - EMPTY_FRAME_SIZE;
-
-                for (int offset = 0; offset < body.length; offset += bodyPayloadMax) {
-                    int remaining = body.length - offset;
-
-                    int fragmentLength = (remaining < bodyPayloadMax) ? remaining
-                            : bodyPayloadMax;
-                    Frame frame = Frame.fromBodyFragment(channelNumber, body,
-                            offset, fragmentLength);
-                    connection.writeFrame(frame);
+        if (flush) {
+            connection.beginTransmit();
+        }
+        boolean written = false;
+        try {
+            synchronized (assembler) {
+                FrameEncoder encoder = channel.getFrameEncoder();
+                if (encoder != null) {
+                    encode(encoder, channelNumber);
+                } else {
+                    writeFrames(connection, channelNumber);
                 }
             }
+            written = true;
+        } finally {
+            if (flush) {
+                connection.endTransmit(written);
+            }
         }
+    }
+
+    /** Encodes the frames of this command with the channel's {@link FrameEncoder} */
+    void encode(FrameEncoder encoder, int channelNumber) throws IOException {
+        encoder.encode(channelNumber, this.assembler.getMethod(),
+                this.assembler.getContentHeader(), this.assembler.getContentBody());
+    }
 
-        connection.flush();
+    /** Sends the frames of this command one {@link Frame} at a time */
+    void writeFrames(AMQConnection connection, int channelNumber) throws IOException {
+        Method m = this.assembler.getMethod();
+        connection.writeFrame(m.toFrame(channelNumber));
+        if (m.hasContent()) {
+            byte[] body = this.assembler.getContentBody();
+
+            connection.writeFrame(this.assembler.getContentHeader()
+                    .toFrame(channelNumber, body.length));
+            writeBodyFrames(connection, channelNumber, body);
+        }
+    }
+
+    /** Sends a content body in as many frames as frame max requires */
+    static void writeBodyFrames(AMQConnection connection, int channelNumber, byte[] body) throws IOException {
+        int frameMax = connection.getFrameMax();
+        int bodyPayloadMax = (frameMax == 0) ? body.length : frameMax
+                - EMPTY_FRAME_SIZE;
+
+        for (int offset = 0; offset < body.length; offset += bodyPayloadMax) {
+            int remaining = body.length - offset;
+
+            int fragmentLength = (remaining < bodyPayloadMax) ? remaining
+                    : bodyPayloadMax;
+            Frame frame = Frame.wrapBodyFragment(channelNumber, body,
+                    offset, fragmentLength);
+            connection.writeFrame(frame);
+        }
     }
 
     @Override public String toString() {
@@ -30,6 +30,7 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.*;
 
@@ -53,6 +54,7 @@ public class AMQConnection extends ShutdownNotifierComponent implements Connecti
 
     private final ExecutorService consumerWorkServiceExecutor;
     private final ScheduledExecutorService heartbeatExecutor;
+    private final boolean sharedHeartbeatTimer;
     private final ExecutorService shutdownExecutor;
     private Thread mainLoopThread;
     private ThreadFactory threadFactory = Executors.defaultThreadFactory();
@@ -119,7 +121,7 @@ public class AMQConnection extends ShutdownNotifierComponent implements Connecti
     private volatile boolean _inConnectionNegotiation;
 
     /** Manages heart-beat sending for this connection */
-    private HeartbeatSender _heartbeatSender;
+    private volatile HeartbeatManager _heartbeatSender;
 
     private final String _virtualHost;
     private final Map<String, Object> _clientProperties;
@@ -134,11 +136,24 @@ public class AMQConnection extends ShutdownNotifierComponent implements Connecti
     private final Collection<BlockedListener> blockedListeners = new CopyOnWriteArrayList<BlockedListener>();
     protected final MetricsCollector metricsCollector;
     private final int channelRpcTimeout;
+    private final int maxUnconfirmedMessagesPerChannel;
+    private final boolean blockOnMaxUnconfirmedMessages;
+    private final ConsumerDispatchParams consumerDispatchParams;
+    private final int frameBufferPoolSize;
+    private final boolean directFrameBuffers;
+    /** Buffers inbound frames are read into, null unless enabled */
+    private final ByteBufferPool inboundFrameBufferPool;
+    /** Coalesces flushes of concurrent writers, null unless enabled */
+    private final CoalescingFlusher flusher;
+    /** Decoded short strings of inbound methods, only used by the thread reading frames */
+    private final ShortStringCache shortStringCache = new ShortStringCache();
 
     /* State modified after start - all volatile */
 
     /** Maximum frame length, or zero if no limit is set */
     private volatile int _frameMax = 0;
+    /** Buffers outbound frames are encoded to, null unless enabled and frame max is set */
+    private volatile ByteBufferPool _frameBufferPool;
     /** Count of socket-timeouts that have happened without any incoming frames */
     private volatile int _missedHeartbeats = 0;
     /** Currently-configured heart-beat interval, in seconds. 0 meaning none. */
@@ -223,12 +238,24 @@ public class AMQConnection extends ShutdownNotifierComponent implements Connecti
         this.saslConfig = params.getSaslConfig();
         this.consumerWorkServiceExecutor = params.getConsumerWorkServiceExecutor();
         this.heartbeatExecutor = params.getHeartbeatExecutor();
+        this.sharedHeartbeatTimer = params.isSharedHeartbeatTimer();
         this.shutdownExecutor = params.getShutdownExecutor();
         this.threadFactory = params.getThreadFactory();
         if(params.getChannelRpcTimeout() < 0) {
             throw new IllegalArgumentException("Continuation timeout on RPC calls cannot be less than 0");
         }
         this.channelRpcTimeout = params.getChannelRpcTimeout();
+        this.maxUnconfirmedMessagesPerChannel = params.getMaxUnconfirmedMessagesPerChannel();
+        this.blockOnMaxUnconfirmedMessages = params.isBlockOnMaxUnconfirmedMessages();
+        this.consumerDispatchParams = params.getConsumerDispatchParams();
+        this.frameBufferPoolSize = params.getFrameBufferPoolSize();
+        this.directFrameBuffers = params.isDirectFrameBuffers();
+        if (params.getInboundFrameBufferPoolSize() > 0) {
+            this.inboundFrameBufferPool = new ByteBufferPool(params.getInboundFrameBufferSize(),
+                params.getInboundFrameBufferPoolSize(), false);
+        } else {
+            this.inboundFrameBufferPool = null;
+        }
 
         this._channel0 = new AMQChannel(this, 0) {
             @Override public boolean processAsync(Command c) throws IOException {
@@ -243,14 +270,30 @@ public class AMQConnection extends ShutdownNotifierComponent implements Connecti
         this._inConnectionNegotiation = true; // we start out waiting for the first protocol response
 
         this.metricsCollector = metricsCollector;
+
+        if (params.isWriteCoalescing()) {
+            this.flusher = new CoalescingFlusher(frameHandler, params.getWriteCoalescingThreshold(),
+                params.getWriteCoalescingDeadline(), this, metricsCollector);
+        } else {
+            this.flusher = null;
+        }
     }
 
     private void initializeConsumerWorkService() {
-        this._workService  = new ConsumerWorkService(consumerWorkServiceExecutor, threadFactory, shutdownTimeout);
+        this._workService  = new ConsumerWorkService(consumerWorkServiceExecutor, threadFactory, shutdownTimeout,
+            consumerDispatchParams, metricsCollector);
     }
 
     private void initializeHeartbeatSender() {
-        this._heartbeatSender = new HeartbeatSender(_frameHandler, heartbeatExecutor, threadFactory);
+        if (_heartbeatSender != null) {
+            // set by the frame handler, or when the main loop started
+            return;
+        }
+        if (heartbeatExecutor == null && sharedHeartbeatTimer) {
+            this._heartbeatSender = new SharedHeartbeatSender(_frameHandler, threadFactory);
+        } else {
+            this._heartbeatSender = new HeartbeatSender(_frameHandler, heartbeatExecutor, threadFactory);
+        }
     }
 
     /**
@@ -272,7 +315,6 @@ public class AMQConnection extends ShutdownNotifierComponent implements Connecti
     public void start()
             throws IOException, TimeoutException {
         initializeConsumerWorkService();
-        initializeHeartbeatSender();
         this._running = true;
         // Make sure that the first thing we do is to send the header,
         // which should cause any socket errors to show up for us, rather
@@ -296,6 +338,8 @@ public class AMQConnection extends ShutdownNotifierComponent implements Connecti
         }
 
         this._frameHandler.initialize(this);
+        // unless the frame handler sends heartbeats itself
+        initializeHeartbeatSender();
 
         AMQP.Connection.Start connStart;
         AMQP.Connection.Tune connTune = null;
@@ -373,6 +417,9 @@ public class AMQConnection extends ShutdownNotifierComponent implements Connecti
                 negotiatedMaxValue(this.requestedFrameMax,
                                    connTune.getFrameMax());
             this._frameMax = frameMax;
+            if (frameBufferPoolSize > 0 && frameMax > 0) {
+                this._frameBufferPool = new ByteBufferPool(frameMax, frameBufferPoolSize, directFrameBuffers);
+            }
 
             int heartbeat =
                 negotiatedMaxValue(this.requestedHeartbeat,
@@ -417,6 +464,8 @@ public class AMQConnection extends ShutdownNotifierComponent implements Connecti
      * Package private API, allows for easier testing.
      */
     public void startMainLoop() {
+        // the main loop can shut the connection down
+        initializeHeartbeatSender();
         MainLoop loop = new MainLoop();
         final String name = "AMQP Connection " + getHostAddress() + ":" + getPort();
         mainLoopThread = Environment.newThread(threadFactory, loop, name);
@@ -451,6 +500,32 @@ public class AMQConnection extends ShutdownNotifierComponent implements Connecti
         return _frameMax;
     }
 
+    /**
+     * Private API - Called by {@link AMQChannel#getFrameEncoder}
+     * @return the pool of outbound frame buffers, or null if frames
+     * are not encoded to pooled buffers
+     */
+    public ByteBufferPool getFrameBufferPool() {
+        return _frameBufferPool;
+    }
+
+    /**
+     * Private API - Called by {@link AMQChannel}
+     * @return the cache of decoded short strings of inbound methods
+     */
+    ShortStringCache getShortStringCache() {
+        return shortStringCache;
+    }
+
+    /**
+     * Private API - Called by frame handlers when reading frames
+     * @return the pool of inbound frame buffers, or null if inbound
+     * frames are not read into pooled buffers
+     */
+    public ByteBufferPool getInboundFrameBufferPool() {
+        return inboundFrameBufferPool;
+    }
+
     /** {@inheritDoc} */
     @Override
     public int getHeartbeat() {
@@ -547,6 +622,27 @@ public class AMQConnection extends ShutdownNotifierComponent implements Connecti
      */
     public void writeFrame(Frame f) throws IOException {
         _frameHandler.writeFrame(f);
+        if (flusher != null) {
+            flusher.written(1, f.size());
+        }
+        _heartbeatSender.signalActivity();
+    }
+
+    /**
+     * Public API - sends already-encoded frames directly to the broker.
+     * @param frames the frames, ready to be read
+     * @param pool the pool to give the buffer back to once written
+     */
+    public void writeFrames(ByteBuffer frames, ByteBufferPool pool) throws IOException {
+        if (flusher != null) {
+            // count before the buffer goes back to the pool
+            int frameCount = CoalescingFlusher.frameCount(frames);
+            int size = frames.remaining();
+            Frame.writeEncoded(_frameHandler, frames, pool);
+            flusher.written(frameCount, size);
+        } else {
+            Frame.writeEncoded(_frameHandler, frames, pool);
+        }
         _heartbeatSender.signalActivity();
     }
 
@@ -554,7 +650,41 @@ public class AMQConnection extends ShutdownNotifierComponent implements Connecti
      * Public API - flush the output buffers
      */
     public void flush() throws IOException {
-        _frameHandler.flush();
+        if (flusher != null) {
+            flusher.flush();
+        } else {
+            _frameHandler.flush();
+        }
+    }
+
+    /**
+     * Private API - a command is about to be written.
+     * Must be followed by {@link #endTransmit(boolean)}.
+     */
+    void beginTransmit() {
+        if (flusher != null) {
+            flusher.enter();
+        }
+    }
+
+    /**
+     * Private API - a command has been written, flush the output buffers
+     * or leave it to the flusher when write coalescing is enabled.
+     * @param flush false if the command could not be written
+     */
+    void endTransmit(boolean flush) throws IOException {
+        if (flusher != null) {
+            flusher.leave(flush);
+        } else if (flush) {
+            flush();
+        }
+    }
+
+    /**
+     * Private API - the write coalescing flusher, null unless enabled
+     */
+    public CoalescingFlusher getFlusher() {
+        return flusher;
     }
 
     private static int negotiatedMaxValue(int clientValue, int serverValue) {
@@ -574,8 +704,28 @@ public class AMQConnection extends ShutdownNotifierComponent implements Connecti
         @Override
         public void run() {
             try {
+                // when reads were paused, -1 if they are not
+                long pausedSince = -1;
                 while (_running) {
+                    if (_workService.isSaturated()) {
+                        long now = System.currentTimeMillis();
+                        if (pausedSince < 0) {
+                            pausedSince = now;
+                        }
+                        if (_heartbeat == 0 || now - pausedSince < _heartbeat * 2000L) {
+                            // a consumer queue is full, stop reading until it drains
+                            _workService.awaitUnsaturated(100);
+                            continue;
+                        }
+                        // paused for too long to tell slow consumers from a dead
+                        // peer, read until a frame comes in to check heartbeats
+                    } else {
+                        pausedSince = -1;
+                    }
                     Frame frame = _frameHandler.readFrame();
+                    if (frame != null) {
+                        pausedSince = -1;
+                    }
                     readFrame(frame);
                 }
             } catch (Throwable ex) {
@@ -607,6 +757,37 @@ public class AMQConnection extends ShutdownNotifierComponent implements Connecti
         return _running;
     }
 
+    /**
+     * Private API - replace the default heartbeat sender, for frame handlers
+     * that send heartbeats themselves. Must be called before the heartbeat
+     * is negotiated, typically in {@link FrameHandler#initialize(AMQConnection)}.
+     */
+    public void setHeartbeatManager(HeartbeatManager heartbeatManager) {
+        HeartbeatManager previous = this._heartbeatSender;
+        this._heartbeatSender = heartbeatManager;
+        if (previous != null) {
+            previous.shutdown();
+        }
+    }
+
+    /**
+     * Private API - whether the connection should stop reading because
+     * the callback queue of a channel is full.
+     * @see ConsumerDispatchParams.Backpressure#PAUSE_READS
+     */
+    public boolean isReadPaused() {
+        ConsumerWorkService workService = this._workService;
+        return workService != null && workService.isSaturated();
+    }
+
+    /**
+     * Private API - set the callback run when the connection can read again,
+     * after its reads have been paused.
+     */
+    public void setReadResumer(Runnable readResumer) {
+        this._workService.setReadResumer(readResumer);
+    }
+
     public boolean hasBrokerInitiatedShutdown() {
         return _brokerInitiatedShutdown;
     }
@@ -1056,4 +1237,12 @@ public class AMQConnection extends ShutdownNotifierComponent implements Connecti
     public int getChannelRpcTimeout() {
         return channelRpcTimeout;
     }
+
+    public int getMaxUnconfirmedMessagesPerChannel() {
+        return maxUnconfirmedMessagesPerChannel;
+    }
+
+    public boolean isBlockOnMaxUnconfirmedMessages() {
+        return blockOnMaxUnconfirmedMessages;
+    }
 }
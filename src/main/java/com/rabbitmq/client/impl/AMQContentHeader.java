@@ -31,6 +31,9 @@ public abstract class AMQContentHeader implements ContentHeader {
      * Private API - Called by {@link AMQChannel#handleFrame}. Parses the header frame.
      */
     private long bodySize; 
+
+    /** Private API - size of the weight and of the body size, before the properties */
+    protected static final int WEIGHT_AND_BODY_SIZE_LENGTH = 2 + 8;
     
     protected AMQContentHeader() {
         this.bodySize = 0;
@@ -44,7 +47,10 @@ public abstract class AMQContentHeader implements ContentHeader {
     public long getBodySize() { return bodySize; }
     
 
-    private void writeTo(DataOutputStream out, long bodySize) throws IOException {
+    /**
+     * Private API - writes everything after the class id, see {@link #toFrame}
+     */
+    void writeTo(DataOutputStream out, long bodySize) throws IOException {
         out.writeShort(0); // weight - not currently used
         out.writeLong(bodySize);
         writePropertiesTo(new ContentHeaderPropertyWriter(out));
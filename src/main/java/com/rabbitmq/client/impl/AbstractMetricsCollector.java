@@ -31,6 +31,10 @@ import java.util.concurrent.locks.ReentrantLock;
  * rejected messages. Sub-classes just need to implement
  * the logic to increment their metrics.
  * Note transactions are not supported (see {@link MetricsCollector}.
+ * <p>
+ * The methods of {@link ExtendedMetricsCollector} are implemented as well,
+ * sub-classes collecting these metrics declare they implement it
+ * and override the corresponding methods, which do nothing by default.
  *
  * @see MetricsCollector
  */
@@ -217,6 +221,39 @@ public abstract class AbstractMetricsCollector implements MetricsCollector {
         }
     }
 
+    /**
+     * @see ExtendedMetricsCollector#framesFlushed(Connection, int)
+     */
+    public void framesFlushed(Connection connection, int frames) {
+        try {
+            markFramesFlushed(frames);
+        } catch(Exception e) {
+            LOGGER.info("Error while computing metrics in framesFlushed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @see ExtendedMetricsCollector#unconfirmedMessages(Channel, int)
+     */
+    public void unconfirmedMessages(Channel channel, int unconfirmed) {
+        try {
+            markUnconfirmedMessages(unconfirmed);
+        } catch(Exception e) {
+            LOGGER.info("Error while computing metrics in unconfirmedMessages: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @see ExtendedMetricsCollector#consumerQueueDepth(Channel, int)
+     */
+    public void consumerQueueDepth(Channel channel, int depth) {
+        try {
+            markConsumerQueueDepth(channel, depth);
+        } catch(Exception e) {
+            LOGGER.info("Error while computing metrics in consumerQueueDepth: " + e.getMessage());
+        }
+    }
+
     private void updateChannelStateAfterAckReject(Channel channel, long deliveryTag, boolean multiple, Runnable action) {
         ChannelState channelState = channelState(channel);
         channelState.lock.lock();
@@ -276,8 +313,8 @@ public abstract class AbstractMetricsCollector implements MetricsCollector {
                 } else {
                     connectionStateIterator.remove();
                     decrementConnectionCount(connection);
-                    for(int i = 0; i < connectionEntry.getValue().channelState.size(); i++) {
-                        decrementChannelCount(null);
+                    for(ChannelState channelState : connectionEntry.getValue().channelState.values()) {
+                        decrementChannelCount(channelState.channel);
                     }
                     LOGGER.info("Ripped off state of connection {}. This is abnormal, please report.",
                         connection.getId());
@@ -365,6 +402,33 @@ public abstract class AbstractMetricsCollector implements MetricsCollector {
      */
     protected abstract void markRejectedMessage();
 
+    /**
+     * Marks the event of a flush of the frames written by several commands.
+     * Does nothing by default.
+     * @param frames the number of frames flushed
+     */
+    protected void markFramesFlushed(int frames) {
+    }
+
+    /**
+     * Marks the number of unconfirmed messages of a channel
+     * with a max number of unconfirmed messages.
+     * Does nothing by default.
+     * @param unconfirmed the number of unconfirmed messages
+     */
+    protected void markUnconfirmedMessages(int unconfirmed) {
+    }
+
+    /**
+     * Records a sample of the number of deliveries waiting to be dispatched
+     * to the consumers of a channel.
+     * Does nothing by default.
+     * @param channel the channel
+     * @param depth the number of deliveries queued for the channel
+     */
+    protected void markConsumerQueueDepth(Channel channel, int depth) {
+    }
+
 
 
 }
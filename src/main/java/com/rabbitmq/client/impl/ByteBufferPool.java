@@ -0,0 +1,88 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.impl;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Bounded pool of equally-sized {@link ByteBuffer}s.
+ * <p/>
+ * {@link #acquire()} never blocks: a new buffer is allocated when the pool
+ * is empty. {@link #release(ByteBuffer)} keeps the buffer for later use unless
+ * the pool is already full, in which case the buffer is left to the
+ * garbage collector.
+ * <h2>Concurrency</h2>
+ * This class is thread-safe.
+ */
+public class ByteBufferPool {
+
+    private final int bufferSize;
+
+    private final boolean direct;
+
+    private final BlockingQueue<ByteBuffer> buffers;
+
+    /**
+     * @param bufferSize capacity of the buffers
+     * @param maxPooled maximum number of idle buffers kept in the pool
+     * @param direct whether to allocate direct or heap buffers
+     */
+    public ByteBufferPool(int bufferSize, int maxPooled, boolean direct) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be greater than 0");
+        }
+        if (maxPooled <= 0) {
+            throw new IllegalArgumentException("Pool size must be greater than 0");
+        }
+        this.bufferSize = bufferSize;
+        this.direct = direct;
+        this.buffers = new ArrayBlockingQueue<ByteBuffer>(maxPooled);
+    }
+
+    /**
+     * Take a cleared buffer from the pool, or allocate a new one.
+     * @return a buffer ready to be written to
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            return direct ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Give a buffer back to the pool. The buffer must not be used
+     * by the caller afterwards.
+     * @param buffer buffer previously obtained with {@link #acquire()}
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer != null && buffer.capacity() == bufferSize && buffer.isDirect() == direct) {
+            buffers.offer(buffer);
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+}
@@ -0,0 +1,219 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.impl;
+
+import com.rabbitmq.client.Channel;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs consumer work on a fixed set of single-threaded loops, each channel
+ * being pinned to one loop, chosen from its channel number.
+ * <p/>
+ * The work of a channel always runs on the same thread, in order,
+ * and there's no lock shared between channels. When rebalancing is enabled,
+ * a channel without pending work can move from an overloaded loop
+ * to the least loaded one.
+ * <p/>
+ * Package-protected API, used by {@link ConsumerWorkService}.
+ */
+final class ChannelAffinityDispatcher {
+
+    private final Loop[] loops;
+    private final ConcurrentMap<Channel, ChannelState> channels = new ConcurrentHashMap<Channel, ChannelState>();
+    /** Channels which want limits to be removed. We do not limit pending work if this is non-empty. */
+    private final Set<Channel> unlimited = new HashSet<Channel>();
+    private volatile boolean limited = true;
+    private final int capacity;
+    private final int rebalanceThreshold;
+    private final ConsumerQueueDepthSampler queueDepthSampler;
+
+    /**
+     * @param loopCount number of loops
+     * @param threadFactory factory for the loop threads
+     * @param capacity max number of pending work items per channel, when limited
+     * @param rebalanceThreshold number of pending work items that makes a loop
+     *                           overloaded, 0 to never move channels
+     * @param queueDepthSampler sampler of the channel queue depths, null not to sample them
+     */
+    ChannelAffinityDispatcher(int loopCount, ThreadFactory threadFactory, int capacity,
+                              int rebalanceThreshold, ConsumerQueueDepthSampler queueDepthSampler) {
+        this.loops = new Loop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            this.loops[i] = new Loop(Executors.newSingleThreadExecutor(threadFactory));
+        }
+        this.capacity = capacity;
+        this.rebalanceThreshold = rebalanceThreshold;
+        this.queueDepthSampler = queueDepthSampler;
+    }
+
+    void registerKey(Channel channel) {
+        int loop = (channel.getChannelNumber() & Integer.MAX_VALUE) % loops.length;
+        channels.putIfAbsent(channel, new ChannelState(channel, loop));
+    }
+
+    void stopWork(Channel channel) {
+        ChannelState state = channels.remove(channel);
+        if (state != null) {
+            state.stop();
+        }
+        synchronized (unlimited) {
+            if (unlimited.remove(channel)) {
+                limited = unlimited.isEmpty();
+            }
+        }
+    }
+
+    void setUnlimited(Channel channel, boolean unlimit) {
+        synchronized (unlimited) {
+            if (unlimit) {
+                unlimited.add(channel);
+            } else {
+                unlimited.remove(channel);
+            }
+            limited = unlimited.isEmpty();
+        }
+        if (!limited) {
+            for (ChannelState state : channels.values()) {
+                state.wakeUpProducers();
+            }
+        }
+    }
+
+    void addWork(Channel channel, Runnable runnable) {
+        ChannelState state = channels.get(channel);
+        if (state != null) {
+            state.add(runnable);
+        }
+    }
+
+    void shutdown() {
+        for (ChannelState state : channels.values()) {
+            state.stop();
+        }
+        channels.clear();
+        for (Loop loop : loops) {
+            loop.executor.shutdown();
+        }
+    }
+
+    private int leastLoaded() {
+        int result = 0;
+        for (int i = 1; i < loops.length; i++) {
+            if (loops[i].pending.get() < loops[result].pending.get()) {
+                result = i;
+            }
+        }
+        return result;
+    }
+
+    private static final class Loop {
+        private final ExecutorService executor;
+        /** number of work items submitted and not run yet */
+        private final AtomicInteger pending = new AtomicInteger(0);
+
+        Loop(ExecutorService executor) {
+            this.executor = executor;
+        }
+    }
+
+    private final class ChannelState {
+        private final Channel channel;
+        /** number of work items submitted and not run yet */
+        private final AtomicInteger pending = new AtomicInteger(0);
+        /** number of producers waiting for pending work to go below capacity */
+        private volatile int waitingProducers = 0;
+        private volatile int loop;
+        private volatile boolean stopped = false;
+
+        ChannelState(Channel channel, int loop) {
+            this.channel = channel;
+            this.loop = loop;
+        }
+
+        synchronized void add(final Runnable runnable) {
+            boolean interrupted = false;
+            waitingProducers++;
+            try {
+                while (limited && pending.get() >= capacity && !stopped) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } finally {
+                waitingProducers--;
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (stopped) {
+                return;
+            }
+            if (pending.get() == 0 && rebalanceThreshold > 0
+                && loops[loop].pending.get() >= rebalanceThreshold) {
+                // nothing of this channel in flight: it can move without reordering
+                int target = leastLoaded();
+                if (loops[target].pending.get() < loops[loop].pending.get()) {
+                    loop = target;
+                }
+            }
+            pending.incrementAndGet();
+            final Loop target = loops[loop];
+            target.pending.incrementAndGet();
+            target.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (!stopped) {
+                            if (queueDepthSampler != null && queueDepthSampler.isDue()) {
+                                queueDepthSampler.sample(channel, pending.get());
+                            }
+                            runnable.run();
+                        }
+                    } finally {
+                        target.pending.decrementAndGet();
+                        done();
+                    }
+                }
+            });
+        }
+
+        void done() {
+            pending.decrementAndGet();
+            if (waitingProducers > 0) {
+                wakeUpProducers();
+            }
+        }
+
+        synchronized void stop() {
+            stopped = true;
+            notifyAll();
+        }
+
+        synchronized void wakeUpProducers() {
+            notifyAll();
+        }
+    }
+}
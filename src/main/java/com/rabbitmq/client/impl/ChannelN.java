@@ -16,12 +16,12 @@
 package com.rabbitmq.client.impl;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeoutException;
@@ -81,16 +81,27 @@ public class ChannelN extends AMQChannel implements com.rabbitmq.client.Channel
     /** Future boolean for shutting down */
     private volatile CountDownLatch finishedShutdownFlag = null;
 
-    /** Set of currently unconfirmed messages (i.e. messages that have
-     *  not been ack'd or nack'd by the server yet. */
-    private final SortedSet<Long> unconfirmedSet =
-            Collections.synchronizedSortedSet(new TreeSet<Long>());
+    /** Sequence numbers of currently unconfirmed messages (i.e. messages
+     *  that have not been ack'd or nack'd by the server yet, with the
+     *  confirms of those published with basicPublishWithConfirm. */
+    private final ConfirmTracker<ChannelPublishConfirm> unconfirmedSet =
+            new ConfirmTracker<ChannelPublishConfirm>();
+
+    /** Confirms to complete, only used by the thread handling acks and nacks */
+    private final List<ChannelPublishConfirm> confirmedPublishConfirms =
+            new ArrayList<ChannelPublishConfirm>();
+
+    /** Bounds unconfirmed messages, null if there's no limit */
+    private final ConfirmWindow confirmWindow;
 
     /** Whether any nacks have been received since the last waitForConfirms(). */
     private volatile boolean onlyAcksReceived = true;
 
     private final MetricsCollector metricsCollector;
 
+    /** Collector of the unconfirmed messages, null if the metrics collector doesn't collect them */
+    private final ExtendedMetricsCollector extendedMetricsCollector;
+
     /**
      * Construct a new channel on the given connection with the given
      * channel number. Usually not called directly - call
@@ -120,6 +131,14 @@ public class ChannelN extends AMQChannel implements com.rabbitmq.client.Channel
         super(connection, channelNumber);
         this.dispatcher = new ConsumerDispatcher(connection, this, workService);
         this.metricsCollector = metricsCollector;
+        this.extendedMetricsCollector = metricsCollector instanceof ExtendedMetricsCollector
+            ? (ExtendedMetricsCollector) metricsCollector : null;
+        if (connection.getMaxUnconfirmedMessagesPerChannel() > 0) {
+            this.confirmWindow = new ConfirmWindow(connection.getMaxUnconfirmedMessagesPerChannel(),
+                connection.isBlockOnMaxUnconfirmedMessages());
+        } else {
+            this.confirmWindow = null;
+        }
     }
 
     /**
@@ -293,6 +312,10 @@ public class ChannelN extends AMQChannel implements com.rabbitmq.client.Channel
         synchronized (unconfirmedSet) {
             unconfirmedSet.notifyAll();
         }
+        failPublishConfirms(getCloseReason());
+        if (confirmWindow != null) {
+            confirmWindow.close();
+        }
     }
 
     /**
@@ -440,11 +463,19 @@ public class ChannelN extends AMQChannel implements com.rabbitmq.client.Channel
             // this way, the message is inside the stats before it is handled
             // in case a manual ack in the callback, the stats will be able to record the ack
             metricsCollector.consumedMessage(this, m.getDeliveryTag(), m.getConsumerTag());
-            this.dispatcher.handleDelivery(callback,
-                                           m.getConsumerTag(),
-                                           envelope,
-                                           (BasicProperties) command.getContentHeader(),
-                                           command.getContentBody());
+            if (callback instanceof ByteBufferConsumer) {
+                this.dispatcher.handleDelivery((ByteBufferConsumer) callback,
+                                               m.getConsumerTag(),
+                                               envelope,
+                                               (BasicProperties) command.getContentHeader(),
+                                               ((AMQCommand) command).takeMessageBody());
+            } else {
+                this.dispatcher.handleDelivery(callback,
+                                               m.getConsumerTag(),
+                                               envelope,
+                                               (BasicProperties) command.getContentHeader(),
+                                               command.getContentBody());
+            }
         } catch (Throwable ex) {
             getConnection().getExceptionHandler().handleConsumerException(this,
                 ex,
@@ -675,22 +706,166 @@ public class ChannelN extends AMQChannel implements com.rabbitmq.client.Channel
                              BasicProperties props, byte[] body)
         throws IOException
     {
-        if (nextPublishSeqNo > 0) {
-            unconfirmedSet.add(getNextPublishSeqNo());
-            nextPublishSeqNo++;
+        publish(Collections.singletonList(publishCommand(exchange, routingKey, mandatory, immediate, props, body)), false);
+        metricsCollector.basicPublish(this);
+    }
+
+    /** Public API - {@inheritDoc} */
+    @Override
+    public void basicPublish(PublishBatch batch)
+        throws IOException
+    {
+        List<AMQCommand> commands = new ArrayList<AMQCommand>(batch.size());
+        for (PublishBatch.Message message : batch.getMessages()) {
+            commands.add(publishCommand(message.getExchange(), message.getRoutingKey(),
+                                        message.isMandatory(), false,
+                                        message.getProps(), message.getBody()));
+        }
+        publish(commands, false);
+        for (int i = 0; i < commands.size(); i++) {
+            metricsCollector.basicPublish(this);
         }
+    }
+
+    /** Public API - {@inheritDoc} */
+    @Override
+    public void basicPublish(PublishTemplate template, byte[] body)
+        throws IOException
+    {
+        publish(Collections.singletonList(template.getEncoded().command(body)), false);
+        metricsCollector.basicPublish(this);
+    }
+
+    /** Public API - {@inheritDoc} */
+    @Override
+    public PublishConfirm basicPublishWithConfirm(String exchange, String routingKey,
+                                                  BasicProperties props, byte[] body)
+        throws IOException
+    {
+        return basicPublishWithConfirm(exchange, routingKey, false, props, body);
+    }
+
+    /** Public API - {@inheritDoc} */
+    @Override
+    public PublishConfirm basicPublishWithConfirm(String exchange, String routingKey,
+                                                  boolean mandatory,
+                                                  BasicProperties props, byte[] body)
+        throws IOException
+    {
+        if (nextPublishSeqNo == 0L)
+            throw new IllegalStateException("Confirms not selected");
+        ChannelPublishConfirm confirm = publish(
+            Collections.singletonList(publishCommand(exchange, routingKey, mandatory, false, props, body)), true);
+        metricsCollector.basicPublish(this);
+        return confirm;
+    }
+
+    /**
+     * Send messages, tracking their sequence numbers if confirms are enabled.
+     * Messages that could not be sent are no longer tracked: their sequence
+     * numbers are reused and their room in the confirm window is given back,
+     * so the confirms of the next messages still match their sequence numbers.
+     * @param commands the publish commands
+     * @param withConfirm whether to return a confirm handle for a single message
+     * @return the confirm handle, null unless requested
+     */
+    private ChannelPublishConfirm publish(List<AMQCommand> commands, boolean withConfirm)
+        throws IOException
+    {
+        int messages = commands.size();
+        int acquired = acquireConfirmWindow(messages);
+        ChannelPublishConfirm confirm = null;
+        int[] written = new int[1];
+        boolean tracked = false;
+        // room to give back if some messages aren't sent
+        int unsent = acquired;
+        try {
+            synchronized (_channelMutex) {
+                long firstSeqNo = nextPublishSeqNo;
+                try {
+                    // sequence numbers must follow the order messages are sent in, and be
+                    // registered before sending, an ack could come in before transmit returns
+                    if (firstSeqNo > 0) {
+                        if (withConfirm) {
+                            confirm = new ChannelPublishConfirm(firstSeqNo);
+                        }
+                        for (int i = 0; i < messages; i++) {
+                            unconfirmedSet.add(firstSeqNo + i, i == 0 ? confirm : null);
+                        }
+                        nextPublishSeqNo += messages;
+                        tracked = true;
+                    }
+                    if (messages == 1) {
+                        transmit(commands.get(0));
+                        written[0] = 1;
+                    } else {
+                        transmit(commands, written);
+                    }
+                } finally {
+                    if (tracked && written[0] < messages) {
+                        // the broker didn't get these messages and won't confirm them
+                        nextPublishSeqNo = firstSeqNo + written[0];
+                        unsent = acquired == 0 ? 0 : unconfirmedSet.removeFrom(nextPublishSeqNo);
+                    }
+                }
+            }
+        } finally {
+            if (written[0] < messages) {
+                releaseConfirmWindow(unsent);
+                if (tracked) {
+                    synchronized (unconfirmedSet) {
+                        if (unconfirmedSet.isEmpty())
+                            unconfirmedSet.notifyAll();
+                    }
+                }
+            }
+        }
+        return confirm;
+    }
+
+    /**
+     * Take room in the confirm window for messages about to be published,
+     * if there's a window and confirms are enabled.
+     * @param messages the number of messages
+     * @return the room taken, to give back if the messages end up not tracked
+     */
+    private int acquireConfirmWindow(int messages) throws IOException {
+        if (confirmWindow == null || nextPublishSeqNo == 0L) {
+            return 0;
+        }
+        if (!confirmWindow.acquire(messages)) {
+            throw new AlreadyClosedException(getCloseReason());
+        }
+        if (extendedMetricsCollector != null) {
+            extendedMetricsCollector.unconfirmedMessages(this, confirmWindow.getOccupied());
+        }
+        return messages;
+    }
+
+    private void releaseConfirmWindow(int messages) {
+        if (confirmWindow != null && messages > 0) {
+            confirmWindow.release(messages);
+            if (extendedMetricsCollector != null) {
+                extendedMetricsCollector.unconfirmedMessages(this, confirmWindow.getOccupied());
+            }
+        }
+    }
+
+    private static AMQCommand publishCommand(String exchange, String routingKey,
+                                             boolean mandatory, boolean immediate,
+                                             BasicProperties props, byte[] body)
+    {
         BasicProperties useProps = props;
         if (props == null) {
             useProps = MessageProperties.MINIMAL_BASIC;
         }
-        transmit(new AMQCommand(new Basic.Publish.Builder()
-                                        .exchange(exchange)
-                                        .routingKey(routingKey)
-                                        .mandatory(mandatory)
-                                        .immediate(immediate)
-                                        .build(),
-                                       useProps, body));
-        metricsCollector.basicPublish(this);
+        return new AMQCommand(new Basic.Publish.Builder()
+                                      .exchange(exchange)
+                                      .routingKey(routingKey)
+                                      .mandatory(mandatory)
+                                      .immediate(immediate)
+                                      .build(),
+                                     useProps, body);
     }
 
 
@@ -1376,10 +1551,23 @@ public class ChannelN extends AMQChannel implements com.rabbitmq.client.Channel
     }
 
     private void handleAckNack(long seqNo, boolean multiple, boolean nack) {
+        List<ChannelPublishConfirm> confirms = confirmedPublishConfirms;
+        int confirmed;
         if (multiple) {
-            unconfirmedSet.headSet(seqNo + 1).clear();
+            confirmed = unconfirmedSet.removeUpTo(seqNo, confirms);
         } else {
-            unconfirmedSet.remove(seqNo);
+            confirmed = unconfirmedSet.remove(seqNo, confirms) ? 1 : 0;
+        }
+        releaseConfirmWindow(confirmed);
+        if (!confirms.isEmpty()) {
+            for (ChannelPublishConfirm confirm : confirms) {
+                try {
+                    confirm.confirmed(!nack);
+                } catch (Throwable ex) {
+                    getConnection().getExceptionHandler().handleConfirmListenerException(this, ex);
+                }
+            }
+            confirms.clear();
         }
         synchronized (unconfirmedSet) {
             onlyAcksReceived = onlyAcksReceived && !nack;
@@ -1388,6 +1576,18 @@ public class ChannelN extends AMQChannel implements com.rabbitmq.client.Channel
         }
     }
 
+    private void failPublishConfirms(ShutdownSignalException cause) {
+        List<ChannelPublishConfirm> confirms = new ArrayList<ChannelPublishConfirm>();
+        unconfirmedSet.removeAttachments(confirms);
+        for (ChannelPublishConfirm confirm : confirms) {
+            try {
+                confirm.abandoned(cause);
+            } catch (Throwable ex) {
+                getConnection().getExceptionHandler().handleConfirmListenerException(this, ex);
+            }
+        }
+    }
+
     private static void validateQueueNameLength(String queue) {
         if(queue.length() > 255) {
            throw new IllegalArgumentException("queue name must be no more than 255 characters long");
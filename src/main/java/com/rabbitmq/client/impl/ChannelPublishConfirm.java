@@ -0,0 +1,40 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.impl;
+
+import com.rabbitmq.client.PublishConfirm;
+import com.rabbitmq.client.ShutdownSignalException;
+
+/**
+ * A {@link PublishConfirm} only the channel which published
+ * the message can complete.
+ */
+final class ChannelPublishConfirm extends PublishConfirm {
+
+    ChannelPublishConfirm(long sequenceNumber) {
+        super(sequenceNumber);
+    }
+
+    /** The broker acked or nacked the message */
+    void confirmed(boolean ack) {
+        complete(ack);
+    }
+
+    /** The channel was closed before the message was confirmed */
+    void abandoned(ShutdownSignalException cause) {
+        fail(cause);
+    }
+}
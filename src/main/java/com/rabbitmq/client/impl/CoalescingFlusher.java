@@ -0,0 +1,181 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.impl;
+
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ExtendedMetricsCollector;
+import com.rabbitmq.client.MetricsCollector;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides when to flush the {@link FrameHandler} of a connection shared by
+ * several writing threads, so that frames written concurrently go out with
+ * as few flushes as possible.
+ * <p/>
+ * Writers call {@link #enter()} before writing a command and
+ * {@link #leave(boolean)} once it is written. The output is flushed when
+ * the leaving writer is the last one in, when the pending frames reach a
+ * size threshold, or when the oldest pending frame has waited longer than
+ * a deadline. The last writer out always flushes, so frames never stay
+ * unflushed once writers are done, even if it failed to write its own;
+ * the deadline bounds the latency when writers keep coming in.
+ * Writers are only counted while they write frames, not while they wait
+ * to be allowed to, e.g. on <code>channel.flow</code>.
+ * <h2>Concurrency</h2>
+ * This class is thread-safe.
+ */
+public class CoalescingFlusher {
+
+    private final FrameHandler frameHandler;
+
+    private final int threshold;
+
+    private final long deadlineNanos;
+
+    private final Connection connection;
+
+    /** Collector of the frames per flush, null if the metrics collector doesn't collect them */
+    private final ExtendedMetricsCollector metricsCollector;
+
+    /** Writers between {@link #enter()} and {@link #leave(boolean)} */
+    private final AtomicInteger writers = new AtomicInteger(0);
+
+    private final AtomicInteger pendingFrames = new AtomicInteger(0);
+
+    private final AtomicLong pendingBytes = new AtomicLong(0);
+
+    /** When the first frame since the last flush was written */
+    private volatile long firstPendingTime;
+
+    private final AtomicLong flushCount = new AtomicLong(0);
+
+    private final AtomicLong flushedFrameCount = new AtomicLong(0);
+
+    /**
+     * @param frameHandler the frame handler to flush
+     * @param threshold number of pending bytes that triggers a flush
+     * @param deadline max time the oldest pending frame can wait for a flush, in microseconds
+     * @param connection the connection, for metrics
+     * @param metricsCollector collector frames per flush are reported to,
+     *                         if it is an {@link ExtendedMetricsCollector}
+     */
+    public CoalescingFlusher(FrameHandler frameHandler, int threshold, long deadline,
+                             Connection connection, MetricsCollector metricsCollector) {
+        this.frameHandler = frameHandler;
+        this.threshold = threshold;
+        this.deadlineNanos = TimeUnit.MICROSECONDS.toNanos(deadline);
+        this.connection = connection;
+        this.metricsCollector = metricsCollector instanceof ExtendedMetricsCollector
+            ? (ExtendedMetricsCollector) metricsCollector : null;
+    }
+
+    /**
+     * A writer is about to write frames.
+     */
+    public void enter() {
+        writers.incrementAndGet();
+    }
+
+    /**
+     * Frames have been written to the frame handler.
+     * @param frames the number of frames
+     * @param bytes their size on the wire
+     */
+    public void written(int frames, int bytes) {
+        if (pendingFrames.getAndAdd(frames) == 0) {
+            firstPendingTime = System.nanoTime();
+        }
+        pendingBytes.addAndGet(bytes);
+    }
+
+    /**
+     * A writer is done, flush if it is the last one in, or
+     * if the threshold or deadline is reached.
+     * <p/>
+     * A writer which failed only flushes if it is the last one in, for the
+     * frames of the other writers, and doesn't report a failure to flush:
+     * it has its own failure to report.
+     * @param written false if the writer failed
+     * @throws IOException if the flush fails
+     */
+    public void leave(boolean written) throws IOException {
+        int remaining = writers.decrementAndGet();
+        if (written) {
+            if (remaining == 0 || pendingBytes.get() >= threshold
+                || System.nanoTime() - firstPendingTime >= deadlineNanos) {
+                flush();
+            }
+        } else if (remaining == 0 && pendingFrames.get() > 0) {
+            try {
+                flush();
+            } catch (IOException ignored) {
+                // the output is most likely broken, the writer reports why
+            }
+        }
+    }
+
+    /**
+     * Flush pending frames now.
+     * @throws IOException if the flush fails
+     */
+    public void flush() throws IOException {
+        int frames = pendingFrames.getAndSet(0);
+        pendingBytes.set(0);
+        frameHandler.flush();
+        if (frames > 0) {
+            flushCount.incrementAndGet();
+            flushedFrameCount.addAndGet(frames);
+            if (metricsCollector != null) {
+                metricsCollector.framesFlushed(connection, frames);
+            }
+        }
+    }
+
+    /**
+     * @return the number of flushes that sent frames
+     */
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    /**
+     * @return the number of frames sent by flushes
+     */
+    public long getFlushedFrameCount() {
+        return flushedFrameCount.get();
+    }
+
+    /**
+     * Count the frames in a buffer of encoded frames.
+     * @param frames the frames, between position and limit
+     * @return the number of frames
+     */
+    static int frameCount(ByteBuffer frames) {
+        int count = 0;
+        int position = frames.position();
+        while (position < frames.limit()) {
+            // type (1), channel (2), then payload size
+            position += frames.getInt(position + 3) + AMQCommand.EMPTY_FRAME_SIZE;
+            count++;
+        }
+        return count;
+    }
+}
@@ -52,7 +52,21 @@ final class CommandAssembler {
     /** No bytes of content body not yet accumulated */
     private long remainingBodyBytes;
 
+    /** Body frame read into a pooled buffer and holding the whole content body, not copied to bodyN */
+    private Frame pooledBodyFrame;
+
+    /** Whether the pooled body frame has been handed over with {@link #takeMessageBody()} */
+    private boolean bodyTaken;
+
+    /** Decoded short strings of the connection the method is read from, null if not cached */
+    private final ShortStringCache shortStrings;
+
     public CommandAssembler(Method method, AMQContentHeader contentHeader, byte[] body) {
+        this(method, contentHeader, body, null);
+    }
+
+    CommandAssembler(Method method, AMQContentHeader contentHeader, byte[] body, ShortStringCache shortStrings) {
+        this.shortStrings = shortStrings;
         this.method = method;
         this.contentHeader = contentHeader;
         this.bodyN = new ArrayList<byte[]>(2);
@@ -89,7 +103,8 @@ final class CommandAssembler {
 
     private void consumeMethodFrame(Frame f) throws IOException {
         if (f.type == AMQP.FRAME_METHOD) {
-            this.method = AMQImpl.readMethodFrom(f.getInputStream());
+            this.method = AMQImpl.readMethodFrom(f.getInputStream(), shortStrings);
+            f.release();
             this.state = this.method.hasContent() ? CAState.EXPECTING_CONTENT_HEADER : CAState.COMPLETE;
         } else {
             throw new UnexpectedFrameError(f, AMQP.FRAME_METHOD);
@@ -98,7 +113,8 @@ final class CommandAssembler {
 
     private void consumeHeaderFrame(Frame f) throws IOException {
         if (f.type == AMQP.FRAME_HEADER) {
-            this.contentHeader = AMQImpl.readContentHeaderFrom(f.getInputStream());
+            this.contentHeader = AMQImpl.readContentHeaderFrom(f.getInputStream(), f.getPayloadSize());
+            f.release();
             this.remainingBodyBytes = this.contentHeader.getBodySize();
             updateContentBodyState();
         } else {
@@ -108,13 +124,20 @@ final class CommandAssembler {
 
     private void consumeBodyFrame(Frame f) {
         if (f.type == AMQP.FRAME_BODY) {
-            byte[] fragment = f.getPayload();
-            this.remainingBodyBytes -= fragment.length;
+            int fragmentLength = f.getPayloadSize();
+            this.remainingBodyBytes -= fragmentLength;
             updateContentBodyState();
             if (this.remainingBodyBytes < 0) {
                 throw new UnsupportedOperationException("%%%%%% FIXME unimplemented");
             }
-            appendBodyFragment(fragment);
+            if (f.isPooled() && this.bodyLength == 0 && this.remainingBodyBytes == 0) {
+                // the whole body is in this frame, keep it in the pooled buffer
+                this.pooledBodyFrame = f;
+                this.bodyLength = fragmentLength;
+            } else {
+                appendBodyFragment(f.getPayload());
+                f.release();
+            }
         } else {
             throw new UnexpectedFrameError(f, AMQP.FRAME_BODY);
         }
@@ -122,6 +145,16 @@ final class CommandAssembler {
 
     /** Stitches together a fragmented content body into a single byte array */
     private byte[] coalesceContentBody() {
+        if (this.bodyTaken) {
+            throw new IllegalStateException("Content body has been handed over as a message body");
+        }
+        if (this.pooledBodyFrame != null) {
+            byte[] body = this.pooledBodyFrame.getPayload();
+            this.pooledBodyFrame.release();
+            this.pooledBodyFrame = null;
+            this.bodyN.add(body);
+            return body;
+        }
         if (this.bodyLength == 0) return EMPTY_BYTE_ARRAY;
         if (this.bodyN.size() == 1) return this.bodyN.get(0);
 
@@ -140,6 +173,20 @@ final class CommandAssembler {
         return coalesceContentBody();
     }
 
+    /**
+     * Hands the content body over as a {@link PooledMessageBody}, without copying it
+     * if it is held in a pooled buffer. The content body cannot be retrieved afterwards.
+     */
+    public synchronized PooledMessageBody takeMessageBody() {
+        if (this.pooledBodyFrame != null) {
+            PooledMessageBody body = new PooledMessageBody(this.pooledBodyFrame);
+            this.pooledBodyFrame = null;
+            this.bodyTaken = true;
+            return body;
+        }
+        return new PooledMessageBody(coalesceContentBody());
+    }
+
     private void appendBodyFragment(byte[] fragment) {
         if (fragment == null || fragment.length == 0) return;
         bodyN.add(fragment);
@@ -0,0 +1,293 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.impl;
+
+import java.util.List;
+
+/**
+ * Keeps track of the sequence numbers of published messages
+ * not confirmed yet by the broker.
+ * <p/>
+ * Sequence numbers are added in increasing order, so unconfirmed
+ * messages fall in a window starting at the oldest unconfirmed one.
+ * The window is kept as a bitset in a ring of {@code long}s that grows
+ * as needed: adding and confirming a single message are O(1),
+ * confirming several messages at once is O(k) in the number of words
+ * they span, and there's no boxing.
+ * <p/>
+ * A sequence number can carry an attachment, e.g. the handle the
+ * publisher waits on, kept in a ring of the same span as the bitset.
+ * Attachments are handed back when their sequence number is removed.
+ * <h2>Concurrency</h2>
+ * This class is thread-safe. Updates synchronize on the tracker,
+ * {@link #size()} and {@link #isEmpty()} don't lock.
+ * @param <T> the type of the attachments
+ */
+public class ConfirmTracker<T> {
+
+    private static final int INITIAL_WORDS = 16;
+
+    /** Bitset ring, the bit of sequence number s is bit (s & 63) of word (s >>> 6) */
+    private long[] words = new long[INITIAL_WORDS];
+
+    private int mask = INITIAL_WORDS - 1;
+
+    /** Index (as in s >>> 6) of the word of the oldest unconfirmed sequence number */
+    private long lowWord = 0;
+
+    /** Index of the word of the last added sequence number */
+    private long highWord = 0;
+
+    /** Last added sequence number */
+    private long last = 0;
+
+    private volatile int size = 0;
+
+    /** Attachment ring, that of sequence number s is at (s & attachmentMask), null until there's one */
+    private Object[] attachments = null;
+
+    private int attachmentMask;
+
+    private int attached = 0;
+
+    /**
+     * Add a sequence number, greater than the ones added before.
+     * @param seqNo the sequence number
+     */
+    public void add(long seqNo) {
+        add(seqNo, null);
+    }
+
+    /**
+     * Add a sequence number, greater than the ones added before.
+     * @param seqNo the sequence number
+     * @param attachment handed back when the sequence number is removed, can be null
+     */
+    public synchronized void add(long seqNo, T attachment) {
+        if (seqNo <= last && size > 0) {
+            throw new IllegalArgumentException("Sequence number " + seqNo + " is not greater than " + last);
+        }
+        long word = seqNo >>> 6;
+        if (size == 0) {
+            lowWord = word;
+        } else if (word - lowWord >= words.length) {
+            grow(word - lowWord + 1);
+        }
+        words[(int) (word & mask)] |= 1L << seqNo;
+        highWord = word;
+        last = seqNo;
+        size++;
+        if (attachment != null) {
+            if (attachments == null) {
+                attachments = new Object[words.length << 6];
+                attachmentMask = attachments.length - 1;
+            }
+            attachments[(int) (seqNo & attachmentMask)] = attachment;
+            attached++;
+        }
+    }
+
+    /**
+     * Remove a sequence number.
+     * @param seqNo the sequence number
+     * @return whether the sequence number was unconfirmed
+     */
+    public boolean remove(long seqNo) {
+        return remove(seqNo, null);
+    }
+
+    /**
+     * Remove a sequence number.
+     * @param seqNo the sequence number
+     * @param removed where to add the attachment of the sequence number, if any, can be null
+     * @return whether the sequence number was unconfirmed
+     */
+    public synchronized boolean remove(long seqNo, List<? super T> removed) {
+        long word = seqNo >>> 6;
+        if (size == 0 || word < lowWord || word > highWord) {
+            return false;
+        }
+        int index = (int) (word & mask);
+        long bit = 1L << seqNo;
+        if ((words[index] & bit) == 0) {
+            return false;
+        }
+        words[index] &= ~bit;
+        size--;
+        takeAttachment(seqNo, removed);
+        skipConfirmedWords();
+        return true;
+    }
+
+    /**
+     * Remove all sequence numbers up to and including the given one.
+     * @param seqNo the sequence number
+     * @return the number of sequence numbers removed
+     */
+    public int removeUpTo(long seqNo) {
+        return removeUpTo(seqNo, null);
+    }
+
+    /**
+     * Remove all sequence numbers up to and including the given one.
+     * @param seqNo the sequence number
+     * @param removed where to add the attachments of the sequence numbers, in order, can be null
+     * @return the number of sequence numbers removed
+     */
+    public synchronized int removeUpTo(long seqNo, List<? super T> removed) {
+        if (size == 0 || seqNo < 0) {
+            return 0;
+        }
+        long word = seqNo >>> 6;
+        long upTo = word < highWord ? word : highWord;
+        int count = 0;
+        for (long w = lowWord; w <= upTo; w++) {
+            int index = (int) (w & mask);
+            long cleared = words[index];
+            if (w == word) {
+                // bits above seqNo stay
+                cleared &= -1L >>> (63 - (seqNo & 63));
+            }
+            count += Long.bitCount(cleared);
+            words[index] &= ~cleared;
+            for (long bits = cleared; bits != 0 && attached > 0; bits &= bits - 1) {
+                takeAttachment((w << 6) + Long.numberOfTrailingZeros(bits), removed);
+            }
+        }
+        size -= count;
+        skipConfirmedWords();
+        return count;
+    }
+
+    /**
+     * Remove the last added sequence numbers, from the given one on,
+     * e.g. when their messages could not be sent. They can be added again.
+     * @param seqNo the first sequence number to remove
+     * @return the number of sequence numbers removed
+     */
+    public synchronized int removeFrom(long seqNo) {
+        if (size == 0 || seqNo > last) {
+            return 0;
+        }
+        int count = 0;
+        for (long s = Math.max(seqNo, lowWord << 6); s <= last; s++) {
+            int index = (int) ((s >>> 6) & mask);
+            long bit = 1L << s;
+            if ((words[index] & bit) != 0) {
+                words[index] &= ~bit;
+                count++;
+                takeAttachment(s, null);
+            }
+        }
+        size -= count;
+        last = seqNo - 1;
+        if (size > 0) {
+            // what's left is below seqNo
+            highWord = last >>> 6;
+        }
+        skipConfirmedWords();
+        return count;
+    }
+
+    /**
+     * Hand back all the attachments, the sequence numbers stay.
+     * @param removed where to add the attachments, in order
+     */
+    public synchronized void removeAttachments(List<? super T> removed) {
+        if (attached == 0) {
+            return;
+        }
+        for (long w = lowWord; w <= highWord; w++) {
+            for (long bits = words[(int) (w & mask)]; bits != 0 && attached > 0; bits &= bits - 1) {
+                takeAttachment((w << 6) + Long.numberOfTrailingZeros(bits), removed);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void takeAttachment(long seqNo, List<? super T> removed) {
+        if (attached == 0) {
+            return;
+        }
+        int index = (int) (seqNo & attachmentMask);
+        T attachment = (T) attachments[index];
+        if (attachment != null) {
+            attachments[index] = null;
+            attached--;
+            if (removed != null) {
+                removed.add(attachment);
+            }
+        }
+    }
+
+    /**
+     * @return the number of unconfirmed sequence numbers
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return whether all sequence numbers have been confirmed
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the oldest unconfirmed sequence number, or -1 if none
+     */
+    public synchronized long first() {
+        if (size == 0) {
+            return -1;
+        }
+        long w = words[(int) (lowWord & mask)];
+        return (lowWord << 6) + Long.numberOfTrailingZeros(w);
+    }
+
+    private void skipConfirmedWords() {
+        if (size == 0) {
+            lowWord = highWord;
+            return;
+        }
+        while (lowWord < highWord && words[(int) (lowWord & mask)] == 0) {
+            lowWord++;
+        }
+    }
+
+    private void grow(long minWords) {
+        int length = words.length;
+        while (length < minWords) {
+            length <<= 1;
+        }
+        long[] grown = new long[length];
+        int grownMask = length - 1;
+        for (long w = lowWord; w <= highWord; w++) {
+            grown[(int) (w & grownMask)] = words[(int) (w & mask)];
+        }
+        words = grown;
+        mask = grownMask;
+        if (attachments != null) {
+            Object[] grownAttachments = new Object[length << 6];
+            int grownAttachmentMask = grownAttachments.length - 1;
+            for (long s = lowWord << 6; s <= last; s++) {
+                grownAttachments[(int) (s & grownAttachmentMask)] = attachments[(int) (s & attachmentMask)];
+            }
+            attachments = grownAttachments;
+            attachmentMask = grownAttachmentMask;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.impl;
+
+import com.rabbitmq.client.ConfirmWindowFullException;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Bounds the number of unconfirmed messages of a channel.
+ * <p/>
+ * Publishers take room in the window before sending messages,
+ * the room is given back as the broker acks or nacks them.
+ * When the window is full, publishers either wait or
+ * get a {@link ConfirmWindowFullException}.
+ */
+final class ConfirmWindow {
+
+    private final int size;
+
+    private final boolean block;
+
+    private int occupied = 0;
+
+    private boolean closed = false;
+
+    ConfirmWindow(int size, boolean block) {
+        this.size = size;
+        this.block = block;
+    }
+
+    /**
+     * Take room for messages about to be published.
+     * A batch larger than the window can be published once the window is empty.
+     * @param messages the number of messages
+     * @return false if the window was closed, no room is taken then
+     * @throws ConfirmWindowFullException if the window is full and publishers don't wait
+     * @throws InterruptedIOException if the thread is interrupted while waiting
+     */
+    synchronized boolean acquire(int messages) throws ConfirmWindowFullException, InterruptedIOException {
+        while (occupied > 0 && occupied + messages > size) {
+            if (closed) {
+                return false;
+            }
+            if (!block) {
+                throw new ConfirmWindowFullException(size);
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for confirms");
+            }
+        }
+        if (closed) {
+            return false;
+        }
+        occupied += messages;
+        return true;
+    }
+
+    /**
+     * Give room back, once messages are confirmed or could not be sent.
+     * @param messages the number of messages
+     */
+    synchronized void release(int messages) {
+        if (messages > 0) {
+            occupied = Math.max(0, occupied - messages);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Wake up waiting publishers for good, the channel is closed.
+     */
+    synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    synchronized int getOccupied() {
+        return occupied;
+    }
+
+    int getSize() {
+        return size;
+    }
+}
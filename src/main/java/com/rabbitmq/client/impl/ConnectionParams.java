@@ -28,6 +28,7 @@ public class ConnectionParams {
     private String password;
     private ExecutorService consumerWorkServiceExecutor;
     private ScheduledExecutorService heartbeatExecutor;
+    private boolean sharedHeartbeatTimer = true;
     private ExecutorService shutdownExecutor;
     private String virtualHost;
     private Map<String, Object> clientProperties;
@@ -40,6 +41,16 @@ public class ConnectionParams {
     private long networkRecoveryInterval;
     private boolean topologyRecovery;
     private int channelRpcTimeout;
+    private int frameBufferPoolSize;
+    private boolean directFrameBuffers;
+    private boolean writeCoalescing;
+    private int writeCoalescingThreshold;
+    private long writeCoalescingDeadline;
+    private int maxUnconfirmedMessagesPerChannel;
+    private boolean blockOnMaxUnconfirmedMessages;
+    private ConsumerDispatchParams consumerDispatchParams = new ConsumerDispatchParams();
+    private int inboundFrameBufferPoolSize;
+    private int inboundFrameBufferSize;
 
     private ExceptionHandler exceptionHandler;
     private ThreadFactory threadFactory;
@@ -186,7 +197,95 @@ public class ConnectionParams {
         this.heartbeatExecutor = heartbeatExecutor;
     }
 
+    public boolean isSharedHeartbeatTimer() {
+        return sharedHeartbeatTimer;
+    }
+
+    public void setSharedHeartbeatTimer(boolean sharedHeartbeatTimer) {
+        this.sharedHeartbeatTimer = sharedHeartbeatTimer;
+    }
+
     public void setChannelRpcTimeout(int channelRpcTimeout) {
         this.channelRpcTimeout = channelRpcTimeout;
     }
+
+    public int getFrameBufferPoolSize() {
+        return frameBufferPoolSize;
+    }
+
+    public void setFrameBufferPoolSize(int frameBufferPoolSize) {
+        this.frameBufferPoolSize = frameBufferPoolSize;
+    }
+
+    public boolean isDirectFrameBuffers() {
+        return directFrameBuffers;
+    }
+
+    public void setDirectFrameBuffers(boolean directFrameBuffers) {
+        this.directFrameBuffers = directFrameBuffers;
+    }
+
+    public int getInboundFrameBufferPoolSize() {
+        return inboundFrameBufferPoolSize;
+    }
+
+    public void setInboundFrameBufferPoolSize(int inboundFrameBufferPoolSize) {
+        this.inboundFrameBufferPoolSize = inboundFrameBufferPoolSize;
+    }
+
+    public int getInboundFrameBufferSize() {
+        return inboundFrameBufferSize;
+    }
+
+    public void setInboundFrameBufferSize(int inboundFrameBufferSize) {
+        this.inboundFrameBufferSize = inboundFrameBufferSize;
+    }
+
+    public boolean isWriteCoalescing() {
+        return writeCoalescing;
+    }
+
+    public void setWriteCoalescing(boolean writeCoalescing) {
+        this.writeCoalescing = writeCoalescing;
+    }
+
+    public int getWriteCoalescingThreshold() {
+        return writeCoalescingThreshold;
+    }
+
+    public void setWriteCoalescingThreshold(int writeCoalescingThreshold) {
+        this.writeCoalescingThreshold = writeCoalescingThreshold;
+    }
+
+    public long getWriteCoalescingDeadline() {
+        return writeCoalescingDeadline;
+    }
+
+    public void setWriteCoalescingDeadline(long writeCoalescingDeadline) {
+        this.writeCoalescingDeadline = writeCoalescingDeadline;
+    }
+
+    public int getMaxUnconfirmedMessagesPerChannel() {
+        return maxUnconfirmedMessagesPerChannel;
+    }
+
+    public void setMaxUnconfirmedMessagesPerChannel(int maxUnconfirmedMessagesPerChannel) {
+        this.maxUnconfirmedMessagesPerChannel = maxUnconfirmedMessagesPerChannel;
+    }
+
+    public boolean isBlockOnMaxUnconfirmedMessages() {
+        return blockOnMaxUnconfirmedMessages;
+    }
+
+    public void setBlockOnMaxUnconfirmedMessages(boolean blockOnMaxUnconfirmedMessages) {
+        this.blockOnMaxUnconfirmedMessages = blockOnMaxUnconfirmedMessages;
+    }
+
+    public ConsumerDispatchParams getConsumerDispatchParams() {
+        return consumerDispatchParams;
+    }
+
+    public void setConsumerDispatchParams(ConsumerDispatchParams consumerDispatchParams) {
+        this.consumerDispatchParams = consumerDispatchParams;
+    }
 }
@@ -0,0 +1,255 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.impl;
+
+import com.rabbitmq.client.Channel;
+
+/**
+ * Parameters used to configure how consumer callbacks are dispatched
+ * to the consumer threads of a {@link com.rabbitmq.client.ConnectionFactory}.
+ * <p/>
+ * Deliveries and other consumer callbacks are queued per channel and
+ * run in blocks: a consumer thread takes a block of callbacks from a channel,
+ * runs them, then moves on to the next channel with callbacks.
+ *
+ * @since 4.1.0
+ */
+public class ConsumerDispatchParams {
+
+    /**
+     * How consumer threads pick the callbacks to run.
+     */
+    public enum Scheduling {
+        /** channels take turns, with one block each */
+        ROUND_ROBIN,
+        /** channels take turns, with blocks sized after the channel weight */
+        WEIGHTED,
+        /** a channel is served until it has no callbacks left */
+        DRAIN
+    }
+
+    /**
+     * What the connection does when the callback queue of a channel is full.
+     */
+    public enum Backpressure {
+        /** the thread reading from the connection waits for room in the queue */
+        BLOCK_READER,
+        /**
+         * the connection stops reading from its socket until the queue is half empty,
+         * without blocking the reading thread, which can keep serving other connections
+         */
+        PAUSE_READS
+    }
+
+    /**
+     * Gives the weight of a channel, for {@link Scheduling#WEIGHTED} scheduling.
+     */
+    public interface ChannelWeigher {
+
+        /**
+         * @param channel the channel
+         * @return the channel weight, 1 for the same share as other channels,
+         * more for a larger share
+         */
+        int weigh(Channel channel);
+    }
+
+    /** max number of callbacks run in a block */
+    private int blockSize = 16;
+
+    /** max number of callbacks queued per channel */
+    private int queueCapacity = 1000;
+
+    /** how consumer threads pick the callbacks to run */
+    private Scheduling scheduling = Scheduling.ROUND_ROBIN;
+
+    /** weight of channels for weighted scheduling */
+    private ChannelWeigher channelWeigher;
+
+    /** what the connection does when a callback queue is full */
+    private Backpressure backpressure = Backpressure.BLOCK_READER;
+
+    /** number of threads channels are pinned to, 0 to share the executor between channels */
+    private int affinityThreads = 0;
+
+    /** pending callbacks that make an affinity thread overloaded, 0 for no rebalancing */
+    private int affinityRebalanceThreshold = 0;
+
+    public ConsumerDispatchParams() {
+    }
+
+    public ConsumerDispatchParams(ConsumerDispatchParams consumerDispatchParams) {
+        setBlockSize(consumerDispatchParams.getBlockSize());
+        setQueueCapacity(consumerDispatchParams.getQueueCapacity());
+        setScheduling(consumerDispatchParams.getScheduling());
+        setChannelWeigher(consumerDispatchParams.getChannelWeigher());
+        setBackpressure(consumerDispatchParams.getBackpressure());
+        setAffinityThreads(consumerDispatchParams.getAffinityThreads());
+        setAffinityRebalanceThreshold(consumerDispatchParams.getAffinityRebalanceThreshold());
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Sets the max number of consumer callbacks a thread runs for a channel
+     * before moving on to the next channel. Default is 16.
+     *
+     * Larger blocks favor throughput, smaller blocks give
+     * a fairer share to each channel.
+     *
+     * @param blockSize max number of callbacks in a block
+     * @return this {@link ConsumerDispatchParams} instance
+     */
+    public ConsumerDispatchParams setBlockSize(int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be greater than 0");
+        }
+        this.blockSize = blockSize;
+        return this;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Sets the max number of consumer callbacks queued per channel. Default is 1000.
+     *
+     * The connection stops reading from the socket when a channel queue is full,
+     * until consumer threads catch up. The queues aren't bounded while
+     * a channel waits for the response of a RPC.
+     *
+     * @param queueCapacity max number of callbacks queued per channel
+     * @return this {@link ConsumerDispatchParams} instance
+     */
+    public ConsumerDispatchParams setQueueCapacity(int queueCapacity) {
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be greater than 0");
+        }
+        this.queueCapacity = queueCapacity;
+        return this;
+    }
+
+    public Scheduling getScheduling() {
+        return scheduling;
+    }
+
+    /**
+     * Sets how consumer threads pick the callbacks to run.
+     * Default is {@link Scheduling#ROUND_ROBIN}.
+     *
+     * @param scheduling the scheduling policy
+     * @return this {@link ConsumerDispatchParams} instance
+     * @see #setChannelWeigher(ChannelWeigher)
+     */
+    public ConsumerDispatchParams setScheduling(Scheduling scheduling) {
+        if (scheduling == null) {
+            throw new IllegalArgumentException("Scheduling cannot be null");
+        }
+        this.scheduling = scheduling;
+        return this;
+    }
+
+    public ChannelWeigher getChannelWeigher() {
+        return channelWeigher;
+    }
+
+    /**
+     * Sets the weight of channels for {@link Scheduling#WEIGHTED} scheduling:
+     * blocks of a channel are as large as the block size times the channel weight.
+     * All channels have a weight of 1 if not set.
+     *
+     * @param channelWeigher gives the weight of a channel
+     * @return this {@link ConsumerDispatchParams} instance
+     */
+    public ConsumerDispatchParams setChannelWeigher(ChannelWeigher channelWeigher) {
+        this.channelWeigher = channelWeigher;
+        return this;
+    }
+
+    public Backpressure getBackpressure() {
+        return backpressure;
+    }
+
+    /**
+     * Sets what the connection does when the callback queue of a channel is full.
+     * Default is {@link Backpressure#BLOCK_READER}.
+     *
+     * With {@link Backpressure#PAUSE_READS}, a slow consumer doesn't block the NIO
+     * thread shared by several connections: only its connection stops reading.
+     * Reads also resume when a channel waits for the response of a RPC.
+     * Channels pinned to threads (see {@link #setAffinityThreads(int)})
+     * always block the reader.
+     *
+     * @param backpressure what to do when a queue is full
+     * @return this {@link ConsumerDispatchParams} instance
+     */
+    public ConsumerDispatchParams setBackpressure(Backpressure backpressure) {
+        if (backpressure == null) {
+            throw new IllegalArgumentException("Backpressure cannot be null");
+        }
+        this.backpressure = backpressure;
+        return this;
+    }
+
+    public int getAffinityThreads() {
+        return affinityThreads;
+    }
+
+    /**
+     * Pins each channel to one of a fixed number of single-threaded loops,
+     * chosen from the channel number. Callbacks of a channel then always
+     * run on the same thread, and channels don't contend on a shared work pool.
+     * Block size and scheduling settings don't apply in this mode,
+     * nor does the shared executor of the connection factory.
+     * Default is 0 (channels share the consumer executor).
+     *
+     * @param affinityThreads number of loops, 0 to disable channel affinity
+     * @return this {@link ConsumerDispatchParams} instance
+     * @see #setAffinityRebalanceThreshold(int)
+     */
+    public ConsumerDispatchParams setAffinityThreads(int affinityThreads) {
+        if (affinityThreads < 0) {
+            throw new IllegalArgumentException("Number of affinity threads cannot be less than 0");
+        }
+        this.affinityThreads = affinityThreads;
+        return this;
+    }
+
+    public int getAffinityRebalanceThreshold() {
+        return affinityRebalanceThreshold;
+    }
+
+    /**
+     * Sets the number of pending callbacks that makes an affinity loop overloaded.
+     * A channel with no pending callbacks on an overloaded loop moves to the
+     * least loaded loop when it gets new callbacks.
+     * Default is 0 (channels never move).
+     *
+     * @param affinityRebalanceThreshold pending callbacks threshold, 0 for no rebalancing
+     * @return this {@link ConsumerDispatchParams} instance
+     * @see #setAffinityThreads(int)
+     */
+    public ConsumerDispatchParams setAffinityRebalanceThreshold(int affinityRebalanceThreshold) {
+        if (affinityRebalanceThreshold < 0) {
+            throw new IllegalArgumentException("Rebalance threshold cannot be less than 0");
+        }
+        this.affinityRebalanceThreshold = affinityRebalanceThreshold;
+        return this;
+    }
+}
@@ -16,9 +16,12 @@
 package com.rabbitmq.client.impl;
 
 import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.ByteBufferConsumer;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Consumer;
 import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.InlineConsumer;
+import com.rabbitmq.client.MessageBody;
 import com.rabbitmq.client.ShutdownSignalException;
 import com.rabbitmq.utility.Utility;
 
@@ -28,7 +31,7 @@ import java.util.concurrent.CountDownLatch;
 
 /**
  * Dispatches notifications to a {@link Consumer} on an internally-managed executor service and work
- * pool.
+ * pool, or on the calling thread for an {@link InlineConsumer}.
  * <p/>
  * Each {@link Channel} has a single <code>ConsumerDispatcher</code>, but the executor service and work
  * pool may be shared with other channels, typically those on the same {@link AMQConnection}.
@@ -68,7 +71,7 @@ final class ConsumerDispatcher {
 
     public void handleConsumeOk(final Consumer delegate,
                                 final String consumerTag) {
-        executeUnlessShuttingDown(
+        dispatch(delegate,
         new Runnable() {
             @Override
             public void run() {
@@ -88,7 +91,7 @@ final class ConsumerDispatcher {
 
     public void handleCancelOk(final Consumer delegate,
                                final String consumerTag) {
-        executeUnlessShuttingDown(
+        dispatch(delegate,
         new Runnable() {
             @Override
             public void run() {
@@ -107,7 +110,7 @@ final class ConsumerDispatcher {
     }
 
     public void handleCancel(final Consumer delegate, final String consumerTag) {
-        executeUnlessShuttingDown(
+        dispatch(delegate,
         new Runnable() {
       @Override
     public void run() {
@@ -127,7 +130,7 @@ final class ConsumerDispatcher {
 
 
     public void handleRecoverOk(final Consumer delegate, final String consumerTag) {
-        executeUnlessShuttingDown(
+        dispatch(delegate,
         new Runnable() {
             @Override
             public void run() {
@@ -141,7 +144,7 @@ final class ConsumerDispatcher {
                                final Envelope envelope,
                                final AMQP.BasicProperties properties,
                                final byte[] body) throws IOException {
-        executeUnlessShuttingDown(
+        dispatch(delegate,
         new Runnable() {
             @Override
             public void run() {
@@ -162,6 +165,34 @@ final class ConsumerDispatcher {
         });
     }
 
+    public void handleDelivery(final ByteBufferConsumer delegate,
+                               final String consumerTag,
+                               final Envelope envelope,
+                               final AMQP.BasicProperties properties,
+                               final MessageBody body) throws IOException {
+        dispatch(delegate,
+        new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    delegate.handleDelivery(consumerTag,
+                            envelope,
+                            properties,
+                            body);
+                } catch (Throwable ex) {
+                    connection.getExceptionHandler().handleConsumerException(
+                            channel,
+                            ex,
+                            delegate,
+                            consumerTag,
+                            "handleDelivery");
+                } finally {
+                    body.release();
+                }
+            }
+        });
+    }
+
     public CountDownLatch handleShutdownSignal(final Map<String, Consumer> consumers,
                                      final ShutdownSignalException signal) {
         // ONLY CASE WHERE WE IGNORE shuttingDown
@@ -205,6 +236,25 @@ final class ConsumerDispatcher {
         }
     }
 
+    /**
+     * Runs a consumer callback on the current thread for {@link InlineConsumer}s,
+     * hands it off to the work service otherwise.
+     */
+    private void dispatch(Consumer delegate, Runnable r) {
+        if (delegate instanceof InlineConsumer) {
+            runUnlessShuttingDown(r);
+        } else {
+            executeUnlessShuttingDown(r);
+        }
+    }
+
+    private void runUnlessShuttingDown(Runnable r) {
+        if (!this.shuttingDown) {
+            checkShutdown();
+            r.run();
+        }
+    }
+
     private void executeUnlessShuttingDown(Runnable r) {
         if (!this.shuttingDown) execute(r);
     }
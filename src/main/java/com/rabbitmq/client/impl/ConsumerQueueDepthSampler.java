@@ -0,0 +1,67 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.impl;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ExtendedMetricsCollector;
+import com.rabbitmq.client.MetricsCollector;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the consumer queue depths of the channels of a connection,
+ * for collectors implementing {@link ExtendedMetricsCollector}.
+ * At most one sample is taken per interval, for the channel
+ * being dispatched at that time.
+ */
+final class ConsumerQueueDepthSampler {
+
+    static final long INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final ExtendedMetricsCollector metricsCollector;
+
+    private volatile long nextSample = System.nanoTime();
+
+    private ConsumerQueueDepthSampler(ExtendedMetricsCollector metricsCollector) {
+        this.metricsCollector = metricsCollector;
+    }
+
+    /**
+     * @return a sampler, null if the collector doesn't collect queue depths
+     */
+    static ConsumerQueueDepthSampler create(MetricsCollector metricsCollector) {
+        if (metricsCollector instanceof ExtendedMetricsCollector) {
+            return new ConsumerQueueDepthSampler((ExtendedMetricsCollector) metricsCollector);
+        }
+        return null;
+    }
+
+    /**
+     * @return whether a sample is due, the next one is then due after the interval
+     */
+    boolean isDue() {
+        long now = System.nanoTime();
+        if (now - nextSample < 0) {
+            return false;
+        }
+        nextSample = now + INTERVAL_NANOS;
+        return true;
+    }
+
+    void sample(Channel channel, int depth) {
+        metricsCollector.consumerQueueDepth(channel, depth);
+    }
+}
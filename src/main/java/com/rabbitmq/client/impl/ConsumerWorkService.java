@@ -16,27 +16,69 @@
 package com.rabbitmq.client.impl;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 
 import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.MetricsCollector;
+import com.rabbitmq.client.NoOpMetricsCollector;
 
 final public class ConsumerWorkService {
-    private static final int MAX_RUNNABLE_BLOCK_SIZE = 16;
     private static final int DEFAULT_NUM_THREADS = Runtime.getRuntime().availableProcessors() * 2;
     private final ExecutorService executor;
     private final boolean privateExecutor;
     private final WorkPool<Channel, Runnable> workPool;
     private final int shutdownTimeout;
+    private final int blockSize;
+    private final ConsumerDispatchParams.Scheduling scheduling;
+    private final ConsumerDispatchParams.ChannelWeigher channelWeigher;
+    /** Samples consumer queue depths, null if the metrics collector doesn't collect them */
+    private final ConsumerQueueDepthSampler queueDepthSampler;
+    /** Runs the work when channels are pinned to threads, null otherwise */
+    private final ChannelAffinityDispatcher affinityDispatcher;
+    /** Whether full queues pause reads instead of blocking the reader */
+    private final boolean pauseReads;
+    private final int queueCapacity;
+    /** Channels with a full queue, that should make the connection stop reading */
+    private final Set<Channel> saturatedChannels = Collections.newSetFromMap(new ConcurrentHashMap<Channel, Boolean>());
+    /** Channels waiting for a RPC response, the connection must keep reading */
+    private final Set<Channel> unlimitedChannels = Collections.newSetFromMap(new ConcurrentHashMap<Channel, Boolean>());
+    private final Object saturationMonitor = new Object();
+    private volatile Runnable readResumer;
 
     public ConsumerWorkService(ExecutorService executor, ThreadFactory threadFactory, int shutdownTimeout) {
-        this.privateExecutor = (executor == null);
-        this.executor = (executor == null) ? Executors.newFixedThreadPool(DEFAULT_NUM_THREADS, threadFactory)
-                                           : executor;
-        this.workPool = new WorkPool<Channel, Runnable>();
+        this(executor, threadFactory, shutdownTimeout, new ConsumerDispatchParams(), new NoOpMetricsCollector());
+    }
+
+    public ConsumerWorkService(ExecutorService executor, ThreadFactory threadFactory, int shutdownTimeout,
+                               ConsumerDispatchParams dispatchParams, MetricsCollector metricsCollector) {
+        this.queueDepthSampler = ConsumerQueueDepthSampler.create(metricsCollector);
+        if (dispatchParams.getAffinityThreads() > 0) {
+            // channels are pinned to threads of their own, the executor isn't used
+            this.affinityDispatcher = new ChannelAffinityDispatcher(dispatchParams.getAffinityThreads(),
+                threadFactory, dispatchParams.getQueueCapacity(),
+                dispatchParams.getAffinityRebalanceThreshold(), queueDepthSampler);
+            this.privateExecutor = true;
+            this.executor = null;
+        } else {
+            this.affinityDispatcher = null;
+            this.privateExecutor = (executor == null);
+            this.executor = (executor == null) ? Executors.newFixedThreadPool(DEFAULT_NUM_THREADS, threadFactory)
+                                               : executor;
+        }
+        this.workPool = new WorkPool<Channel, Runnable>(dispatchParams.getQueueCapacity());
         this.shutdownTimeout = shutdownTimeout;
+        this.blockSize = dispatchParams.getBlockSize();
+        this.scheduling = dispatchParams.getScheduling();
+        this.channelWeigher = dispatchParams.getChannelWeigher();
+        this.pauseReads = affinityDispatcher == null
+            && dispatchParams.getBackpressure() == ConsumerDispatchParams.Backpressure.PAUSE_READS;
+        this.queueCapacity = dispatchParams.getQueueCapacity();
     }
 
     public int getShutdownTimeout() {
@@ -47,9 +89,14 @@ final public class ConsumerWorkService {
      * Stop executing all consumer work
      */
     public void shutdown() {
+        if (affinityDispatcher != null) {
+            affinityDispatcher.shutdown();
+        }
         this.workPool.unregisterAllKeys();
-        if (privateExecutor)
+        if (privateExecutor && this.executor != null)
             this.executor.shutdown();
+        saturatedChannels.clear();
+        readsResumed();
     }
 
     /**
@@ -57,15 +104,39 @@ final public class ConsumerWorkService {
      * @param channel to stop consumer work for
      */
     public void stopWork(Channel channel) {
+        if (affinityDispatcher != null) {
+            affinityDispatcher.stopWork(channel);
+            return;
+        }
         this.workPool.unregisterKey(channel);
+        if (pauseReads) {
+            unlimitedChannels.remove(channel);
+            if (saturatedChannels.remove(channel) && !isSaturated()) {
+                readsResumed();
+            }
+        }
     }
 
     public void registerKey(Channel channel) {
+        if (affinityDispatcher != null) {
+            affinityDispatcher.registerKey(channel);
+            return;
+        }
         this.workPool.registerKey(channel);
     }
 
     public void setUnlimited(Channel channel, boolean unlimited) {
-        if (unlimited) {
+        if (pauseReads) {
+            if (unlimited) {
+                unlimitedChannels.add(channel);
+                readsResumed();
+            } else {
+                unlimitedChannels.remove(channel);
+            }
+        }
+        if (affinityDispatcher != null) {
+            affinityDispatcher.setUnlimited(channel, unlimited);
+        } else if (unlimited) {
             this.workPool.unlimit(channel);
         } else {
             this.workPool.limit(channel);
@@ -73,11 +144,84 @@ final public class ConsumerWorkService {
     }
 
     public void addWork(Channel channel, Runnable runnable) {
-        if (this.workPool.addWorkItem(channel, runnable)) {
+        if (affinityDispatcher != null) {
+            affinityDispatcher.addWork(channel, runnable);
+        } else if (pauseReads) {
+            if (this.workPool.addWorkItem(channel, runnable, false)) {
+                this.executor.execute(new WorkPoolRunnable());
+            }
+            if (this.workPool.queueSize(channel) >= queueCapacity) {
+                saturatedChannels.add(channel);
+                // the queue may have been drained before the channel was
+                // marked, with no work left to unmark it
+                checkSaturation(channel);
+            }
+        } else if (this.workPool.addWorkItem(channel, runnable)) {
             this.executor.execute(new WorkPoolRunnable());
         }
     }
 
+    /**
+     * Whether the connection should stop reading because the queue
+     * of a channel is full. Always false unless reads are paused
+     * on full queues.
+     * @return true if the connection should not read
+     */
+    public boolean isSaturated() {
+        return !saturatedChannels.isEmpty() && unlimitedChannels.isEmpty();
+    }
+
+    /**
+     * Wait until the connection can read again.
+     * @param timeoutMs max time to wait, in milliseconds
+     * @return true if the connection can read
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitUnsaturated(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (saturationMonitor) {
+            long remaining = timeoutMs;
+            while (isSaturated() && remaining > 0) {
+                saturationMonitor.wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+            return !isSaturated();
+        }
+    }
+
+    /**
+     * Set the callback run when the connection can read again,
+     * after its reads have been paused.
+     * @param readResumer the callback
+     */
+    public void setReadResumer(Runnable readResumer) {
+        this.readResumer = readResumer;
+    }
+
+    private void readsResumed() {
+        synchronized (saturationMonitor) {
+            saturationMonitor.notifyAll();
+        }
+        Runnable resumer = this.readResumer;
+        if (resumer != null) {
+            resumer.run();
+        }
+    }
+
+    private void checkSaturation(Channel channel) {
+        if (saturatedChannels.contains(channel) && workPool.queueSize(channel) <= queueCapacity / 2
+            && saturatedChannels.remove(channel) && !isSaturated()) {
+            readsResumed();
+        }
+    }
+
+    private int weight(Channel channel) {
+        if (channelWeigher == null) {
+            return 1;
+        }
+        return Math.max(1, channelWeigher.weigh(channel));
+    }
+
     /**
      * @return true if executor used by this work service is managed
      *              by it and wasn't provided by the user
@@ -90,16 +234,30 @@ final public class ConsumerWorkService {
 
         @Override
         public void run() {
-            int size = MAX_RUNNABLE_BLOCK_SIZE;
+            int size = blockSize;
             List<Runnable> block = new ArrayList<Runnable>(size);
             try {
                 Channel key = ConsumerWorkService.this.workPool.nextWorkBlock(block, size);
                 if (key == null) return; // nothing ready to run
                 try {
-                    for (Runnable runnable : block) {
-                        runnable.run();
+                    if (scheduling == ConsumerDispatchParams.Scheduling.WEIGHTED && block.size() == size) {
+                        int weightedSize = size * weight(key);
+                        workPool.extendWorkBlock(key, block, weightedSize - size);
                     }
+                    if (queueDepthSampler != null && queueDepthSampler.isDue()) {
+                        queueDepthSampler.sample(key, workPool.queueSize(key));
+                    }
+                    do {
+                        for (Runnable runnable : block) {
+                            runnable.run();
+                        }
+                        block.clear();
+                    } while (scheduling == ConsumerDispatchParams.Scheduling.DRAIN
+                        && workPool.extendWorkBlock(key, block, size) > 0);
                 } finally {
+                    if (!saturatedChannels.isEmpty()) {
+                        checkSaturation(key);
+                    }
                     if (ConsumerWorkService.this.workPool.finishWorkBlock(key)) {
                         ConsumerWorkService.this.executor.execute(new WorkPoolRunnable());
                     }
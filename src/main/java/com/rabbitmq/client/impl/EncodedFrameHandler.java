@@ -0,0 +1,41 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link FrameHandler} that can write buffers of already-encoded frames,
+ * e.g. frames encoded in pooled buffers by a {@link FrameEncoder}.
+ * Frames are written one by one with {@link FrameHandler#writeFrame(Frame)}
+ * to frame handlers that don't implement this interface.
+ *
+ * @see Frame#writeEncoded(FrameHandler, ByteBuffer, ByteBufferPool)
+ * @since 4.1.0
+ */
+public interface EncodedFrameHandler extends FrameHandler {
+
+    /**
+     * Write a buffer of already-encoded frames to the underlying data connection.
+     * The buffer is given back to the pool once its content has been written,
+     * possibly after this method returns.
+     * @param frames the frames, ready to be read
+     * @param pool the pool the buffer comes from, null if the buffer isn't pooled
+     * @throws IOException if there is a problem accessing the connection
+     */
+    void writeFrames(ByteBuffer frames, ByteBufferPool pool) throws IOException;
+}
@@ -0,0 +1,120 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.impl;
+
+import com.rabbitmq.client.AMQP;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Private API - The <code>basic.publish</code> method frame payload and the
+ * content header frame payload of a {@link com.rabbitmq.client.PublishTemplate},
+ * encoded once. Only the body size of the content header changes from one
+ * message to the next, it is patched in when the frames are written.
+ * <h2>Concurrency</h2>
+ * This class is immutable.
+ */
+public final class EncodedPublish {
+
+    /** Class id and weight, before the body size in the content header payload */
+    private static final int BODY_SIZE_OFFSET = 2 + 2;
+
+    private final AMQImpl.Basic.Publish method;
+
+    private final AMQContentHeader header;
+
+    private final byte[] methodPayload;
+
+    private final byte[] headerPayload;
+
+    public EncodedPublish(String exchange, String routingKey, boolean mandatory,
+                          AMQP.BasicProperties props) throws IOException {
+        this.method = new AMQImpl.Basic.Publish(0, exchange, routingKey, mandatory, false);
+        this.header = (AMQContentHeader) props;
+        this.methodPayload = method.toFrame(0).getPayload();
+        this.headerPayload = header.toFrame(0, 0).getPayload();
+    }
+
+    /**
+     * @param body the message body
+     * @return a command publishing the body, encoded with the payloads of this instance
+     */
+    AMQCommand command(byte[] body) {
+        return new TemplateCommand(this, body);
+    }
+
+    /** @return the size of the method frame payload */
+    int methodPayloadSize() {
+        return methodPayload.length;
+    }
+
+    /** @return the size of the content header frame payload */
+    int headerPayloadSize() {
+        return headerPayload.length;
+    }
+
+    /** Put the method frame payload at the current position of the buffer */
+    void putMethodPayload(ByteBuffer buffer) {
+        buffer.put(methodPayload);
+    }
+
+    /** Put the content header frame payload at the current position of the buffer */
+    void putHeaderPayload(ByteBuffer buffer, long bodySize) {
+        int start = buffer.position();
+        buffer.put(headerPayload);
+        buffer.putLong(start + BODY_SIZE_OFFSET, bodySize);
+    }
+
+    /** @return a content header frame for the body size, when the payload is not put in a buffer */
+    Frame headerFrame(int channelNumber, long bodySize) {
+        byte[] payload = headerPayload.clone();
+        ByteBuffer.wrap(payload).putLong(BODY_SIZE_OFFSET, bodySize);
+        return new Frame(AMQP.FRAME_HEADER, channelNumber, payload);
+    }
+
+    /** @return a method frame, when the payload is not put in a buffer */
+    Frame methodFrame(int channelNumber) {
+        return new Frame(AMQP.FRAME_METHOD, channelNumber, methodPayload);
+    }
+
+    /**
+     * A publish command which writes the pre-encoded payloads, whether the
+     * channel has a {@link FrameEncoder} or not.
+     */
+    private static final class TemplateCommand extends AMQCommand {
+
+        private final EncodedPublish encoded;
+
+        TemplateCommand(EncodedPublish encoded, byte[] body) {
+            super(encoded.method, encoded.header, body);
+            this.encoded = encoded;
+        }
+
+        @Override
+        void encode(FrameEncoder encoder, int channelNumber) throws IOException {
+            encoder.encode(channelNumber, encoded, getContentBody());
+        }
+
+        @Override
+        void writeFrames(AMQConnection connection, int channelNumber) throws IOException {
+            byte[] body = getContentBody();
+            connection.writeFrame(encoded.methodFrame(channelNumber));
+            connection.writeFrame(encoded.headerFrame(channelNumber, body.length));
+            writeBodyFrames(connection, channelNumber, body);
+        }
+    }
+}
@@ -22,7 +22,9 @@ import com.rabbitmq.client.MalformedFrameException;
 import java.io.*;
 import java.math.BigDecimal;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
 import java.sql.Timestamp;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -38,14 +40,78 @@ public class Frame {
     /** Frame channel number, 0-65535 */
     public final int channel;
 
-    /** Frame payload bytes (for inbound frames) */
+    /** Frame payload bytes (for inbound frames and wrapped body fragments) */
     private final byte[] payload;
 
+    /** Start of the payload in the payload array */
+    private final int payloadOffset;
+
+    /** Length of the payload in the payload array */
+    private final int payloadLength;
+
+    /** Whether the payload array is shared with the caller, see {@link #wrapBodyFragment} */
+    private final boolean wrapped;
+
+    /** Buffer holding the payload, for inbound frames read into a pooled buffer */
+    private final ByteBuffer pooledBuffer;
+
+    /** Pool the payload buffer goes back to on {@link #release()} */
+    private final ByteBufferPool pool;
+
     /** Frame payload (for outbound frames) */
     private final ByteArrayOutputStream accumulator;
 
     private static final int NON_BODY_SIZE = 1 /* type */ + 2 /* channel */ + 4 /* payload size */ + 1 /* end character */;
 
+    /** Encoded heartbeat frame, never modified */
+    private static final byte[] HEARTBEAT = new byte[] {
+        AMQP.FRAME_HEARTBEAT, 0, 0, 0, 0, 0, 0, (byte) AMQP.FRAME_END
+    };
+
+    /**
+     * Returns an encoded heartbeat frame, ready to be written
+     * with {@link #writeEncoded(FrameHandler, ByteBuffer, ByteBufferPool)}
+     * without a pool.
+     * @return buffer with the heartbeat frame, sharing its content with
+     * other heartbeat buffers
+     */
+    public static ByteBuffer heartbeat() {
+        return ByteBuffer.wrap(HEARTBEAT);
+    }
+
+    /**
+     * Private API - Write a buffer of already-encoded frames with a frame handler.
+     * Frame handlers that can't write encoded frames get the frames one by one,
+     * the buffer is then given back to the pool once they are written.
+     * @param handler the frame handler
+     * @param frames the frames, ready to be read
+     * @param pool the pool the buffer comes from, null if the buffer isn't pooled
+     * @throws IOException if there is a problem accessing the connection
+     */
+    public static void writeEncoded(FrameHandler handler, ByteBuffer frames, ByteBufferPool pool)
+        throws IOException
+    {
+        if (handler instanceof EncodedFrameHandler) {
+            ((EncodedFrameHandler) handler).writeFrames(frames, pool);
+            return;
+        }
+        try {
+            while (frames.hasRemaining()) {
+                int type = frames.get() & 0xFF;
+                int channel = frames.getShort() & 0xFFFF;
+                byte[] payload = new byte[frames.getInt()];
+                frames.get(payload);
+                // frame end
+                frames.get();
+                handler.writeFrame(new Frame(type, channel, payload));
+            }
+        } finally {
+            if (pool != null) {
+                pool.release(frames);
+            }
+        }
+    }
+
     /**
      * Constructs a frame for output with a type and a channel number and a
      * fresh accumulator waiting for payload.
@@ -54,6 +120,11 @@ public class Frame {
         this.type = type;
         this.channel = channel;
         this.payload = null;
+        this.payloadOffset = 0;
+        this.payloadLength = 0;
+        this.wrapped = false;
+        this.pooledBuffer = null;
+        this.pool = null;
         this.accumulator = new ByteArrayOutputStream();
     }
 
@@ -65,6 +136,35 @@ public class Frame {
         this.type = type;
         this.channel = channel;
         this.payload = payload;
+        this.payloadOffset = 0;
+        this.payloadLength = payload.length;
+        this.wrapped = false;
+        this.pooledBuffer = null;
+        this.pool = null;
+        this.accumulator = null;
+    }
+
+    private Frame(int type, int channel, byte[] payload, int offset, int length) {
+        this.type = type;
+        this.channel = channel;
+        this.payload = payload;
+        this.payloadOffset = offset;
+        this.payloadLength = length;
+        this.wrapped = true;
+        this.pooledBuffer = null;
+        this.pool = null;
+        this.accumulator = null;
+    }
+
+    private Frame(int type, int channel, ByteBuffer pooledBuffer, int length, ByteBufferPool pool) {
+        this.type = type;
+        this.channel = channel;
+        this.payload = pooledBuffer.array();
+        this.payloadOffset = pooledBuffer.arrayOffset();
+        this.payloadLength = length;
+        this.wrapped = true;
+        this.pooledBuffer = pooledBuffer;
+        this.pool = pool;
         this.accumulator = null;
     }
 
@@ -77,6 +177,15 @@ public class Frame {
         return frame;
     }
 
+    /**
+     * Private API - Called by {@link AMQCommand#transmit}. Unlike
+     * {@link #fromBodyFragment}, the body is not copied: the frame refers to
+     * the body array, which must not be modified until the frame is written.
+     */
+    public static Frame wrapBodyFragment(int channelNumber, byte[] body, int offset, int length) {
+        return new Frame(AMQP.FRAME_BODY, channelNumber, body, offset, length);
+    }
+
     /**
      * Protected API - Factory method to instantiate a Frame by reading an
      * AMQP-wire-protocol frame from the given input stream.
@@ -84,6 +193,19 @@ public class Frame {
      * @return a new Frame if we read a frame successfully, otherwise null
      */
     public static Frame readFrom(DataInputStream is) throws IOException {
+        return readFrom(is, null);
+    }
+
+    /**
+     * Protected API - Factory method to instantiate a Frame by reading an
+     * AMQP-wire-protocol frame from the given input stream. Payloads that fit
+     * in the pool's (heap) buffers are read into a pooled buffer, the frame must
+     * then be {@link #release() released} once its payload is no longer used.
+     *
+     * @param pool pool of inbound frame buffers, can be null
+     * @return a new Frame if we read a frame successfully, otherwise null
+     */
+    public static Frame readFrom(DataInputStream is, ByteBufferPool pool) throws IOException {
         int type;
         int channel;
 
@@ -109,15 +231,47 @@ public class Frame {
 
         channel = is.readUnsignedShort();
         int payloadSize = is.readInt();
-        byte[] payload = new byte[payloadSize];
-        is.readFully(payload);
+        Frame frame = newInboundFrame(type, channel, payloadSize, pool);
 
-        int frameEndMarker = is.readUnsignedByte();
-        if (frameEndMarker != AMQP.FRAME_END) {
-            throw new MalformedFrameException("Bad frame end marker: " + frameEndMarker);
+        boolean complete = false;
+        try {
+            is.readFully(frame.payload, frame.payloadOffset, payloadSize);
+
+            int frameEndMarker = is.readUnsignedByte();
+            if (frameEndMarker != AMQP.FRAME_END) {
+                throw new MalformedFrameException("Bad frame end marker: " + frameEndMarker);
+            }
+            complete = true;
+        } finally {
+            if (!complete) {
+                frame.release();
+            }
         }
 
-        return new Frame(type, channel, payload);
+        return frame;
+    }
+
+    /**
+     * Private API - Creates an inbound frame whose payload is then filled
+     * through {@link #wrapPayload()}. The payload is in a pooled buffer if it
+     * fits, the frame must then be {@link #release() released} once its payload
+     * is no longer used.
+     *
+     * @param pool pool of inbound frame buffers, can be null
+     * @throws MalformedFrameException if the payload size is negative
+     */
+    public static Frame newInboundFrame(int type, int channel, int payloadSize, ByteBufferPool pool)
+        throws MalformedFrameException
+    {
+        if (payloadSize < 0) {
+            throw new MalformedFrameException("Bad frame payload size: " + payloadSize);
+        }
+        if (pool != null && payloadSize > 0 && payloadSize <= pool.getBufferSize()) {
+            ByteBuffer buffer = pool.acquire();
+            return new Frame(type, channel, buffer, payloadSize, pool);
+        } else {
+            return new Frame(type, channel, new byte[payloadSize]);
+        }
     }
 
     /**
@@ -188,8 +342,8 @@ public class Frame {
             os.writeInt(accumulator.size());
             accumulator.writeTo(os);
         } else {
-            os.writeInt(payload.length);
-            os.write(payload);
+            os.writeInt(payloadLength);
+            os.write(payload, payloadOffset, payloadLength);
         }
         os.write(AMQP.FRAME_END);
     }
@@ -198,7 +352,7 @@ public class Frame {
         if(accumulator != null) {
             return accumulator.size() + NON_BODY_SIZE;
         } else {
-            return payload.length + NON_BODY_SIZE;
+            return payloadLength + NON_BODY_SIZE;
         }
     }
 
@@ -206,6 +360,7 @@ public class Frame {
      * Public API - retrieves the frame payload
      */
     public byte[] getPayload() {
+        if (wrapped) return Arrays.copyOfRange(payload, payloadOffset, payloadOffset + payloadLength);
         if (payload != null) return payload;
 
         // This is a Frame we've constructed ourselves. For some reason (e.g.
@@ -214,10 +369,53 @@ public class Frame {
         return accumulator.toByteArray();
     }
 
+    /**
+     * Private API - whether the payload is a slice of an array owned by
+     * the caller, see {@link #wrapBodyFragment}
+     */
+    public boolean isWrapped() {
+        return wrapped;
+    }
+
+    /**
+     * Private API - whether the payload is in a pooled buffer, see {@link #readFrom(DataInputStream, ByteBufferPool)}
+     */
+    public boolean isPooled() {
+        return pooledBuffer != null;
+    }
+
+    /**
+     * Private API - gives the payload buffer back to its pool, if any.
+     * The payload must not be used afterwards.
+     */
+    public void release() {
+        if (pool != null) {
+            pool.release(pooledBuffer);
+        }
+    }
+
+    /**
+     * Private API - size of the payload, without copying it
+     */
+    public int getPayloadSize() {
+        return accumulator != null ? accumulator.size() : payloadLength;
+    }
+
+    /**
+     * Private API - a view over the payload of a frame that is not built
+     * with an accumulator
+     */
+    public ByteBuffer wrapPayload() {
+        return ByteBuffer.wrap(payload, payloadOffset, payloadLength);
+    }
+
     /**
      * Public API - retrieves a new DataInputStream streaming over the payload
      */
     public DataInputStream getInputStream() {
+        if (payload != null) {
+            return new DataInputStream(new ByteArrayInputStream(payload, payloadOffset, payloadLength));
+        }
         return new DataInputStream(new ByteArrayInputStream(getPayload()));
     }
 
@@ -232,7 +430,7 @@ public class Frame {
         StringBuilder sb = new StringBuilder();
         sb.append("Frame(type=").append(type).append(", channel=").append(channel).append(", ");
         if (accumulator == null) {
-            sb.append(payload.length).append(" bytes of payload)");
+            sb.append(payloadLength).append(" bytes of payload)");
         } else {
             sb.append(accumulator.size()).append(" bytes of accumulator)");
         }
@@ -244,6 +442,12 @@ public class Frame {
     public static long tableSize(Map<String, Object> table)
         throws UnsupportedEncodingException
     {
+        if (table instanceof LazyTable) {
+            long encodedSize = ((LazyTable) table).encodedSize();
+            if (encodedSize >= 0) {
+                return encodedSize;
+            }
+        }
         long acc = 0;
         for(Map.Entry<String, Object> entry: table.entrySet()) {
             acc += shortStrSize(entry.getKey());
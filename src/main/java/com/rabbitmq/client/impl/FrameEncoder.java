@@ -0,0 +1,233 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.impl;
+
+import com.rabbitmq.client.AMQP;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes outbound commands as wire-protocol frames straight into
+ * {@link ByteBuffer}s taken from a {@link ByteBufferPool}, instead of
+ * building a {@link Frame} and its accumulator for every frame.
+ * <p/>
+ * Pool buffers are as large as the negotiated frame max, so any frame fits
+ * in an empty buffer. A command's frames are packed into the same buffer
+ * as long as they fit, a full buffer is handed over to the connection
+ * which gives it back to the pool once written.
+ * <h2>Concurrency</h2>
+ * This class is thread-safe, but an instance is meant to serve one channel.
+ */
+public class FrameEncoder {
+
+    /** Frame type, channel number and payload size */
+    private static final int FRAME_HEADER_SIZE = 7;
+
+    private final AMQConnection connection;
+
+    private final ByteBufferPool pool;
+
+    private final DataOutputStream out;
+
+    private final ValueWriter valueWriter;
+
+    /** Buffer being filled, only set while encoding a command */
+    private ByteBuffer buffer;
+
+    public FrameEncoder(AMQConnection connection, ByteBufferPool pool) {
+        this.connection = connection;
+        this.pool = pool;
+        this.out = new DataOutputStream(new BufferOutputStream());
+        this.valueWriter = new ValueWriter(out);
+    }
+
+    /**
+     * Encode and send the frames of a command.
+     * @param channelNumber the channel the command is sent on
+     * @param method the command method
+     * @param header the content header, if the method has content
+     * @param body the content body, if the method has content
+     * @throws IOException if an error is encountered
+     */
+    public synchronized void encode(int channelNumber, Method method, AMQContentHeader header, byte[] body) throws IOException {
+        buffer = pool.acquire();
+        try {
+            writeFrame(AMQP.FRAME_METHOD, channelNumber, method, null, 0);
+            if (method.hasContent()) {
+                writeFrame(AMQP.FRAME_HEADER, channelNumber, null, header, body.length);
+                writeBody(channelNumber, body);
+            }
+            flush();
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Send the frames of a message published with a
+     * {@link com.rabbitmq.client.PublishTemplate}. The method and content
+     * header payloads are copied as they are, only the body size is written.
+     * @param channelNumber the channel the message is published on
+     * @param publish the pre-encoded payloads
+     * @param body the message body
+     * @throws IOException if an error is encountered
+     */
+    public synchronized void encode(int channelNumber, EncodedPublish publish, byte[] body) throws IOException {
+        buffer = pool.acquire();
+        try {
+            if (fits(publish.methodPayloadSize())) {
+                putFrameHeader(AMQP.FRAME_METHOD, channelNumber, publish.methodPayloadSize());
+                publish.putMethodPayload(buffer);
+                buffer.put((byte) AMQP.FRAME_END);
+            } else {
+                connection.writeFrame(publish.methodFrame(channelNumber));
+            }
+            if (fits(publish.headerPayloadSize())) {
+                putFrameHeader(AMQP.FRAME_HEADER, channelNumber, publish.headerPayloadSize());
+                publish.putHeaderPayload(buffer, body.length);
+                buffer.put((byte) AMQP.FRAME_END);
+            } else {
+                connection.writeFrame(publish.headerFrame(channelNumber, body.length));
+            }
+            writeBody(channelNumber, body);
+            flush();
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Make room for a frame with a payload of the given size, sending the
+     * current buffer if needed.
+     * @return false if the frame is larger than frame max
+     */
+    private boolean fits(int payloadSize) throws IOException {
+        int frameSize = payloadSize + AMQCommand.EMPTY_FRAME_SIZE;
+        if (frameSize > pool.getBufferSize()) {
+            // leave it to the broker to reject it, what is in the buffer goes first
+            if (buffer.position() > 0) {
+                send();
+            }
+            return false;
+        }
+        if (buffer.remaining() < frameSize) {
+            send();
+        }
+        return true;
+    }
+
+    private void putFrameHeader(int type, int channelNumber, int payloadSize) {
+        buffer.put((byte) type);
+        buffer.putShort((short) channelNumber);
+        buffer.putInt(payloadSize);
+    }
+
+    private void writeBody(int channelNumber, byte[] body) throws IOException {
+        int bodyPayloadMax = pool.getBufferSize() - AMQCommand.EMPTY_FRAME_SIZE;
+        for (int offset = 0; offset < body.length; offset += bodyPayloadMax) {
+            int remaining = body.length - offset;
+            int fragmentLength = (remaining < bodyPayloadMax) ? remaining : bodyPayloadMax;
+            if (buffer.remaining() < fragmentLength + AMQCommand.EMPTY_FRAME_SIZE) {
+                send();
+            }
+            putFrameHeader(AMQP.FRAME_BODY, channelNumber, fragmentLength);
+            buffer.put(body, offset, fragmentLength);
+            buffer.put((byte) AMQP.FRAME_END);
+        }
+    }
+
+    /** Hand over what is left in the current buffer */
+    private void flush() throws IOException {
+        if (buffer.position() > 0) {
+            ByteBuffer frames = buffer;
+            buffer = null;
+            frames.flip();
+            connection.writeFrames(frames, pool);
+        }
+    }
+
+    /** Give the current buffer back to the pool if it has not been handed over */
+    private void release() {
+        if (buffer != null) {
+            pool.release(buffer);
+            buffer = null;
+        }
+    }
+
+    /**
+     * Write a method or content header frame. The payload size is not known
+     * in advance, so it is patched once the payload is written.
+     */
+    private void writeFrame(int type, int channelNumber, Method method, AMQContentHeader header, long bodySize) throws IOException {
+        int start = buffer.position();
+        try {
+            buffer.put((byte) type);
+            buffer.putShort((short) channelNumber);
+            buffer.putInt(0);
+            if (method != null) {
+                out.writeShort(method.protocolClassId());
+                out.writeShort(method.protocolMethodId());
+                MethodArgumentWriter argWriter = new MethodArgumentWriter(valueWriter);
+                method.writeArgumentsTo(argWriter);
+                argWriter.flush();
+            } else {
+                out.writeShort(header.getClassId());
+                header.writeTo(out, bodySize);
+            }
+            int payloadSize = buffer.position() - start - FRAME_HEADER_SIZE;
+            buffer.put((byte) AMQP.FRAME_END);
+            buffer.putInt(start + 3, payloadSize);
+        } catch (BufferOverflowException e) {
+            buffer.position(start);
+            if (start > 0) {
+                // does not fit in what is left, start over in a fresh buffer
+                send();
+                writeFrame(type, channelNumber, method, header, bodySize);
+            } else {
+                // larger than frame max, leave it to the broker to reject it
+                connection.writeFrame(method != null ? method.toFrame(channelNumber)
+                                                     : header.toFrame(channelNumber, bodySize));
+            }
+        }
+    }
+
+    /** Hand over the current buffer and carry on with a fresh one */
+    private void send() throws IOException {
+        ByteBuffer frames = buffer;
+        buffer = null;
+        frames.flip();
+        connection.writeFrames(frames, pool);
+        buffer = pool.acquire();
+    }
+
+    /** Writes to the buffer being filled */
+    private final class BufferOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) {
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            buffer.put(b, off, len);
+        }
+    }
+}
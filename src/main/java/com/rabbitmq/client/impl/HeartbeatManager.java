@@ -0,0 +1,43 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.impl;
+
+/**
+ * Sends heartbeats for a {@link AMQConnection}.
+ * <p/>
+ * Private API, the default implementation uses a scheduled executor,
+ * frame handlers can provide their own.
+ *
+ * @see AMQConnection#setHeartbeatManager(HeartbeatManager)
+ * @since 4.1.0
+ */
+public interface HeartbeatManager {
+
+    /**
+     * Signals something has been sent to the broker.
+     */
+    void signalActivity();
+
+    /**
+     * Sets the heartbeat in seconds, 0 to disable heartbeats.
+     */
+    void setHeartbeat(int heartbeatSeconds);
+
+    /**
+     * Shutdown the heartbeat process, if any.
+     */
+    void shutdown();
+}
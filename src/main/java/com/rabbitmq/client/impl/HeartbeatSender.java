@@ -16,8 +16,6 @@
 
 package com.rabbitmq.client.impl;
 
-import com.rabbitmq.client.AMQP;
-
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.Executors;
@@ -34,7 +32,7 @@ import static java.util.concurrent.TimeUnit.SECONDS;
  * Heartbeats are sent in a dedicated thread that is separate
  * from the main loop thread used for the connection.
  */
-final class HeartbeatSender {
+final class HeartbeatSender implements HeartbeatManager {
 
     private final Object monitor = new Object();
 
@@ -57,6 +55,7 @@ final class HeartbeatSender {
         this.threadFactory = threadFactory;
     }
 
+    @Override
     public void signalActivity() {
         this.lastActivityTime = System.nanoTime();
     }
@@ -64,6 +63,7 @@ final class HeartbeatSender {
     /**
      * Sets the heartbeat in seconds.
      */
+    @Override
     public void setHeartbeat(int heartbeatSeconds) {
         synchronized(this.monitor) {
             if(this.shutdown) {
@@ -100,6 +100,7 @@ final class HeartbeatSender {
     /**
      * Shutdown the heartbeat process, if any.
      */
+    @Override
     public void shutdown() {
         ExecutorService executorToShutdown = null;
         synchronized (this.monitor) {
@@ -136,7 +137,7 @@ final class HeartbeatSender {
                 long now = System.nanoTime();
 
                 if (now > (lastActivityTime + this.heartbeatNanos)) {
-                    frameHandler.writeFrame(new Frame(AMQP.FRAME_HEARTBEAT, 0));
+                    Frame.writeEncoded(frameHandler, Frame.heartbeat(), null);
                     frameHandler.flush();
                 }
             } catch (IOException e) {
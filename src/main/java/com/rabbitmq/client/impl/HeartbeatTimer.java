@@ -0,0 +1,161 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Timer for the heartbeats of blocking IO connections, shared by
+ * the connections created with the same {@link ThreadFactory}.
+ * <p/>
+ * A single thread advances a {@link TimingWheel}, and only runs while
+ * there are timeouts. Heartbeats are written by a bounded pool of writer threads,
+ * so a connection blocked on its socket doesn't delay the heartbeats
+ * of other connections. There is at most one heartbeat write per connection
+ * at a time, so writes waiting for a writer thread are bounded by the number
+ * of connections. Threads are created with the thread factory of the connections,
+ * only when heartbeats are actually due, and terminate shortly after they
+ * are no longer needed, so they don't keep the JVM alive once connections are closed.
+ *
+ * @see SharedHeartbeatSender
+ */
+final class HeartbeatTimer {
+
+    /** precision of heartbeat timeouts */
+    static final long TICK_MS = 100;
+
+    /** maximum number of threads writing heartbeats */
+    static final int MAX_WRITERS = 8;
+
+    /** timers with a running thread, by thread factory, guarded by itself */
+    private static final Map<ThreadFactory, HeartbeatTimer> TIMERS = new HashMap<ThreadFactory, HeartbeatTimer>();
+
+    private final Object monitor = new Object();
+
+    private final TimingWheel wheel = new TimingWheel(TICK_MS, 512);
+
+    private final ThreadFactory threadFactory;
+
+    private final ThreadPoolExecutor writers;
+
+    /** whether the timer thread runs, guarded by monitor */
+    private boolean running = false;
+
+    HeartbeatTimer(final ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+        final AtomicInteger writerCount = new AtomicInteger(0);
+        this.writers = new ThreadPoolExecutor(MAX_WRITERS, MAX_WRITERS,
+            1L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return Environment.newThread(threadFactory, runnable,
+                    "rabbitmq-heartbeat-writer-" + writerCount.incrementAndGet());
+            }
+        });
+        this.writers.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * The timer for connections using a thread factory, a timer
+     * is shared as long as it has heartbeats to send. A timer is only
+     * registered once something is scheduled, so connections without
+     * heartbeats leave nothing behind.
+     */
+    static HeartbeatTimer forThreadFactory(ThreadFactory threadFactory) {
+        synchronized (TIMERS) {
+            HeartbeatTimer timer = TIMERS.get(threadFactory);
+            return timer == null ? new HeartbeatTimer(threadFactory) : timer;
+        }
+    }
+
+    /**
+     * @return whether there is a shared timer for the thread factory
+     */
+    static boolean isRegistered(ThreadFactory threadFactory) {
+        synchronized (TIMERS) {
+            return TIMERS.containsKey(threadFactory);
+        }
+    }
+
+    /**
+     * Schedule a task, run by the timer thread.
+     */
+    TimingWheel.Timeout schedule(Runnable task, long deadline) {
+        synchronized (TIMERS) {
+            synchronized (monitor) {
+                TimingWheel.Timeout timeout = wheel.schedule(task, deadline);
+                if (!running) {
+                    Environment.newThread(threadFactory, new TimerLoop(), "rabbitmq-heartbeat-timer").start();
+                    running = true;
+                    // registered only while the timer runs, so it can't leak
+                    if (!TIMERS.containsKey(threadFactory)) {
+                        TIMERS.put(threadFactory, this);
+                    }
+                }
+                return timeout;
+            }
+        }
+    }
+
+    /**
+     * Run a task in a writer thread.
+     */
+    void write(Runnable task) {
+        writers.execute(task);
+    }
+
+    private void stopped() {
+        synchronized (TIMERS) {
+            synchronized (monitor) {
+                running = false;
+                if (TIMERS.get(threadFactory) == this) {
+                    TIMERS.remove(threadFactory);
+                }
+            }
+        }
+    }
+
+    private final class TimerLoop implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    wheel.advance(System.currentTimeMillis());
+                    synchronized (TIMERS) {
+                        synchronized (monitor) {
+                            // timeouts are added holding the monitor
+                            if (wheel.isEmpty()) {
+                                stopped();
+                                return;
+                            }
+                        }
+                    }
+                    Thread.sleep(TICK_MS);
+                }
+            } catch (InterruptedException e) {
+                stopped();
+            }
+        }
+    }
+}
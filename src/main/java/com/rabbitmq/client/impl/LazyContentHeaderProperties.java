@@ -0,0 +1,264 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.impl;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+
+import com.rabbitmq.client.LongString;
+import com.rabbitmq.client.MalformedFrameException;
+
+/**
+ * Content header properties kept in their wire format, each
+ * property being decoded on its first access. Methods on this
+ * object are usually called from autogenerated code.
+ * <p/>
+ * The structure of the properties (presence flags, lengths, table
+ * field types) is checked when the object is created, so decoding
+ * a property afterwards doesn't fail.
+ * <p/>
+ * Instances are thread-safe.
+ */
+public final class LazyContentHeaderProperties {
+
+    public static final int SHORTSTR = 0;
+    public static final int LONGSTR = 1;
+    public static final int SHORT = 2;
+    public static final int LONG = 3;
+    public static final int LONGLONG = 4;
+    public static final int TABLE = 5;
+    public static final int OCTET = 6;
+    public static final int TIMESTAMP = 7;
+
+    private static final Object NOT_DECODED = new Object();
+
+    /** the properties, right after the body size */
+    private final byte[] properties;
+
+    /** property types, in the order of the presence flags */
+    private final int[] types;
+
+    /** offset of each property in the array, -1 if the property is absent */
+    private final int[] offsets;
+
+    /** decoded properties, {@link #NOT_DECODED} until first access */
+    private final Object[] values;
+
+    /**
+     * Protected API - Reads the properties from the given input stream
+     * and checks their structure.
+     * @param in stream positioned right after the body size
+     * @param size size of the properties in bytes
+     * @param types types of the properties, in order
+     * @throws IOException if the properties are malformed
+     */
+    public LazyContentHeaderProperties(DataInputStream in, int size, int[] types) throws IOException {
+        if (size < 0) {
+            throw new MalformedFrameException("Invalid content header properties size " + size);
+        }
+        this.properties = new byte[size];
+        in.readFully(this.properties);
+        this.types = types;
+        this.offsets = new int[types.length];
+        this.values = new Object[types.length];
+        int position = readPresence();
+        for (int i = 0; i < types.length; i++) {
+            if (offsets[i] == 0) {
+                offsets[i] = position;
+                position = skip(types[i], position);
+            }
+            values[i] = NOT_DECODED;
+        }
+    }
+
+    /**
+     * Reads the presence flags, marking absent properties with a -1 offset.
+     * @return the position of the first property
+     */
+    private int readPresence() throws IOException {
+        int position = 0;
+        int flagWord = 1; // just the continuation bit
+        int bitCount = 15; // forces a flag word read
+        for (int i = 0; i < types.length; i++) {
+            if (bitCount == 15) {
+                if ((flagWord & 1) == 0) {
+                    throw new MalformedFrameException("Attempted to read flag word when none advertised");
+                }
+                flagWord = getUnsignedShort(position);
+                position += 2;
+                bitCount = 0;
+            }
+            int bit = 15 - bitCount;
+            bitCount++;
+            offsets[i] = (flagWord & (1 << bit)) != 0 ? 0 : -1;
+        }
+        if ((flagWord & 1) != 0) {
+            throw new MalformedFrameException("Unexpected continuation flag word");
+        }
+        return position;
+    }
+
+    /**
+     * @return the position right after the property at the given position
+     */
+    private int skip(int type, int position) throws IOException {
+        switch (type) {
+            case SHORTSTR:
+                return checkBounds(position + 1 + getUnsignedByte(position));
+            case LONGSTR:
+                return checkBounds(position + 4 + getLength(position));
+            case SHORT:
+                return checkBounds(position + 2);
+            case LONG:
+                return checkBounds(position + 4);
+            case LONGLONG:
+            case TIMESTAMP:
+                return checkBounds(position + 8);
+            case TABLE:
+                int end = checkBounds(position + 4 + getLength(position));
+                LazyTable.checkTable(properties, position + 4, end - position - 4);
+                return end;
+            case OCTET:
+                return checkBounds(position + 1);
+            default:
+                throw new IllegalArgumentException("Unknown property type " + type);
+        }
+    }
+
+    private int checkBounds(int position) throws MalformedFrameException {
+        if (position > properties.length || position < 0) {
+            throw new MalformedFrameException("Content header property exceeds header size");
+        }
+        return position;
+    }
+
+    private int getUnsignedByte(int position) throws MalformedFrameException {
+        checkBounds(position + 1);
+        return properties[position] & 0xFF;
+    }
+
+    private int getUnsignedShort(int position) throws MalformedFrameException {
+        checkBounds(position + 2);
+        return ((properties[position] & 0xFF) << 8) | (properties[position + 1] & 0xFF);
+    }
+
+    private int getInt(int position) {
+        return ((properties[position] & 0xFF) << 24) | ((properties[position + 1] & 0xFF) << 16)
+            | ((properties[position + 2] & 0xFF) << 8) | (properties[position + 3] & 0xFF);
+    }
+
+    private long getLong(int position) {
+        return ((long) getInt(position) << 32) | (getInt(position + 4) & 0xFFFFFFFFL);
+    }
+
+    /** @return a length prefix, which can't be more than the properties size */
+    private int getLength(int position) throws MalformedFrameException {
+        checkBounds(position + 4);
+        int length = getInt(position);
+        if (length < 0 || length > properties.length) {
+            throw new MalformedFrameException("Content header property exceeds header size");
+        }
+        return length;
+    }
+
+    private synchronized Object get(int index) {
+        Object value = values[index];
+        if (value == NOT_DECODED) {
+            value = offsets[index] < 0 ? null : decode(types[index], offsets[index]);
+            values[index] = value;
+        }
+        return value;
+    }
+
+    private Object decode(int type, int position) {
+        try {
+            switch (type) {
+                case SHORTSTR:
+                    return new String(properties, position + 1, properties[position] & 0xFF, "utf-8");
+                case LONGSTR:
+                    byte[] bytes = new byte[getInt(position)];
+                    System.arraycopy(properties, position + 4, bytes, 0, bytes.length);
+                    return LongStringHelper.asLongString(bytes);
+                case SHORT:
+                    return (int) (short) (((properties[position] & 0xFF) << 8) | (properties[position + 1] & 0xFF));
+                case LONG:
+                    return getInt(position);
+                case LONGLONG:
+                    return getLong(position);
+                case TABLE:
+                    int tableLength = getInt(position);
+                    if (tableLength == 0) {
+                        return Collections.emptyMap();
+                    }
+                    // the table entries are decoded on access too
+                    return new LazyTable(properties, position + 4, tableLength);
+                case OCTET:
+                    return properties[position] & 0xFF;
+                case TIMESTAMP:
+                    return new Date(getLong(position) * 1000);
+                default:
+                    throw new IllegalArgumentException("Unknown property type " + type);
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 not supported", e);
+        }
+    }
+
+    /** Returns an AMQP short string property, null if absent. */
+    public String readShortstr(int index) {
+        return (String) get(index);
+    }
+
+    /** Returns an AMQP "long string" (binary) property, null if absent. */
+    public LongString readLongstr(int index) {
+        return (LongString) get(index);
+    }
+
+    /** Returns an AMQP short integer property, null if absent. */
+    public Integer readShort(int index) {
+        return (Integer) get(index);
+    }
+
+    /** Returns an AMQP integer property, null if absent. */
+    public Integer readLong(int index) {
+        return (Integer) get(index);
+    }
+
+    /** Returns an AMQP long integer property, null if absent. */
+    public Long readLonglong(int index) {
+        return (Long) get(index);
+    }
+
+    /** Returns an AMQP table property, null if absent. */
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> readTable(int index) {
+        return (Map<String, Object>) get(index);
+    }
+
+    /** Returns an AMQP octet property, null if absent. */
+    public Integer readOctet(int index) {
+        return (Integer) get(index);
+    }
+
+    /** Returns an AMQP timestamp property, null if absent. */
+    public Date readTimestamp(int index) {
+        return (Date) get(index);
+    }
+}
@@ -0,0 +1,526 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.impl;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.rabbitmq.client.MalformedFrameException;
+
+/**
+ * AMQP field table backed by its encoded bytes. Keys are indexed
+ * on first access and values are decoded when they are first read.
+ * A table is written back as is by {@link ValueWriter#writeTable(Map)}
+ * as long as it hasn't changed.
+ * <p/>
+ * The table can be modified like a {@link HashMap}: it is then decoded
+ * into one, which is used from then on. Mutable values (nested tables,
+ * arrays, byte arrays, dates) can be modified by the application once
+ * they have been read, so the table isn't written as is after that.
+ * <p/>
+ * Reads are thread-safe, modifications aren't.
+ */
+public final class LazyTable extends AbstractMap<String, Object> {
+
+    /** above this number of entries, keys are looked up in a hash map */
+    private static final int LINEAR_LOOKUP_MAX_SIZE = 16;
+
+    private static final Object NOT_DECODED = new Object();
+
+    /** encoded entries, without the table size */
+    private final byte[] bytes;
+    private final int offset;
+    private final int length;
+
+    /** keys in wire order, without duplicates, null until first access */
+    private String[] keys;
+
+    /** offset of the field value of each key */
+    private int[] valueOffsets;
+
+    /** decoded values, {@link #NOT_DECODED} until first read */
+    private Object[] values;
+
+    /** key lookup for large tables */
+    private Map<String, Integer> keyIndex;
+
+    private int size;
+
+    /** whether a value the application can modify has been read */
+    private boolean mutableValueRead;
+
+    /** the decoded table, once the table has been modified */
+    private Map<String, Object> modified;
+
+    private Set<Map.Entry<String, Object>> entrySet;
+
+    /**
+     * Creates a table from checked encoded entries.
+     * @see #checkTable(byte[], int, int)
+     */
+    LazyTable(byte[] bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Checks the structure of encoded table entries: lengths and field types.
+     * @throws MalformedFrameException if the entries are malformed
+     */
+    static void checkTable(byte[] bytes, int offset, int length) throws MalformedFrameException {
+        int end = offset + length;
+        int position = offset;
+        while (position < end) {
+            position = skipFieldValue(bytes, position + 1 + (bytes[position] & 0xFF), end);
+        }
+    }
+
+    /**
+     * @return the position right after the field value at the given position
+     * @throws MalformedFrameException if the value type is unknown or the value goes past the end
+     */
+    private static int skipFieldValue(byte[] bytes, int position, int end) throws MalformedFrameException {
+        if (position >= end) {
+            throw new MalformedFrameException("Table entry exceeds table size");
+        }
+        int type = bytes[position] & 0xFF;
+        position++;
+        long next;
+        switch (type) {
+            case 'S':
+            case 'x':
+                next = position + 4 + length(bytes, position, end);
+                break;
+            case 'I':
+            case 'f':
+                next = position + 4;
+                break;
+            case 'D':
+                next = position + 5;
+                break;
+            case 'T':
+            case 'd':
+            case 'l':
+                next = position + 8;
+                break;
+            case 'F':
+                next = position + 4 + length(bytes, position, end);
+                if (next <= end) {
+                    checkTable(bytes, position + 4, (int) (next - position - 4));
+                }
+                break;
+            case 'A':
+                next = position + 4 + length(bytes, position, end);
+                if (next <= end) {
+                    int elementPosition = position + 4;
+                    while (elementPosition < next) {
+                        elementPosition = skipFieldValue(bytes, elementPosition, (int) next);
+                    }
+                }
+                break;
+            case 'b':
+            case 't':
+                next = position + 1;
+                break;
+            case 's':
+                next = position + 2;
+                break;
+            case 'V':
+                next = position;
+                break;
+            default:
+                throw new MalformedFrameException("Unrecognised type in table");
+        }
+        if (next > end) {
+            throw new MalformedFrameException("Table entry exceeds table size");
+        }
+        return (int) next;
+    }
+
+    private static long length(byte[] bytes, int position, int end) throws MalformedFrameException {
+        if (position + 4 > end) {
+            throw new MalformedFrameException("Table entry exceeds table size");
+        }
+        return getInt(bytes, position) & 0xFFFFFFFFL;
+    }
+
+    private static int getInt(byte[] bytes, int position) {
+        return ((bytes[position] & 0xFF) << 24) | ((bytes[position + 1] & 0xFF) << 16)
+            | ((bytes[position + 2] & 0xFF) << 8) | (bytes[position + 3] & 0xFF);
+    }
+
+    private static long getLong(byte[] bytes, int position) {
+        return ((long) getInt(bytes, position) << 32) | (getInt(bytes, position + 4) & 0xFFFFFFFFL);
+    }
+
+    private static String string(byte[] bytes, int position, int length) {
+        try {
+            return new String(bytes, position, length, "utf-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 not supported", e);
+        }
+    }
+
+    private synchronized void index() {
+        if (keys != null) {
+            return;
+        }
+        String[] indexedKeys = new String[8];
+        int[] indexedValueOffsets = new int[8];
+        int count = 0;
+        int end = offset + length;
+        int position = offset;
+        while (position < end) {
+            int keyLength = bytes[position] & 0xFF;
+            String key = string(bytes, position + 1, keyLength);
+            int valueOffset = position + 1 + keyLength;
+            try {
+                position = skipFieldValue(bytes, valueOffset, end);
+            } catch (MalformedFrameException e) {
+                // checked when the table was read
+                throw new IllegalStateException("Malformed table", e);
+            }
+            if (find(key, indexedKeys, count) >= 0) {
+                // the first value wins, like for decoded tables
+                continue;
+            }
+            if (count == indexedKeys.length) {
+                String[] newKeys = new String[count * 2];
+                System.arraycopy(indexedKeys, 0, newKeys, 0, count);
+                indexedKeys = newKeys;
+                int[] newValueOffsets = new int[count * 2];
+                System.arraycopy(indexedValueOffsets, 0, newValueOffsets, 0, count);
+                indexedValueOffsets = newValueOffsets;
+            }
+            indexedKeys[count] = key;
+            indexedValueOffsets[count] = valueOffset;
+            if (keyIndex != null) {
+                keyIndex.put(key, count);
+            } else if (count == LINEAR_LOOKUP_MAX_SIZE) {
+                keyIndex = new HashMap<String, Integer>();
+                for (int i = 0; i <= count; i++) {
+                    keyIndex.put(indexedKeys[i], i);
+                }
+            }
+            count++;
+        }
+        this.values = new Object[count];
+        for (int i = 0; i < count; i++) {
+            this.values[i] = NOT_DECODED;
+        }
+        this.valueOffsets = indexedValueOffsets;
+        this.size = count;
+        this.keys = indexedKeys;
+    }
+
+    private int find(Object key, String[] indexedKeys, int count) {
+        if (keyIndex != null) {
+            Integer index = keyIndex.get(key);
+            return index == null ? -1 : index;
+        }
+        for (int i = 0; i < count; i++) {
+            if (indexedKeys[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private synchronized int indexOf(Object key) {
+        index();
+        return find(key, keys, size);
+    }
+
+    private synchronized String key(int index) {
+        return keys[index];
+    }
+
+    private synchronized Object value(int index) {
+        Object value = values[index];
+        if (value == NOT_DECODED) {
+            value = decodeFieldValue(valueOffsets[index]);
+            values[index] = value;
+        }
+        return value;
+    }
+
+    private Object decodeFieldValue(int position) {
+        int type = bytes[position] & 0xFF;
+        position++;
+        switch (type) {
+            case 'S':
+                byte[] longString = new byte[getInt(bytes, position)];
+                System.arraycopy(bytes, position + 4, longString, 0, longString.length);
+                return LongStringHelper.asLongString(longString);
+            case 'I':
+                return getInt(bytes, position);
+            case 'D':
+                byte[] unscaled = new byte[4];
+                System.arraycopy(bytes, position + 1, unscaled, 0, 4);
+                return new BigDecimal(new BigInteger(unscaled), bytes[position] & 0xFF);
+            case 'T':
+                mutableValueRead = true;
+                return new Date(getLong(bytes, position) * 1000);
+            case 'F':
+                mutableValueRead = true;
+                int tableLength = getInt(bytes, position);
+                if (tableLength == 0) {
+                    return Collections.emptyMap();
+                }
+                return new LazyTable(bytes, position + 4, tableLength);
+            case 'A':
+                mutableValueRead = true;
+                int end = position + 4 + getInt(bytes, position);
+                List<Object> array = new ArrayList<Object>();
+                int elementPosition = position + 4;
+                while (elementPosition < end) {
+                    array.add(decodeFieldValue(elementPosition));
+                    try {
+                        elementPosition = skipFieldValue(bytes, elementPosition, end);
+                    } catch (MalformedFrameException e) {
+                        // checked when the table was read
+                        throw new IllegalStateException("Malformed table", e);
+                    }
+                }
+                return array;
+            case 'b':
+                return bytes[position];
+            case 'd':
+                return Double.longBitsToDouble(getLong(bytes, position));
+            case 'f':
+                return Float.intBitsToFloat(getInt(bytes, position));
+            case 'l':
+                return getLong(bytes, position);
+            case 's':
+                return (short) (((bytes[position] & 0xFF) << 8) | (bytes[position + 1] & 0xFF));
+            case 't':
+                return bytes[position] != 0;
+            case 'x':
+                mutableValueRead = true;
+                byte[] byteArray = new byte[getInt(bytes, position)];
+                System.arraycopy(bytes, position + 4, byteArray, 0, byteArray.length);
+                return byteArray;
+            case 'V':
+                return null;
+            default:
+                // checked when the table was read
+                throw new IllegalStateException("Unrecognised type in table");
+        }
+    }
+
+    /**
+     * Decodes the table into a hash map, which gets all the operations from then on.
+     */
+    private synchronized Map<String, Object> modified() {
+        if (modified == null) {
+            index();
+            Map<String, Object> table = new HashMap<String, Object>();
+            for (int i = 0; i < size; i++) {
+                table.put(keys[i], value(i));
+            }
+            modified = table;
+        }
+        return modified;
+    }
+
+    private synchronized Map<String, Object> modifiedOrNull() {
+        return modified;
+    }
+
+    /**
+     * Private API - Writes the encoded table if it hasn't changed
+     * since it has been read.
+     * @return true if the table has been written
+     */
+    synchronized boolean writeEncodedTo(DataOutputStream out) throws IOException {
+        if (modified != null || mutableValueRead) {
+            return false;
+        }
+        out.writeInt(length);
+        out.write(bytes, offset, length);
+        return true;
+    }
+
+    /**
+     * Private API - Size of the encoded table, if it hasn't changed since it has been read.
+     * @return the size of the table entries, -1 if the table has changed
+     */
+    synchronized long encodedSize() {
+        return modified != null || mutableValueRead ? -1 : length;
+    }
+
+    @Override
+    public int size() {
+        Map<String, Object> table = modifiedOrNull();
+        if (table != null) {
+            return table.size();
+        }
+        synchronized (this) {
+            index();
+            return size;
+        }
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        Map<String, Object> table = modifiedOrNull();
+        return table != null ? table.containsKey(key) : indexOf(key) >= 0;
+    }
+
+    @Override
+    public Object get(Object key) {
+        Map<String, Object> table = modifiedOrNull();
+        if (table != null) {
+            return table.get(key);
+        }
+        int index = indexOf(key);
+        return index < 0 ? null : value(index);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        return modified().put(key, value);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        return modified().remove(key);
+    }
+
+    @Override
+    public void clear() {
+        modified().clear();
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new EntrySet();
+        }
+        return entrySet;
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<String, Object>> {
+
+        @Override
+        public Iterator<Map.Entry<String, Object>> iterator() {
+            Map<String, Object> table = modifiedOrNull();
+            if (table != null) {
+                return table.entrySet().iterator();
+            }
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return LazyTable.this.size();
+        }
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+
+        private final int count = LazyTable.this.size();
+
+        private int next = 0;
+
+        private int current = -1;
+
+        @Override
+        public boolean hasNext() {
+            return next < count;
+        }
+
+        @Override
+        public Map.Entry<String, Object> next() {
+            if (next >= count) {
+                throw new NoSuchElementException();
+            }
+            current = next++;
+            return new Entry(current);
+        }
+
+        @Override
+        public void remove() {
+            if (current < 0) {
+                throw new IllegalStateException();
+            }
+            modified().remove(key(current));
+            current = -1;
+        }
+    }
+
+    private final class Entry implements Map.Entry<String, Object> {
+
+        private final int index;
+
+        private Entry(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public String getKey() {
+            return key(index);
+        }
+
+        @Override
+        public Object getValue() {
+            Map<String, Object> table = modifiedOrNull();
+            return table != null ? table.get(getKey()) : value(index);
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            return modified().put(getKey(), value);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> other = (Map.Entry<?, ?>) o;
+            Object value = getValue();
+            return getKey().equals(other.getKey())
+                && (value == null ? other.getValue() == null : value.equals(other.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            Object value = getValue();
+            return getKey().hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+}
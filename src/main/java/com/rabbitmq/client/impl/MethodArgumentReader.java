@@ -36,6 +36,8 @@ public class MethodArgumentReader
     /** If we are reading one or more bits, keeps track of which bit position we will read from next.
      * (reading least to most significant order) */
     private int nextBitMask;
+    /** Decoded short strings of the connection, null if not cached */
+    private final ShortStringCache shortStrings;
 
     /**
      * Resets the bit group accumulator variables when
@@ -51,8 +53,18 @@ public class MethodArgumentReader
      * Construct a MethodArgumentReader from the given {@link ValueReader}.
      */
     public MethodArgumentReader(ValueReader in)
+    {
+        this(in, null);
+    }
+
+    /**
+     * Construct a MethodArgumentReader which decodes short strings
+     * through the given cache.
+     */
+    MethodArgumentReader(ValueReader in, ShortStringCache shortStrings)
     {
         this.in = in;
+        this.shortStrings = shortStrings;
         clearBits();
     }
 
@@ -61,7 +73,7 @@ public class MethodArgumentReader
         throws IOException
     {
         clearBits();
-        return in.readShortstr();
+        return shortStrings == null ? in.readShortstr() : in.readShortstr(shortStrings);
     }
 
     /** Public API - reads a long string argument. */
@@ -0,0 +1,81 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.impl;
+
+import com.rabbitmq.client.MessageBody;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link MessageBody} backed by the payload of an inbound body frame read into
+ * a pooled buffer, or by a plain byte array (release is then a no-op).
+ * <h2>Concurrency</h2>
+ * This class is thread-safe.
+ */
+final class PooledMessageBody implements MessageBody {
+
+    /** The frame holding the body, null if the body is a plain array */
+    private final Frame frame;
+
+    private final ByteBuffer buffer;
+
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    PooledMessageBody(Frame frame) {
+        this.frame = frame;
+        this.buffer = frame.wrapPayload().slice().asReadOnlyBuffer();
+    }
+
+    PooledMessageBody(byte[] body) {
+        this.frame = null;
+        this.buffer = ByteBuffer.wrap(body).asReadOnlyBuffer();
+    }
+
+    @Override
+    public ByteBuffer getBuffer() {
+        if (references.get() <= 0) {
+            throw new IllegalStateException("Message body has been released");
+        }
+        return buffer;
+    }
+
+    @Override
+    public MessageBody retain() {
+        while (true) {
+            int current = references.get();
+            if (current <= 0) {
+                throw new IllegalStateException("Message body has been released");
+            }
+            if (references.compareAndSet(current, current + 1)) {
+                return this;
+            }
+        }
+    }
+
+    @Override
+    public void release() {
+        int remaining = references.decrementAndGet();
+        if (remaining == 0) {
+            if (frame != null) {
+                frame.release();
+            }
+        } else if (remaining < 0) {
+            references.incrementAndGet();
+            throw new IllegalStateException("Message body has already been released");
+        }
+    }
+}
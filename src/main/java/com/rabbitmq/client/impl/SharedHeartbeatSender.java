@@ -0,0 +1,158 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.impl;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Sends heartbeats for a {@link AMQConnection} using the {@link HeartbeatTimer}
+ * of its thread factory, instead of a thread per connection.
+ * <p/>
+ * The heartbeat frame is pre-encoded, so sending a heartbeat doesn't allocate.
+ * A heartbeat is skipped if the previous one for the connection is still being
+ * written, e.g. when the broker blocks the connection.
+ */
+final class SharedHeartbeatSender implements HeartbeatManager {
+
+    private final Object monitor = new Object();
+
+    private final FrameHandler frameHandler;
+    private final ThreadFactory threadFactory;
+
+    /** resolved once heartbeats are enabled, guarded by monitor */
+    private HeartbeatTimer timer;
+
+    private final AtomicBoolean writing = new AtomicBoolean(false);
+
+    private HeartbeatTask task;
+
+    private boolean shutdown = false;
+
+    private volatile long lastActivityTime;
+
+    SharedHeartbeatSender(FrameHandler frameHandler, ThreadFactory threadFactory) {
+        this.frameHandler = frameHandler;
+        this.threadFactory = threadFactory;
+    }
+
+    SharedHeartbeatSender(FrameHandler frameHandler, HeartbeatTimer timer) {
+        this.frameHandler = frameHandler;
+        this.threadFactory = null;
+        this.timer = timer;
+    }
+
+    @Override
+    public void signalActivity() {
+        this.lastActivityTime = System.nanoTime();
+    }
+
+    @Override
+    public void setHeartbeat(int heartbeatSeconds) {
+        synchronized (this.monitor) {
+            if (this.shutdown) {
+                return;
+            }
+            cancelTask();
+            if (heartbeatSeconds > 0) {
+                if (this.timer == null) {
+                    this.timer = HeartbeatTimer.forThreadFactory(this.threadFactory);
+                }
+                // wake every heartbeatSeconds / 2 to avoid the worst case
+                // where the last activity comes just after the last heartbeat
+                long intervalMs = TimeUnit.SECONDS.toMillis(heartbeatSeconds) / 2;
+                this.task = new HeartbeatTask(intervalMs);
+                this.task.schedule();
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        synchronized (this.monitor) {
+            cancelTask();
+            this.shutdown = true;
+        }
+    }
+
+    private void cancelTask() {
+        if (this.task != null) {
+            this.task.cancel();
+            this.task = null;
+        }
+    }
+
+    private final Runnable write = new Runnable() {
+
+        @Override
+        public void run() {
+            try {
+                Frame.writeEncoded(frameHandler, Frame.heartbeat(), null);
+                frameHandler.flush();
+            } catch (IOException e) {
+                // ignore
+            } finally {
+                writing.set(false);
+            }
+        }
+    };
+
+    private final class HeartbeatTask implements Runnable {
+
+        private final long intervalMs;
+        private final long intervalNanos;
+
+        /** guarded by the sender monitor */
+        private TimingWheel.Timeout timeout;
+        private boolean cancelled = false;
+
+        private HeartbeatTask(long intervalMs) {
+            this.intervalMs = intervalMs;
+            this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+        }
+
+        private void schedule() {
+            this.timeout = timer.schedule(this, System.currentTimeMillis() + intervalMs);
+        }
+
+        private void cancel() {
+            this.cancelled = true;
+            if (this.timeout != null) {
+                this.timeout.cancel();
+            }
+        }
+
+        @Override
+        public void run() {
+            synchronized (monitor) {
+                if (cancelled) {
+                    return;
+                }
+                schedule();
+            }
+            if (System.nanoTime() > (lastActivityTime + intervalNanos)
+                && writing.compareAndSet(false, true)) {
+                try {
+                    timer.write(write);
+                } catch (RuntimeException e) {
+                    writing.set(false);
+                }
+            }
+        }
+    }
+}
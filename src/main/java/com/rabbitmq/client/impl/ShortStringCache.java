@@ -0,0 +1,109 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.impl;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Cache of decoded short strings, keyed by their encoded bytes.
+ * Exchange names, routing keys and consumer tags come back on every
+ * delivery, the cache returns the same {@link String} instance for
+ * them instead of decoding them each time.
+ * <p/>
+ * The cache is bounded: each encoded value maps to a slot, and a new
+ * value replaces the one in its slot. Long values aren't cached.
+ * <p/>
+ * Not thread-safe, each connection has its own cache, only used
+ * by the thread reading its frames.
+ */
+final class ShortStringCache {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** number of slots, a power of 2 */
+    static final int SLOTS = 256;
+
+    /** longer values aren't cached */
+    static final int MAX_CACHED_LENGTH = 128;
+
+    private final byte[][] keys = new byte[SLOTS][];
+
+    private final String[] values = new String[SLOTS];
+
+    /** where short strings are read, a short string is 255 bytes at most */
+    private final byte[] buffer = new byte[255];
+
+    private final char[] chars = new char[255];
+
+    /**
+     * Reads a short string, with its length prefix.
+     */
+    String read(DataInputStream in) throws IOException {
+        int length = in.readUnsignedByte();
+        in.readFully(buffer, 0, length);
+        return get(buffer, length);
+    }
+
+    /**
+     * @return the string for the given UTF-8 bytes, the cached instance
+     * if the bytes have been seen recently
+     */
+    String get(byte[] bytes, int length) {
+        if (length > MAX_CACHED_LENGTH) {
+            return decode(bytes, length);
+        }
+        int hash = length;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        int slot = (hash ^ (hash >>> 16)) & (SLOTS - 1);
+        byte[] key = keys[slot];
+        if (key != null && equal(key, bytes, length)) {
+            return values[slot];
+        }
+        String value = decode(bytes, length);
+        byte[] newKey = new byte[length];
+        System.arraycopy(bytes, 0, newKey, 0, length);
+        keys[slot] = newKey;
+        values[slot] = value;
+        return value;
+    }
+
+    private static boolean equal(byte[] key, byte[] bytes, int length) {
+        if (key.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (key[i] != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String decode(byte[] bytes, int length) {
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] < 0) {
+                // not ASCII
+                return new String(bytes, 0, length, UTF8);
+            }
+            chars[i] = (char) bytes[i];
+        }
+        return new String(chars, 0, length);
+    }
+}
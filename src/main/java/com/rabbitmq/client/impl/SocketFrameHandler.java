@@ -21,6 +21,9 @@ import java.io.*;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
@@ -30,7 +33,7 @@ import java.util.concurrent.TimeUnit;
  * A socket-based frame handler.
  */
 
-public class SocketFrameHandler implements FrameHandler {
+public class SocketFrameHandler implements EncodedFrameHandler {
     /** The underlying socket */
     private final Socket _socket;
 
@@ -45,6 +48,12 @@ public class SocketFrameHandler implements FrameHandler {
     /** Socket's outputstream - data to the broker - synchronized on */
     private final DataOutputStream _outputStream;
 
+    /** Socket's outputstream as a channel, to write direct buffers - synchronized on _outputStream */
+    private final WritableByteChannel _outputChannel;
+
+    /** Pool of inbound frame buffers, null if not pooled - set on initialization */
+    private volatile ByteBufferPool _inboundFramePool;
+
     /** Time to linger before closing the socket forcefully. */
     public static final int SOCKET_CLOSING_TIMEOUT = 1;
 
@@ -64,6 +73,7 @@ public class SocketFrameHandler implements FrameHandler {
 
         _inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
         _outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        _outputChannel = Channels.newChannel(_outputStream);
     }
 
     @Override
@@ -155,13 +165,14 @@ public class SocketFrameHandler implements FrameHandler {
 
     @Override
     public void initialize(AMQConnection connection) {
+        _inboundFramePool = connection.getInboundFrameBufferPool();
         connection.startMainLoop();
     }
 
     @Override
     public Frame readFrame() throws IOException {
         synchronized (_inputStream) {
-            return Frame.readFrom(_inputStream);
+            return Frame.readFrom(_inputStream, _inboundFramePool);
         }
     }
 
@@ -172,6 +183,25 @@ public class SocketFrameHandler implements FrameHandler {
         }
     }
 
+    @Override
+    public void writeFrames(ByteBuffer frames, ByteBufferPool pool) throws IOException {
+        try {
+            synchronized (_outputStream) {
+                if (frames.hasArray()) {
+                    _outputStream.write(frames.array(), frames.arrayOffset() + frames.position(), frames.remaining());
+                } else {
+                    while (frames.hasRemaining()) {
+                        _outputChannel.write(frames);
+                    }
+                }
+            }
+        } finally {
+            if (pool != null) {
+                pool.release(frames);
+            }
+        }
+    }
+
     @Override
     public void flush() throws IOException {
         _outputStream.flush();
@@ -16,24 +16,35 @@
 package com.rabbitmq.client.impl;
 
 import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ExtendedMetricsCollector;
 import com.rabbitmq.client.MetricsCollector;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 /**
  * Dropwizard Metrics implementation of {@link MetricsCollector}.
  * Note transactions are not supported (see {@link MetricsCollector}.
  * Metrics provides out-of-the-box support for report backends like JMX,
  * Graphite, Ganglia, or plain HTTP. See Metrics documentation for
  * more details.
+ * <p>
+ * Consumer queue depths are kept in a histogram per channel, named
+ * after the connection id and the channel number, e.g.
+ * {@code rabbitmq.consumer_queue_depth.<connection id>.1}, removed once
+ * the channel is closed.
  *
  * @see MetricsCollector
  */
-public class StandardMetricsCollector extends AbstractMetricsCollector {
+public class StandardMetricsCollector extends AbstractMetricsCollector implements ExtendedMetricsCollector {
 
     private final MetricRegistry registry;
+    private final String metricsPrefix;
 
     private final Counter connections;
     private final Counter channels;
@@ -41,16 +52,22 @@ public class StandardMetricsCollector extends AbstractMetricsCollector {
     private final Meter consumedMessages;
     private final Meter acknowledgedMessages;
     private final Meter rejectedMessages;
+    private final Histogram framesPerFlush;
+    private final Histogram unconfirmedMessages;
+    private final ConcurrentMap<Channel, String> consumerQueueDepthNames = new ConcurrentHashMap<Channel, String>();
 
 
     public StandardMetricsCollector(MetricRegistry registry, String metricsPrefix) {
         this.registry = registry;
+        this.metricsPrefix = metricsPrefix;
         this.connections = registry.counter(metricsPrefix+".connections");
         this.channels = registry.counter(metricsPrefix+".channels");
         this.publishedMessages = registry.meter(metricsPrefix+".published");
         this.consumedMessages = registry.meter(metricsPrefix+".consumed");
         this.acknowledgedMessages = registry.meter(metricsPrefix+".acknowledged");
         this.rejectedMessages = registry.meter(metricsPrefix+".rejected");
+        this.framesPerFlush = registry.histogram(metricsPrefix+".frames_per_flush");
+        this.unconfirmedMessages = registry.histogram(metricsPrefix+".unconfirmed");
     }
 
     public StandardMetricsCollector() {
@@ -79,6 +96,10 @@ public class StandardMetricsCollector extends AbstractMetricsCollector {
     @Override
     protected void decrementChannelCount(Channel channel) {
         channels.dec();
+        String consumerQueueDepthName = consumerQueueDepthNames.remove(channel);
+        if (consumerQueueDepthName != null) {
+            registry.remove(consumerQueueDepthName);
+        }
     }
 
     @Override
@@ -101,6 +122,38 @@ public class StandardMetricsCollector extends AbstractMetricsCollector {
         rejectedMessages.mark();
     }
 
+    @Override
+    protected void markFramesFlushed(int frames) {
+        framesPerFlush.update(frames);
+    }
+
+    @Override
+    protected void markUnconfirmedMessages(int unconfirmed) {
+        unconfirmedMessages.update(unconfirmed);
+    }
+
+    @Override
+    protected void markConsumerQueueDepth(Channel channel, int depth) {
+        if (!channel.isOpen()) {
+            // its histogram is gone or about to be
+            return;
+        }
+        String name = consumerQueueDepthNames.get(channel);
+        if (name == null) {
+            name = metricsPrefix + ".consumer_queue_depth." + channel.getConnection().getId()
+                + "." + channel.getChannelNumber();
+            String previous = consumerQueueDepthNames.putIfAbsent(channel, name);
+            if (previous != null) {
+                name = previous;
+            }
+        }
+        registry.histogram(name).update(depth);
+        if (!channel.isOpen() && consumerQueueDepthNames.remove(channel, name)) {
+            // closed while sampling, after its histogram has been removed
+            registry.remove(name);
+        }
+    }
+
 
     
     public MetricRegistry getMetricRegistry() {
@@ -130,4 +183,21 @@ public class StandardMetricsCollector extends AbstractMetricsCollector {
     public Meter getRejectedMessages() {
         return rejectedMessages;
     }
+
+    public Histogram getFramesPerFlush() {
+        return framesPerFlush;
+    }
+
+    public Histogram getUnconfirmedMessages() {
+        return unconfirmedMessages;
+    }
+
+    /**
+     * @param channel the channel
+     * @return the consumer queue depths of the channel, null if there's no sample yet
+     */
+    public Histogram getConsumerQueueDepth(Channel channel) {
+        String name = consumerQueueDepthNames.get(channel);
+        return name == null ? null : registry.getHistograms().get(name);
+    }
 }
@@ -0,0 +1,135 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Growable buffer field tables and arrays are encoded into, see
+ * {@link ValueWriter#writeTable}. Room is reserved for the length of a table,
+ * a string or an array, which is patched in once its content is written, so
+ * values are encoded in a single pass. Strings are encoded to UTF-8 straight
+ * into the buffer.
+ * <h2>Concurrency</h2>
+ * This class is not thread-safe.
+ */
+final class TableBuffer extends OutputStream {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private byte[] buf = new byte[INITIAL_CAPACITY];
+
+    private int count = 0;
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(count + 1);
+        buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureCapacity(count + len);
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+    }
+
+    /**
+     * Leave room for a 32-bit length.
+     * @return the position to patch the length at
+     */
+    int reserveInt() {
+        ensureCapacity(count + 4);
+        int position = count;
+        count += 4;
+        return position;
+    }
+
+    void patchInt(int position, int value) {
+        buf[position] = (byte) (value >>> 24);
+        buf[position + 1] = (byte) (value >>> 16);
+        buf[position + 2] = (byte) (value >>> 8);
+        buf[position + 3] = (byte) value;
+    }
+
+    void patchByte(int position, int value) {
+        buf[position] = (byte) value;
+    }
+
+    /**
+     * Encode a string to UTF-8, unpaired surrogates are replaced
+     * with '?', like {@link String#getBytes(String)} does.
+     * @return the number of bytes written
+     */
+    int writeUtf8(String str) {
+        int length = str.length();
+        ensureCapacity(count + 3 * length);
+        byte[] b = buf;
+        int start = count;
+        int position = count;
+        for (int i = 0; i < length; i++) {
+            char c = str.charAt(i);
+            if (c < 0x80) {
+                b[position++] = (byte) c;
+            } else if (c < 0x800) {
+                b[position++] = (byte) (0xC0 | (c >> 6));
+                b[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+                b[position++] = (byte) (0xE0 | (c >> 12));
+                b[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                b[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                       && Character.isLowSurrogate(str.charAt(i + 1))) {
+                // 2 chars, 4 bytes, within what has been reserved
+                int codePoint = Character.toCodePoint(c, str.charAt(++i));
+                b[position++] = (byte) (0xF0 | (codePoint >> 18));
+                b[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                b[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                b[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else {
+                b[position++] = (byte) '?';
+            }
+        }
+        count = position;
+        return position - start;
+    }
+
+    int size() {
+        return count;
+    }
+
+    int capacity() {
+        return buf.length;
+    }
+
+    void reset() {
+        count = 0;
+    }
+
+    /** Write what has been encoded so far */
+    void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, count);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > buf.length) {
+            byte[] grown = new byte[Math.max(capacity, 2 * buf.length)];
+            System.arraycopy(buf, 0, grown, 0, count);
+            buf = grown;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.impl;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Hashed timing wheel, to schedule many timeouts with a coarse
+ * precision at a constant cost.
+ * <p/>
+ * Timeouts are hashed into a ring of buckets by their deadline.
+ * Each call to {@link #advance(long)} runs the expired timeouts of the buckets
+ * elapsed since the last call, so scheduling and cancelling don't
+ * depend on the number of pending timeouts.
+ * <p/>
+ * Timeouts can be scheduled and cancelled from any thread, but the wheel
+ * must be advanced by a single thread, which runs the tasks.
+ *
+ * @since 4.1.0
+ */
+public class TimingWheel {
+
+    private final long tickMs;
+    private final Bucket[] buckets;
+    private final int mask;
+    /** timeouts scheduled since the last advance */
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<Timeout>();
+    /** start of the next tick to process, in milliseconds */
+    private long tickTime = -1;
+    private long tick;
+    private int pending = 0;
+
+    /**
+     * @param tickMs duration of a tick, in milliseconds
+     * @param wheelSize number of buckets, rounded up to a power of 2
+     */
+    public TimingWheel(long tickMs, int wheelSize) {
+        if (tickMs <= 0) {
+            throw new IllegalArgumentException("Tick duration must be greater than 0");
+        }
+        if (wheelSize <= 0) {
+            throw new IllegalArgumentException("Wheel size must be greater than 0");
+        }
+        int size = Integer.highestOneBit(wheelSize);
+        if (size < wheelSize) {
+            size <<= 1;
+        }
+        this.tickMs = tickMs;
+        this.buckets = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            this.buckets[i] = new Bucket();
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * Schedule a task. Can be called from any thread.
+     * @param task the task to run, on the thread advancing the wheel
+     * @param deadline when to run the task, in milliseconds
+     *                 (same clock as the one used to advance the wheel)
+     * @return the timeout, to cancel it
+     */
+    public Timeout schedule(Runnable task, long deadline) {
+        Timeout timeout = new Timeout(task, deadline);
+        scheduled.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Run the tasks with an expired deadline.
+     * Must be called by a single thread.
+     * @param now current time, in milliseconds
+     */
+    public void advance(long now) {
+        if (tickTime < 0) {
+            tickTime = now;
+        }
+        addScheduled();
+        while (tickTime <= now) {
+            Bucket bucket = buckets[(int) (tick & mask)];
+            Timeout timeout = bucket.head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.cancelled) {
+                    bucket.remove(timeout);
+                    pending--;
+                } else if (timeout.rounds > 0) {
+                    timeout.rounds--;
+                } else {
+                    bucket.remove(timeout);
+                    pending--;
+                    timeout.task.run();
+                }
+                timeout = next;
+            }
+            tick++;
+            tickTime += tickMs;
+            // tasks can schedule other tasks
+            addScheduled();
+        }
+    }
+
+    /**
+     * @return true if there are no pending timeouts.
+     * Must be called by the thread advancing the wheel.
+     */
+    public boolean isEmpty() {
+        return pending == 0 && scheduled.isEmpty();
+    }
+
+    /**
+     * @return duration of a tick, in milliseconds
+     */
+    public long getTickMs() {
+        return tickMs;
+    }
+
+    private void addScheduled() {
+        Timeout timeout;
+        while ((timeout = scheduled.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            // timeouts already expired go in the current tick
+            long ticks = Math.max(0, (timeout.deadline - tickTime + tickMs - 1) / tickMs);
+            timeout.rounds = ticks / buckets.length;
+            buckets[(int) ((tick + ticks) & mask)].add(timeout);
+            pending++;
+        }
+    }
+
+    /**
+     * A scheduled task.
+     */
+    public static final class Timeout {
+
+        private final Runnable task;
+        private final long deadline;
+        private volatile boolean cancelled = false;
+        private long rounds;
+        private Timeout next, previous;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancel the timeout, its task won't run.
+         * Can be called from any thread.
+         */
+        public void cancel() {
+            this.cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public long getDeadline() {
+            return deadline;
+        }
+    }
+
+    private static final class Bucket {
+
+        private Timeout head, tail;
+
+        void add(Timeout timeout) {
+            timeout.previous = tail;
+            timeout.next = null;
+            if (tail == null) {
+                head = timeout;
+            } else {
+                tail.next = timeout;
+            }
+            tail = timeout;
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.previous == null) {
+                head = timeout.next;
+            } else {
+                timeout.previous.next = timeout.next;
+            }
+            if (timeout.next == null) {
+                tail = timeout.previous;
+            } else {
+                timeout.next.previous = timeout.previous;
+            }
+            timeout.next = null;
+            timeout.previous = null;
+        }
+    }
+}
@@ -18,17 +18,11 @@ package com.rabbitmq.client.impl;
 
 import java.io.DataInputStream;
 import java.io.IOException;
-import java.math.BigDecimal;
-import java.math.BigInteger;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Map;
-import java.util.List;
-import java.util.ArrayList;
 
 import com.rabbitmq.client.LongString;
-import com.rabbitmq.client.MalformedFrameException;
 
 /**
  * Helper class to read AMQP wire-protocol encoded values.
@@ -76,6 +70,13 @@ public class ValueReader
         return readShortstr(this.in);
     }
 
+    /** Private API - reads a short string through the given cache. */
+    final String readShortstr(ShortStringCache cache)
+        throws IOException
+    {
+        return cache.read(this.in);
+    }
+
     /** Convenience method - reads a 32-bit-length-prefix
      * byte vector from a DataInputStream.
      */
@@ -134,94 +135,22 @@ public class ValueReader
     /**
      * Reads a table argument from a given stream. Also
      * called by {@link ContentHeaderPropertyReader}.
+     * The table entries are decoded on access, see {@link LazyTable}.
      */
     private static Map<String, Object> readTable(DataInputStream in)
         throws IOException
     {
         long tableLength = unsignedExtend(in.readInt());
         if (tableLength == 0) return Collections.emptyMap();
-        
-        Map<String, Object> table = new HashMap<String, Object>();
-        DataInputStream tableIn = new DataInputStream
-            (new TruncatedInputStream(in, tableLength));
-        while(tableIn.available() > 0) {
-            String name = readShortstr(tableIn);
-            Object value = readFieldValue(tableIn);
-            if(!table.containsKey(name))
-                table.put(name, value);
-        }
-        return table;
-    }
-
-    private static Object readFieldValue(DataInputStream in)
-        throws IOException {
-        Object value = null;
-        switch(in.readUnsignedByte()) {
-          case 'S':
-              value = readLongstr(in);
-              break;
-          case 'I':
-              value = in.readInt();
-              break;
-          case 'D':
-              int scale = in.readUnsignedByte();
-              byte [] unscaled = new byte[4];
-              in.readFully(unscaled);
-              value = new BigDecimal(new BigInteger(unscaled), scale);
-              break;
-          case 'T':
-              value = readTimestamp(in);
-              break;
-          case 'F':
-              value = readTable(in);
-              break;
-          case 'A':
-              value = readArray(in);
-              break;
-          case 'b':
-              value = in.readByte();
-              break;
-          case 'd':
-              value = in.readDouble();
-              break;
-          case 'f':
-              value = in.readFloat();
-              break;
-          case 'l':
-              value = in.readLong();
-              break;
-          case 's':
-              value = in.readShort();
-              break;
-          case 't':
-              value = in.readBoolean();
-              break;
-          case 'x':
-              value = readBytes(in);
-              break;
-          case 'V':
-              value = null;
-              break;
-          default:
-              throw new MalformedFrameException
-                  ("Unrecognised type in table");
+        if (tableLength >= Integer.MAX_VALUE) {
+            throw new UnsupportedOperationException
+                ("Very long tables not currently supported");
         }
-        return value;
-    }
 
-    /** Read a field-array */
-    private static List<Object> readArray(DataInputStream in)
-        throws IOException
-    {
-        long length = unsignedExtend(in.readInt());
-        DataInputStream arrayIn = new DataInputStream
-            (new TruncatedInputStream(in, length));
-        List<Object> array = new ArrayList<Object>();
-        while(arrayIn.available() > 0) {
-            Object value = readFieldValue(arrayIn);
-            array.add(value);
-        }
-        return array;
+        byte[] entries = new byte[(int) tableLength];
+        in.readFully(entries);
+        LazyTable.checkTable(entries, 0, entries.length);
+        return new LazyTable(entries, 0, entries.length);
     }
 
     /** Public API - reads a table. */
@@ -18,8 +18,6 @@ package com.rabbitmq.client.impl;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.Date;
@@ -33,26 +31,68 @@ import com.rabbitmq.client.LongString;
  */
 public class ValueWriter
 {
+    /** Buffers grown larger than this to encode a table are not kept around */
+    private static final int MAX_RETAINED_TABLE_BUFFER = 16 * 1024;
+
     private final DataOutputStream out;
 
+    /** Only set when encoding a table, lengths are then patched in */
+    private final TableBuffer buffer;
+
+    /** Encodes tables before they are copied to the output, created on first use */
+    private ValueWriter tableWriter;
+
     public ValueWriter(DataOutputStream out)
     {
         this.out = out;
+        this.buffer = null;
+    }
+
+    private ValueWriter(TableBuffer buffer)
+    {
+        this.out = new DataOutputStream(buffer);
+        this.buffer = buffer;
     }
 
     /** Public API - encodes a short string. */
     public final void writeShortstr(String str)
         throws IOException
     {
+        if (buffer != null) {
+            int position = buffer.size();
+            buffer.write(0);
+            int length = buffer.writeUtf8(str);
+            checkShortstrLength(length);
+            buffer.patchByte(position, length);
+            return;
+        }
+        if (str.length() <= 255 && isAscii(str)) {
+            out.writeByte(str.length());
+            out.writeBytes(str);
+            return;
+        }
         byte [] bytes = str.getBytes("utf-8");
-        int length = bytes.length;
+        checkShortstrLength(bytes.length);
+        out.writeByte(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void checkShortstrLength(int length) {
         if (length > 255) {
             throw new IllegalArgumentException(
                     "Short string too long; utf-8 encoded length = " + length +
                     ", max = 255.");
         }
-        out.writeByte(bytes.length);
-        out.write(bytes);
+    }
+
+    /** @return true if the UTF-8 encoding of the string is its chars as bytes */
+    private static boolean isAscii(String str) {
+        for (int i = 0; i < str.length(); i++) {
+            if (str.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /** Public API - encodes a long string from a LongString. */
@@ -60,27 +100,24 @@ public class ValueWriter
         throws IOException
     {
         writeLong((int)str.length());
-        copy(str.getStream(), out);
-    }
-
-    private static final int COPY_BUFFER_SIZE = 4096;
-
-    private static void copy(InputStream input, OutputStream output) throws IOException {
-        byte[] buffer = new byte[COPY_BUFFER_SIZE];
-        int biteSize = input.read(buffer);
-        while (-1 != biteSize) {
-            output.write(buffer, 0, biteSize);
-            biteSize = input.read(buffer);
-        }
+        out.write(str.getBytes());
     }
 
     /** Public API - encodes a long string from a String. */
     public final void writeLongstr(String str)
         throws IOException
     {
-        byte [] bytes = str.getBytes("utf-8");
-        writeLong(bytes.length);
-        out.write(bytes);
+        if (buffer != null) {
+            int position = buffer.reserveInt();
+            buffer.patchInt(position, buffer.writeUtf8(str));
+        } else if (isAscii(str)) {
+            writeLong(str.length());
+            out.writeBytes(str);
+        } else {
+            byte [] bytes = str.getBytes("utf-8");
+            writeLong(bytes.length);
+            out.write(bytes);
+        }
     }
 
     /** Public API - encodes a short integer. */
@@ -115,13 +152,51 @@ public class ValueWriter
         if (table == null) {
             // Convenience.
             out.writeInt(0);
-        } else {
-            out.writeInt((int)Frame.tableSize(table));
+        } else if (table instanceof LazyTable && ((LazyTable) table).writeEncodedTo(out)) {
+            // unchanged since it has been read, written as received
+        } else if (buffer != null) {
+            int position = buffer.reserveInt();
             for(Map.Entry<String,Object> entry: table.entrySet()) {
                 writeShortstr(entry.getKey());
                 Object value = entry.getValue();
                 writeFieldValue(value);
             }
+            patchLength(position);
+        } else {
+            ValueWriter writer = acquireTableWriter();
+            try {
+                writer.writeTable(table);
+                writer.buffer.writeTo(out);
+            } finally {
+                releaseTableWriter(writer);
+            }
+        }
+    }
+
+    /** Patch the length of what has been written since the reserved position */
+    private void patchLength(int position) {
+        buffer.patchInt(position, buffer.size() - position - 4);
+    }
+
+    /**
+     * Tables are encoded in a single pass into a buffer, then copied
+     * to the output, as their size comes before their content. The buffer
+     * belongs to this writer, so long-lived writers, e.g. those of frame
+     * encoders, re-use it.
+     */
+    private ValueWriter acquireTableWriter() {
+        ValueWriter writer = tableWriter;
+        if (writer == null) {
+            return new ValueWriter(new TableBuffer());
+        }
+        tableWriter = null;
+        return writer;
+    }
+
+    private void releaseTableWriter(ValueWriter writer) {
+        if (writer.buffer.capacity() <= MAX_RETAINED_TABLE_BUFFER) {
+            writer.buffer.reset();
+            tableWriter = writer;
         }
     }
 
@@ -215,11 +290,21 @@ public class ValueWriter
         if (value==null) {
             out.write(0);
         }
-        else {
-            out.writeInt((int)Frame.arraySize(value));
+        else if (buffer != null) {
+            int position = buffer.reserveInt();
             for (Object item : value) {
                 writeFieldValue(item);
             }
+            patchLength(position);
+        }
+        else {
+            ValueWriter writer = acquireTableWriter();
+            try {
+                writer.writeArray(value);
+                writer.buffer.writeTo(out);
+            } finally {
+                releaseTableWriter(writer);
+            }
         }
     }
 
@@ -229,11 +314,21 @@ public class ValueWriter
         if (value==null) {
             out.write(0);
         }
-        else {
-            out.writeInt((int)Frame.arraySize(value));
+        else if (buffer != null) {
+            int position = buffer.reserveInt();
             for (Object item : value) {
                 writeFieldValue(item);
             }
+            patchLength(position);
+        }
+        else {
+            ValueWriter writer = acquireTableWriter();
+            try {
+                writer.writeArray(value);
+                writer.buffer.writeTo(out);
+            } finally {
+                releaseTableWriter(writer);
+            }
         }
     }
 
@@ -0,0 +1,108 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.impl;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates virtual threads on JVMs that support them.
+ * <p/>
+ * The library targets older Java versions, so the virtual thread API
+ * is looked up reflectively.
+ * <p/>
+ * Connection threads block in monitors (e.g. the socket streams and the channel
+ * mutex), which pin the carrier thread of a virtual thread before Java 24.
+ * Virtual threads are then only considered available from Java 24.
+ *
+ * @since 4.1.0
+ */
+public final class VirtualThreads {
+
+    private static final Method OF_VIRTUAL;
+    private static final Method NAME;
+    private static final Method FACTORY;
+
+    /** first Java version where virtual threads don't pin their carrier in monitors */
+    public static final int MINIMUM_JAVA_VERSION = 24;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method factory = null;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            name = builderClass.getMethod("name", String.class, long.class);
+            factory = builderClass.getMethod("factory");
+        } catch (Exception e) {
+            ofVirtual = null;
+        }
+        if (javaVersion(System.getProperty("java.specification.version")) < MINIMUM_JAVA_VERSION) {
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        FACTORY = factory;
+    }
+
+    private VirtualThreads() { }
+
+    /**
+     * @return true if the JVM supports virtual threads without
+     * pinning them in monitors, i.e. Java 24 or later
+     */
+    public static boolean isAvailable() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Create a factory of virtual threads.
+     * @param namePrefix prefix of the thread names, followed by a counter
+     * @return the thread factory
+     * @throws UnsupportedOperationException if the JVM doesn't support virtual threads
+     */
+    public static ThreadFactory threadFactory(String namePrefix) {
+        if (!isAvailable()) {
+            throw new UnsupportedOperationException("Virtual threads require Java " + MINIMUM_JAVA_VERSION + " or later");
+        }
+        try {
+            Object builder = OF_VIRTUAL.invoke(null);
+            builder = NAME.invoke(builder, namePrefix, 0L);
+            return (ThreadFactory) FACTORY.invoke(builder);
+        } catch (Exception e) {
+            throw new UnsupportedOperationException("Could not create virtual thread factory", e);
+        }
+    }
+
+    /**
+     * @param specificationVersion the java.specification.version property, e.g. 1.8 or 24
+     * @return the feature version of Java, e.g. 8 or 24, 0 if unknown
+     */
+    public static int javaVersion(String specificationVersion) {
+        if (specificationVersion == null) {
+            return 0;
+        }
+        String version = specificationVersion.startsWith("1.") ?
+            specificationVersion.substring(2) : specificationVersion;
+        int dot = version.indexOf('.');
+        try {
+            return Integer.parseInt(dot == -1 ? version : version.substring(0, dot));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
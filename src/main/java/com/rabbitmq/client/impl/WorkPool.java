@@ -16,11 +16,13 @@
 package com.rabbitmq.client.impl;
 
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * <p>This is a generic implementation of the channels specification
@@ -47,20 +49,39 @@ import java.util.Set;
  * All clients may be unregistered with <code><b>unregisterAllKeys()</b></code>.
  * <h2>Concurrent Semantics</h2>
  * This implementation is thread-safe.
+ * Adding work items, taking work blocks and finishing them don't lock:
+ * each client has its own lock-free queue and its state is updated with
+ * compare-and-set, so clients don't contend with each other.
+ * Registration and queue limits are the only operations taking a lock.
  * @param <K> Key -- type of client
  * @param <W> Work -- type of work item
  */
 public class WorkPool<K, W> {
-    private static final int MAX_QUEUE_LENGTH = 1000;
+    private static final int DEFAULT_MAX_QUEUE_LENGTH = 1000;
 
-    /** An injective queue of <i>ready</i> clients. */
-    private final SetQueue<K> ready = new SetQueue<K>();
-    /** The set of clients which have work <i>in progress</i>. */
-    private final Set<K> inProgress = new HashSet<K>();
+    private static final int DORMANT = 0;
+    private static final int READY = 1;
+    private static final int IN_PROGRESS = 2;
+
+    /** A queue of <i>ready</i> clients. May hold stale entries, skipped when polled. */
+    private final Queue<K> ready = new ConcurrentLinkedQueue<K>();
     /** The pool of registered clients, with their work queues. */
-    private final Map<K, VariableLinkedBlockingQueue<W>> pool = new HashMap<K, VariableLinkedBlockingQueue<W>>();
+    private final ConcurrentMap<K, WorkQueue<W>> pool = new ConcurrentHashMap<K, WorkQueue<W>>();
     /** Those keys which want limits to be removed. We do not limit queue size if this is non-empty. */
     private final Set<K> unlimited = new HashSet<K>();
+    /** Max length of client queues, when limited */
+    private final int maxQueueLength;
+
+    public WorkPool() {
+        this(DEFAULT_MAX_QUEUE_LENGTH);
+    }
+
+    /**
+     * @param maxQueueLength max length of client queues, when limited
+     */
+    public WorkPool(int maxQueueLength) {
+        this.maxQueueLength = maxQueueLength;
+    }
 
     /**
      * Add client <code><b>key</b></code> to pool of item queues, with an empty queue.
@@ -71,8 +92,8 @@ public class WorkPool<K, W> {
     public void registerKey(K key) {
         synchronized (this) {
             if (!this.pool.containsKey(key)) {
-                int initialCapacity = unlimited.isEmpty() ? MAX_QUEUE_LENGTH : Integer.MAX_VALUE;
-                this.pool.put(key, new VariableLinkedBlockingQueue<W>(initialCapacity));
+                int initialCapacity = unlimited.isEmpty() ? maxQueueLength : Integer.MAX_VALUE;
+                this.pool.put(key, new WorkQueue<W>(initialCapacity));
             }
         }
     }
@@ -80,7 +101,7 @@ public class WorkPool<K, W> {
     public synchronized void limit(K key) {
         unlimited.remove(key);
         if (unlimited.isEmpty()) {
-            setCapacities(MAX_QUEUE_LENGTH);
+            setCapacities(maxQueueLength);
         }
     }
 
@@ -92,9 +113,8 @@ public class WorkPool<K, W> {
     }
 
     private void setCapacities(int capacity) {
-        Iterator<VariableLinkedBlockingQueue<W>> it = pool.values().iterator();
-        while (it.hasNext()) {
-            it.next().setCapacity(capacity);
+        for (WorkQueue<W> queue : pool.values()) {
+            queue.setCapacity(capacity);
         }
     }
 
@@ -104,9 +124,10 @@ public class WorkPool<K, W> {
      */
     public void unregisterKey(K key) {
         synchronized (this) {
-            this.pool.remove(key);
-            this.ready.remove(key);
-            this.inProgress.remove(key);
+            WorkQueue<W> queue = this.pool.remove(key);
+            if (queue != null) {
+                queue.unregister();
+            }
             this.unlimited.remove(key);
         }
     }
@@ -116,9 +137,11 @@ public class WorkPool<K, W> {
      */
     public void unregisterAllKeys() {
         synchronized (this) {
+            for (WorkQueue<W> queue : this.pool.values()) {
+                queue.unregister();
+            }
             this.pool.clear();
             this.ready.clear();
-            this.inProgress.clear();
             this.unlimited.clear();
         }
     }
@@ -133,33 +156,41 @@ public class WorkPool<K, W> {
      * @return key of client to whom items belong, or <code><b>null</b></code> if there is none.
      */
     public K nextWorkBlock(Collection<W> to, int size) {
-        synchronized (this) {
-            K nextKey = readyToInProgress();
-            if (nextKey != null) {
-                VariableLinkedBlockingQueue<W> queue = this.pool.get(nextKey);
-                drainTo(queue, to, size);
+        K nextKey;
+        while ((nextKey = this.ready.poll()) != null) {
+            WorkQueue<W> queue = this.pool.get(nextKey);
+            // skip unregistered clients and stale entries
+            if (queue != null && queue.state.compareAndSet(READY, IN_PROGRESS)) {
+                queue.drainTo(to, size);
+                return nextKey;
             }
-            return nextKey;
         }
+        return null;
     }
 
     /**
-     * Private implementation of <code><b>drainTo</b></code> (not implemented for <code><b>LinkedList&lt;W&gt;</b></code>s).
-     * @param deList to take (poll) elements from
-     * @param c to add elements to
-     * @param maxElements to take from deList
-     * @return number of elements actually taken
+     * Transfer more items of an <i>in progress</i> client, to extend its current block.
+     * Must only be called by the holder of the block.
+     * @param key client <i>in progress</i>
+     * @param to collection object in which to transfer items
+     * @param size max number of items to transfer
+     * @return number of items transferred
      */
-    private int drainTo(VariableLinkedBlockingQueue<W> deList, Collection<W> c, int maxElements) {
-        int n = 0;
-        while (n < maxElements) {
-            W first = deList.poll();
-            if (first == null)
-                break;
-            c.add(first);
-            ++n;
-        }
-        return n;
+    public int extendWorkBlock(K key, Collection<W> to, int size) {
+        WorkQueue<W> queue = this.pool.get(key);
+        if (queue == null || queue.state.get() != IN_PROGRESS) {
+            return 0;
+        }
+        return queue.drainTo(to, size);
+    }
+
+    /**
+     * @param key client
+     * @return number of items queued for the client, 0 if not registered
+     */
+    public int queueSize(K key) {
+        WorkQueue<W> queue = this.pool.get(key);
+        return queue == null ? 0 : queue.size();
     }
 
     /**
@@ -172,23 +203,28 @@ public class WorkPool<K, W> {
      * &mdash; <i>as a result of this work item</i>
      */
     public boolean addWorkItem(K key, W item) {
-        VariableLinkedBlockingQueue<W> queue;
-        synchronized (this) {
-            queue = this.pool.get(key);
-        }
-        // The put operation may block. We need to make sure we are not holding the lock while that happens.
-        if (queue != null) {
-            try {
-                queue.put(item);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
+        return addWorkItem(key, item, true);
+    }
 
-            synchronized (this) {
-                if (isDormant(key)) {
-                    dormantToReady(key);
-                    return true;
-                }
+    /**
+     * Add (enqueue) an item for a specific client, possibly going over
+     * the max queue length.
+     * No change and returns <code><b>false</b></code> if client not registered.
+     * If <i>dormant</i>, the client will be marked <i>ready</i>.
+     * @param key the client to add to the work item to
+     * @param item the work item to add to the client queue
+     * @param blockWhenFull whether to wait for room when the client queue is full,
+     *                      if false the item is added anyway
+     * @return <code><b>true</b></code> if and only if the client is marked <i>ready</i>
+     * &mdash; <i>as a result of this work item</i>
+     */
+    public boolean addWorkItem(K key, W item, boolean blockWhenFull) {
+        WorkQueue<W> queue = this.pool.get(key);
+        // The put operation may block, it doesn't hold any lock of the pool.
+        if (queue != null && queue.put(item, blockWhenFull)) {
+            if (queue.state.compareAndSet(DORMANT, READY)) {
+                this.ready.offer(key);
+                return true;
             }
         }
         return false;
@@ -202,45 +238,115 @@ public class WorkPool<K, W> {
      * @throws IllegalStateException if registered client not <i>in progress</i>
      */
     public boolean finishWorkBlock(K key) {
-        synchronized (this) {
-            if (!this.isRegistered(key))
+        WorkQueue<W> queue = this.pool.get(key);
+        if (queue == null)
+            return false;
+        if (queue.state.get() != IN_PROGRESS) {
+            throw new IllegalStateException("Client " + key + " not in progress");
+        }
+
+        if (queue.isEmpty()) {
+            queue.state.set(DORMANT);
+            // an item added after the check didn't make the client ready, as it was in progress
+            if (queue.isEmpty() || !queue.state.compareAndSet(DORMANT, READY)) {
                 return false;
-            if (!this.inProgress.contains(key)) {
-                throw new IllegalStateException("Client " + key + " not in progress");
             }
+        } else {
+            queue.state.set(READY);
+        }
+        this.ready.offer(key);
+        return true;
+    }
 
-            if (moreWorkItems(key)) {
-                inProgressToReady(key);
-                return true;
-            } else {
-                inProgressToDormant(key);
+    /**
+     * Work items of a client, with its state.
+     * Producers block when the queue is full, they are woken up by
+     * consumers only if some are waiting.
+     */
+    private static final class WorkQueue<W> {
+
+        final AtomicInteger state = new AtomicInteger(DORMANT);
+
+        private final Queue<W> items = new ConcurrentLinkedQueue<W>();
+
+        private final AtomicInteger size = new AtomicInteger(0);
+
+        private volatile int capacity;
+
+        private volatile int waitingProducers = 0;
+
+        private volatile boolean registered = true;
+
+        WorkQueue(int capacity) {
+            this.capacity = capacity;
+        }
+
+        /**
+         * Enqueue an item, waiting for room if the queue is full.
+         * @return false if the client was unregistered or the thread
+         * interrupted while waiting, the item is not enqueued then
+         */
+        boolean put(W item, boolean blockWhenFull) {
+            if (blockWhenFull && size.get() >= capacity && !awaitRoom()) {
                 return false;
             }
+            size.incrementAndGet();
+            items.offer(item);
+            return true;
         }
-    }
 
-    private boolean moreWorkItems(K key) {
-        VariableLinkedBlockingQueue<W> leList = this.pool.get(key);
-        return leList != null && !leList.isEmpty();
-    }
+        private synchronized boolean awaitRoom() {
+            waitingProducers++;
+            try {
+                while (size.get() >= capacity && registered) {
+                    wait();
+                }
+                return registered;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                waitingProducers--;
+            }
+        }
 
-    /* State identification functions */
-    private boolean isInProgress(K key){ return this.inProgress.contains(key); }
-    private boolean isReady(K key){ return this.ready.contains(key); }
-    private boolean isRegistered(K key) { return this.pool.containsKey(key); }
-    private boolean isDormant(K key){ return !isInProgress(key) && !isReady(key) && isRegistered(key); }
+        int drainTo(Collection<W> to, int maxElements) {
+            int n = 0;
+            W item;
+            while (n < maxElements && (item = items.poll()) != null) {
+                to.add(item);
+                n++;
+            }
+            if (n > 0) {
+                size.addAndGet(-n);
+                if (waitingProducers > 0) {
+                    wakeUpProducers();
+                }
+            }
+            return n;
+        }
+
+        int size() {
+            return Math.max(0, size.get());
+        }
+
+        boolean isEmpty() {
+            return items.isEmpty();
+        }
+
+        void setCapacity(int capacity) {
+            this.capacity = capacity;
+            wakeUpProducers();
+        }
 
-    /* State transition methods - all assume key registered */
-    private void inProgressToReady(K key){ this.inProgress.remove(key); this.ready.addIfNotPresent(key); }
-    private void inProgressToDormant(K key){ this.inProgress.remove(key); }
-    private void dormantToReady(K key){ this.ready.addIfNotPresent(key); }
+        void unregister() {
+            registered = false;
+            items.clear();
+            wakeUpProducers();
+        }
 
-    /* Basic work selector and state transition step */
-    private K readyToInProgress() {
-        K key = this.ready.poll();
-        if (key != null) {
-            this.inProgress.add(key);
+        private synchronized void wakeUpProducers() {
+            notifyAll();
         }
-        return key;
     }
 }
@@ -0,0 +1,64 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.impl.nio;
+
+import com.rabbitmq.client.impl.ByteBufferPool;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Write request for frames already encoded in a pooled {@link ByteBuffer}.
+ * The buffer is given back to its pool once written.
+ */
+public class ByteBufferWriteRequest implements WriteRequest {
+
+    final ByteBuffer frames;
+
+    final ByteBufferPool pool;
+
+    /** channel to write the buffer to directly, null if the stream must be used (TLS) */
+    final WritableByteChannel channel;
+
+    public ByteBufferWriteRequest(ByteBuffer frames, ByteBufferPool pool, WritableByteChannel channel) {
+        this.frames = frames;
+        this.pool = pool;
+        this.channel = channel;
+    }
+
+    @Override
+    public void handle(DataOutputStream outputStream) throws IOException {
+        try {
+            if (channel != null) {
+                // keep the ordering with what is already in the stream's buffer
+                outputStream.flush();
+                while (frames.hasRemaining() && channel.write(frames) != -1);
+            } else if (frames.hasArray()) {
+                outputStream.write(frames.array(), frames.arrayOffset() + frames.position(), frames.remaining());
+            } else {
+                while (frames.hasRemaining()) {
+                    outputStream.write(frames.get());
+                }
+            }
+        } finally {
+            if (pool != null) {
+                pool.release(frames);
+            }
+        }
+    }
+}
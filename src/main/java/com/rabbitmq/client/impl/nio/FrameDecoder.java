@@ -0,0 +1,132 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.impl.nio;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.MalformedFrameException;
+import com.rabbitmq.client.impl.ByteBufferPool;
+import com.rabbitmq.client.impl.Frame;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes the inbound frames of a connection straight from the read
+ * {@link ByteBuffer}, without going through a stream.
+ * <p/>
+ * Frames can straddle reads: the decoder keeps what it has decoded
+ * of the current frame and resumes when more bytes are available,
+ * so the IO thread never waits for the rest of a frame.
+ * <p/>
+ * Payloads are copied in bulk to the frame, in a buffer of the
+ * inbound frame pool if they fit, as the read buffer is shared
+ * by the connections of the IO thread.
+ * <p/>
+ * To be used only in the IO thread.
+ */
+public class FrameDecoder {
+
+    /** type (1), channel (2), payload size (4) */
+    private static final int HEADER_SIZE = 7;
+
+    /** "AMQP" and the version, sent by the broker if it doesn't support ours */
+    private static final int PROTOCOL_HEADER_SIZE = 8;
+
+    /** header bytes of the current frame, when it straddles reads */
+    private final byte[] header = new byte[PROTOCOL_HEADER_SIZE];
+    private int headerLength = 0;
+
+    /** frame being decoded, null if waiting for a new frame */
+    private Frame frame;
+
+    /** view over the payload of the frame being decoded */
+    private ByteBuffer payload;
+
+    /**
+     * Decode the next frame.
+     *
+     * @param buffer read bytes, in read mode
+     * @param pool pool of inbound frame buffers, can be null
+     * @return a complete frame, or null if all the bytes of the buffer have
+     * been consumed and more are needed
+     * @throws IOException if the bytes aren't a valid frame
+     */
+    public Frame decode(ByteBuffer buffer, ByteBufferPool pool) throws IOException {
+        if (frame == null && !decodeHeader(buffer, pool)) {
+            return null;
+        }
+        if (payload.hasRemaining()) {
+            int length = Math.min(payload.remaining(), buffer.remaining());
+            int limit = buffer.limit();
+            buffer.limit(buffer.position() + length);
+            payload.put(buffer);
+            buffer.limit(limit);
+            if (payload.hasRemaining()) {
+                return null;
+            }
+        }
+        if (!buffer.hasRemaining()) {
+            return null;
+        }
+        int frameEndMarker = buffer.get() & 0xff;
+        Frame decoded = frame;
+        frame = null;
+        payload = null;
+        if (frameEndMarker != AMQP.FRAME_END) {
+            decoded.release();
+            throw new MalformedFrameException("Bad frame end marker: " + frameEndMarker);
+        }
+        return decoded;
+    }
+
+    private boolean decodeHeader(ByteBuffer buffer, ByteBufferPool pool) throws IOException {
+        int type, channel, payloadSize;
+        int position = buffer.position();
+        if (headerLength == 0 && buffer.remaining() >= HEADER_SIZE && buffer.get(position) != 'A') {
+            // the whole header is in the buffer, the common case
+            type = buffer.get(position) & 0xff;
+            channel = buffer.getShort(position + 1) & 0xffff;
+            payloadSize = buffer.getInt(position + 3);
+            buffer.position(position + HEADER_SIZE);
+        } else {
+            if (headerLength == 0 && buffer.hasRemaining()) {
+                header[headerLength++] = buffer.get();
+            }
+            int headerSize = header[0] == 'A' ? PROTOCOL_HEADER_SIZE : HEADER_SIZE;
+            int length = Math.min(headerSize - headerLength, buffer.remaining());
+            buffer.get(header, headerLength, length);
+            headerLength += length;
+            if (headerLength < headerSize) {
+                return false;
+            }
+            headerLength = 0;
+            if (header[0] == 'A') {
+                // an AMQP header instead of a frame, throws an exception with the broker's version
+                Frame.protocolVersionMismatch(new DataInputStream(
+                    new ByteArrayInputStream(header, 1, PROTOCOL_HEADER_SIZE - 1)));
+            }
+            ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+            type = headerBuffer.get(0) & 0xff;
+            channel = headerBuffer.getShort(1) & 0xffff;
+            payloadSize = headerBuffer.getInt(3);
+        }
+        frame = Frame.newInboundFrame(type, channel, payloadSize, pool);
+        payload = frame.wrapPayload();
+        return true;
+    }
+}
@@ -0,0 +1,62 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.impl.nio;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.impl.Frame;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * Write request for a frame whose payload is written with a gathering write,
+ * straight from the payload array, without going through the write buffer.
+ */
+public class GatheringFrameWriteRequest implements WriteRequest {
+
+    /** Frame type, channel number and payload size */
+    private static final int FRAME_HEADER_SIZE = 7;
+
+    final Frame frame;
+
+    final GatheringByteChannel channel;
+
+    public GatheringFrameWriteRequest(Frame frame, GatheringByteChannel channel) {
+        this.frame = frame;
+        this.channel = channel;
+    }
+
+    @Override
+    public void handle(DataOutputStream outputStream) throws IOException {
+        // keep the ordering with what is already in the stream's buffer
+        outputStream.flush();
+
+        ByteBuffer payload = frame.wrapPayload();
+        ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+        header.put((byte) frame.type);
+        header.putShort((short) frame.channel);
+        header.putInt(payload.remaining());
+        header.flip();
+        ByteBuffer end = ByteBuffer.allocate(1);
+        end.put((byte) AMQP.FRAME_END);
+        end.flip();
+
+        ByteBuffer[] buffers = new ByteBuffer[] { header, payload, end };
+        while (end.hasRemaining() && channel.write(buffers) != -1);
+    }
+}
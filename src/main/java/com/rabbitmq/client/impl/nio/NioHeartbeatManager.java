@@ -0,0 +1,187 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.impl.nio;
+
+import com.rabbitmq.client.impl.AMQConnection;
+import com.rabbitmq.client.impl.HeartbeatManager;
+import com.rabbitmq.client.impl.TimingWheel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.channels.SelectionKey;
+
+/**
+ * Sends heartbeats and checks the broker's heartbeats of a NIO connection,
+ * with timeouts on the timing wheel of its NIO loop.
+ * <p/>
+ * Activity only updates timestamps, timeouts compare
+ * them with the deadlines when they expire and re-schedule themselves.
+ * Timeout tasks run in the NIO thread.
+ * <p/>
+ * Reads paused because consumers are behind don't count as missed
+ * heartbeats, but only for a heartbeat timeout: reads are then resumed
+ * until a frame comes in, so a dead peer is still detected.
+ */
+class NioHeartbeatManager implements HeartbeatManager {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NioHeartbeatManager.class);
+
+    private final SocketChannelFrameHandlerState state;
+
+    private final TimingWheel timingWheel;
+
+    private final Object monitor = new Object();
+
+    private volatile long lastWriteActivity = System.currentTimeMillis();
+
+    private TimingWheel.Timeout sendTimeout;
+
+    private TimingWheel.Timeout readTimeout;
+
+    private boolean shutdown = false;
+
+    NioHeartbeatManager(SocketChannelFrameHandlerState state, TimingWheel timingWheel) {
+        this.state = state;
+        this.timingWheel = timingWheel;
+    }
+
+    @Override
+    public void signalActivity() {
+        this.lastWriteActivity = System.currentTimeMillis();
+    }
+
+    @Override
+    public void setHeartbeat(int heartbeatSeconds) {
+        synchronized (monitor) {
+            if (shutdown) {
+                return;
+            }
+            cancelTimeouts();
+            if (heartbeatSeconds > 0) {
+                long heartbeatMs = heartbeatSeconds * 1000L;
+                long now = System.currentTimeMillis();
+                // send every heartbeat / 2 to avoid the worst case
+                // where the last activity comes just after the last heartbeat
+                this.sendTimeout = timingWheel.schedule(new SendTask(heartbeatMs / 2), now + heartbeatMs / 2);
+                this.readTimeout = timingWheel.schedule(new ReadTask(heartbeatMs * 2), now + heartbeatMs * 2);
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        synchronized (monitor) {
+            cancelTimeouts();
+            shutdown = true;
+        }
+    }
+
+    private void cancelTimeouts() {
+        if (sendTimeout != null) {
+            sendTimeout.cancel();
+            sendTimeout = null;
+        }
+        if (readTimeout != null) {
+            readTimeout.cancel();
+            readTimeout = null;
+        }
+    }
+
+    private void reschedule(Runnable task, long deadline, boolean send) {
+        synchronized (monitor) {
+            TimingWheel.Timeout current = send ? sendTimeout : readTimeout;
+            if (shutdown || current == null || current.isCancelled()) {
+                // heartbeat changed or stopped meanwhile
+                return;
+            }
+            TimingWheel.Timeout timeout = timingWheel.schedule(task, deadline);
+            if (send) {
+                sendTimeout = timeout;
+            } else {
+                readTimeout = timeout;
+            }
+        }
+    }
+
+    private final class SendTask implements Runnable {
+
+        private final long intervalMs;
+
+        private SendTask(long intervalMs) {
+            this.intervalMs = intervalMs;
+        }
+
+        @Override
+        public void run() {
+            long now = System.currentTimeMillis();
+            if (now > lastWriteActivity + intervalMs) {
+                state.sendHeartbeat();
+            }
+            reschedule(this, now + intervalMs, true);
+        }
+    }
+
+    private final class ReadTask implements Runnable {
+
+        private final long timeoutMs;
+
+        /** When reads were found paused, 0 if they are not, only used in the NIO thread */
+        private long pausedSince = 0;
+
+        private ReadTask(long timeoutMs) {
+            this.timeoutMs = timeoutMs;
+        }
+
+        @Override
+        public void run() {
+            long now = System.currentTimeMillis();
+            SelectionKey key = state.getChannel().keyFor(state.selector());
+            if (key != null && key.isValid() && (key.interestOps() & SelectionKey.OP_READ) == 0) {
+                // reads are paused, heartbeats can't be read
+                state.setLastActivity(now);
+                if (pausedSince == 0) {
+                    pausedSince = now;
+                } else if (now - pausedSince >= timeoutMs) {
+                    // paused for too long to tell slow consumers from a dead peer:
+                    // read again, the next frame pauses reads if queues are still
+                    // full, and a dead peer misses the next deadline
+                    key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                    pausedSince = 0;
+                }
+            } else {
+                pausedSince = 0;
+            }
+            long deadline = state.getLastActivity() + timeoutMs;
+            if (now > deadline) {
+                AMQConnection connection = state.getConnection();
+                try {
+                    connection.handleHeartbeatFailure();
+                } catch (Exception e) {
+                    LOGGER.warn("Error after heartbeat failure of connection {}", connection);
+                } catch (AssertionError e) {
+                    // see https://github.com/rabbitmq/rabbitmq-java-client/issues/237
+                    LOGGER.warn("Assertion error after heartbeat failure of connection {}", connection);
+                } finally {
+                    if (key != null) {
+                        key.cancel();
+                    }
+                }
+            } else {
+                reschedule(this, deadline, false);
+            }
+        }
+    }
+}
@@ -15,18 +15,20 @@
 
 package com.rabbitmq.client.impl.nio;
 
+import com.rabbitmq.client.impl.ByteBufferPool;
 import com.rabbitmq.client.impl.Environment;
 import com.rabbitmq.client.impl.Frame;
+import com.rabbitmq.client.impl.TimingWheel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.util.Iterator;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ThreadFactory;
@@ -38,6 +40,13 @@ public class NioLoop implements Runnable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(NioLoop.class);
 
+    /**
+     * Bytes written at most for a connection before the loop goes back
+     * to reading, as a fast peer can keep accepting bytes for a long time
+     * (especially with TLS, where the encryption happens in the loop)
+     */
+    private static final long WRITE_BYTES_PER_PASS = 1024 * 1024;
+
     private final NioLoopContext context;
 
     private final NioParams nioParams;
@@ -49,49 +58,33 @@ public class NioLoop implements Runnable {
 
     @Override
     public void run() {
-        final SelectorHolder selectorState = context.readSelectorState;
+        final SelectorHolder selectorState = context.selectorState;
         final Selector selector = selectorState.selector;
         final Set<SocketChannelRegistration> registrations = selectorState.registrations;
+        final Queue<SocketChannelFrameHandlerState> pendingWrites = selectorState.pendingWrites;
 
         final ByteBuffer buffer = context.readBuffer;
 
-        final SelectorHolder writeSelectorState = context.writeSelectorState;
-        final Selector writeSelector = writeSelectorState.selector;
-        final Set<SocketChannelRegistration> writeRegistrations = writeSelectorState.registrations;
-
-        // whether there have been write registrations in the previous loop
-        // registrations are done after Selector.select(), to work on clean keys
-        // thus, any write operation is performed in the next loop
-        // we don't want to wait in the read Selector.select() if there are
-        // pending writes
-        boolean writeRegistered = false;
+        final TimingWheel timingWheel = context.timingWheel;
+        final long busyPollTimeInNanos = nioParams.getBusyPollTimeInMicros() * 1000L;
 
         try {
             while (true && !Thread.currentThread().isInterrupted()) {
 
-                for (SelectionKey selectionKey : selector.keys()) {
-                    SocketChannelFrameHandlerState state = (SocketChannelFrameHandlerState) selectionKey.attachment();
-                    if (state.getConnection() != null && state.getConnection().getHeartbeat() > 0) {
-                        long now = System.currentTimeMillis();
-                        if ((now - state.getLastActivity()) > state.getConnection().getHeartbeat() * 1000 * 2) {
-                            try {
-                                state.getConnection().handleHeartbeatFailure();
-                            } catch (Exception e) {
-                                LOGGER.warn("Error after heartbeat failure of connection {}", state.getConnection());
-                            } catch (AssertionError e) {
-                                // see https://github.com/rabbitmq/rabbitmq-java-client/issues/237
-                                LOGGER.warn("Assertion error after heartbeat failure of connection {}", state.getConnection());
-                            } finally {
-                                selectionKey.cancel();
-                            }
-                        }
-                    }
-                }
+                // heartbeat sending and checks
+                timingWheel.advance(System.currentTimeMillis());
 
-                int select;
-                if (!writeRegistered && registrations.isEmpty() && writeRegistrations.isEmpty()) {
-                    // we can block, registrations will call Selector.wakeup()
-                    select = selector.select(1000);
+                int select = 0;
+                if (busyPollTimeInNanos > 0 && registrations.isEmpty() && pendingWrites.isEmpty()) {
+                    // spin a bit before blocking, for lower latency
+                    select = busyPoll(selector, registrations, pendingWrites, busyPollTimeInNanos);
+                }
+                if (select > 0) {
+                    // keys selected during busy polling, nothing more to select
+                } else if (registrations.isEmpty() && pendingWrites.isEmpty()) {
+                    // we can block, registrations and writes will call Selector.wakeup()
+                    // wake up for the next tick if there are heartbeat timeouts
+                    select = selector.select(timingWheel.isEmpty() ? 1000 : timingWheel.getTickMs());
                     if (selector.keys().size() == 0) {
                         // we haven't been doing anything for a while, shutdown state
                         boolean clean = context.cleanUp();
@@ -106,8 +99,6 @@ public class NioLoop implements Runnable {
                     select = selector.selectNow();
                 }
 
-                writeRegistered = false;
-
                 // registrations should be done after select,
                 // once the cancelled keys have been actually removed
                 SocketChannelRegistration registration;
@@ -115,8 +106,7 @@ public class NioLoop implements Runnable {
                 while (registrationIterator.hasNext()) {
                     registration = registrationIterator.next();
                     registrationIterator.remove();
-                    int operations = registration.operations;
-                    registration.state.getChannel().register(selector, operations, registration.state);
+                    addInterest(selector, registration.state, registration.operations);
                 }
 
                 if (select > 0) {
@@ -130,9 +120,9 @@ public class NioLoop implements Runnable {
                             continue;
                         }
 
-                        if (key.isReadable()) {
-                            final SocketChannelFrameHandlerState state = (SocketChannelFrameHandlerState) key.attachment();
+                        final SocketChannelFrameHandlerState state = (SocketChannelFrameHandlerState) key.attachment();
 
+                        if (key.isReadable()) {
                             try {
                                 if (!state.getChannel().isOpen()) {
                                     key.cancel();
@@ -144,12 +134,17 @@ public class NioLoop implements Runnable {
                                     continue;
                                 }
 
-                                DataInputStream inputStream = state.inputStream;
+                                FrameDecoder frameDecoder = state.frameDecoder;
+                                ByteBufferPool inboundFramePool = state.getConnection().getInboundFrameBufferPool();
 
                                 state.prepareForReadSequence();
 
                                 while (state.continueReading()) {
-                                    Frame frame = Frame.readFrom(inputStream);
+                                    Frame frame = frameDecoder.decode(state.plainIn, inboundFramePool);
+                                    if (frame == null) {
+                                        // partial frame, the decoder resumes with the next bytes
+                                        continue;
+                                    }
 
                                     try {
                                         boolean noProblem = state.getConnection().handleReadFrame(frame);
@@ -159,6 +154,12 @@ public class NioLoop implements Runnable {
                                             key.cancel();
                                             break;
                                         }
+                                        if (state.getConnection().isReadPaused() && !state.hasBufferedInput()) {
+                                            // a consumer queue is full, stop reading until
+                                            // the connection registers again for reads
+                                            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                                            break;
+                                        }
                                     } catch (Throwable ex) {
                                         // problem during frame processing, tell connection, and
                                         // we can stop for this channel
@@ -177,82 +178,116 @@ public class NioLoop implements Runnable {
                                 buffer.clear();
                             }
                         }
-                    }
-                }
 
-                // write loop
-
-                select = writeSelector.selectNow();
-
-                // registrations should be done after select,
-                // once the cancelled keys have been actually removed
-                SocketChannelRegistration writeRegistration;
-                Iterator<SocketChannelRegistration> writeRegistrationIterator = writeRegistrations.iterator();
-                while (writeRegistrationIterator.hasNext()) {
-                    writeRegistration = writeRegistrationIterator.next();
-                    writeRegistrationIterator.remove();
-                    int operations = writeRegistration.operations;
-                    try {
-                        if (writeRegistration.state.getChannel().isOpen()) {
-                            writeRegistration.state.getChannel().register(writeSelector, operations, writeRegistration.state);
-                            writeRegistered = true;
+                        if (key.isValid() && key.isWritable()) {
+                            // the socket accepts bytes again
+                            write(selector, state);
                         }
-                    } catch (Exception e) {
-                        // can happen if the channel has been closed since the operation has been enqueued
-                        LOGGER.info("Error while registering socket channel for write: {}", e.getMessage());
                     }
                 }
 
-                if (select > 0) {
-                    Set<SelectionKey> readyKeys = writeSelector.selectedKeys();
-                    Iterator<SelectionKey> iterator = readyKeys.iterator();
-                    while (iterator.hasNext()) {
-                        SelectionKey key = iterator.next();
-                        iterator.remove();
-                        SocketChannelFrameHandlerState state = (SocketChannelFrameHandlerState) key.attachment();
-
-                        if (!key.isValid()) {
-                            continue;
-                        }
-
-                        if (key.isWritable()) {
-                            boolean cancelKey = true;
-                            try {
-                                if (!state.getChannel().isOpen()) {
-                                    key.cancel();
-                                    continue;
-                                }
-
-                                state.prepareForWriteSequence();
+                // write eagerly the frames enqueued since the last loop,
+                // connections enqueuing during the writes are written in the next loop
+                int toBeWritten = pendingWrites.size();
+                SocketChannelFrameHandlerState state;
+                while (toBeWritten-- > 0 && (state = pendingWrites.poll()) != null) {
+                    write(selector, state);
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.error("Error in NIO loop", e);
+        }
+    }
 
-                                int toBeWritten = state.getWriteQueue().size();
-                                int written = 0;
+    /**
+     * Select without blocking until keys are ready, frames are enqueued,
+     * registrations are requested, or the polling time is over.
+     *
+     * @return the number of selected keys
+     */
+    private static int busyPoll(Selector selector, Set<SocketChannelRegistration> registrations,
+        Queue<SocketChannelFrameHandlerState> pendingWrites, long busyPollTimeInNanos) throws IOException {
+        long start = System.nanoTime();
+        int select;
+        do {
+            select = selector.selectNow();
+            if (select > 0 || !registrations.isEmpty() || !pendingWrites.isEmpty()) {
+                break;
+            }
+        } while (System.nanoTime() - start < busyPollTimeInNanos);
+        return select;
+    }
 
-                                DataOutputStream outputStream = state.outputStream;
+    /**
+     * Write the outbound frames of a connection, until its write queue is empty
+     * or the socket doesn't accept more bytes. {@link SelectionKey#OP_WRITE}
+     * is set only in the latter case.
+     */
+    private void write(Selector selector, SocketChannelFrameHandlerState state) {
+        if (!state.getChannel().isOpen()) {
+            return;
+        }
+        try {
+            if (state.flushPendingOutput()) {
+                state.prepareForWriteSequence();
+
+                WriteQueue writeQueue = state.getWriteQueue();
+                // drain at most a full queue or a few bytes, not to starve
+                // reads and other connections, the rest is written in the next loop
+                int toBeWritten = writeQueue.capacity();
+                int written = 0;
+                long maxBytesWritten = state.bytesWritten() + WRITE_BYTES_PER_PASS;
+
+                DataOutputStream outputStream = state.outputStream;
+
+                WriteRequest request;
+                while (written < toBeWritten && state.bytesWritten() < maxBytesWritten
+                    && !state.hasPendingOutput() && (request = writeQueue.poll()) != null) {
+                    request.handle(outputStream);
+                    written++;
+                }
+                outputStream.flush();
+            }
+        } catch (Exception e) {
+            handleIoError(state, e);
+            return;
+        } finally {
+            state.endWriteSequence();
+        }
+        if (state.hasPendingOutput()) {
+            // socket buffer full, wait for it to accept bytes again
+            addInterest(selector, state, SelectionKey.OP_WRITE);
+        } else {
+            removeInterest(selector, state, SelectionKey.OP_WRITE);
+            // requests enqueued during the drain schedule a new write
+            state.endWriteDrain();
+        }
+    }
 
-                                WriteRequest request;
-                                while (written <= toBeWritten && (request = state.getWriteQueue().poll()) != null) {
-                                    request.handle(outputStream);
-                                    written++;
-                                }
-                                outputStream.flush();
-                                if (!state.getWriteQueue().isEmpty()) {
-                                    cancelKey = true;
-                                }
-                            } catch (Exception e) {
-                                handleIoError(state, e);
-                            } finally {
-                                state.endWriteSequence();
-                                if (cancelKey) {
-                                    key.cancel();
-                                }
-                            }
-                        }
-                    }
+    private void addInterest(Selector selector, SocketChannelFrameHandlerState state, int operations) {
+        try {
+            SelectionKey key = state.getChannel().keyFor(selector);
+            if (key != null && key.isValid()) {
+                int interestOps = key.interestOps();
+                if ((interestOps & operations) != operations) {
+                    key.interestOps(interestOps | operations);
                 }
+            } else if (state.getChannel().isOpen()) {
+                state.getChannel().register(selector, operations, state);
             }
         } catch (Exception e) {
-            LOGGER.error("Error in NIO loop", e);
+            // can happen if the channel has been closed since the operation has been enqueued
+            LOGGER.info("Error while registering socket channel: {}", e.getMessage());
+        }
+    }
+
+    private void removeInterest(Selector selector, SocketChannelFrameHandlerState state, int operations) {
+        SelectionKey key = state.getChannel().keyFor(selector);
+        if (key != null && key.isValid()) {
+            int interestOps = key.interestOps();
+            if ((interestOps & operations) != 0) {
+                key.interestOps(interestOps & ~operations);
+            }
         }
     }
 
@@ -1,6 +1,7 @@
 package com.rabbitmq.client.impl.nio;
 
 import com.rabbitmq.client.impl.Environment;
+import com.rabbitmq.client.impl.TimingWheel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -17,6 +18,9 @@ public class NioLoopContext {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(NioLoopContext.class);
 
+    /** precision of heartbeat timeouts */
+    static final long HEARTBEAT_TICK_MS = 100;
+
     private final SocketChannelFrameHandlerFactory socketChannelFrameHandlerFactory;
 
     private final ExecutorService executorService;
@@ -25,22 +29,26 @@ public class NioLoopContext {
 
     final ByteBuffer readBuffer, writeBuffer;
 
-    SelectorHolder readSelectorState;
-    SelectorHolder writeSelectorState;
+    /** heartbeat timeouts of the connections of the loop, only advanced by the loop */
+    final TimingWheel timingWheel = new TimingWheel(HEARTBEAT_TICK_MS, 512);
+
+    /** single selector for reads and writes of all the connections of the loop */
+    SelectorHolder selectorState;
 
     public NioLoopContext(SocketChannelFrameHandlerFactory socketChannelFrameHandlerFactory,
         NioParams nioParams) {
         this.socketChannelFrameHandlerFactory = socketChannelFrameHandlerFactory;
         this.executorService = nioParams.getNioExecutor();
         this.threadFactory = nioParams.getThreadFactory();
-        this.readBuffer = ByteBuffer.allocate(nioParams.getReadByteBufferSize());
+        this.readBuffer = nioParams.isDirectReadBuffers() ?
+            ByteBuffer.allocateDirect(nioParams.getReadByteBufferSize()) :
+            ByteBuffer.allocate(nioParams.getReadByteBufferSize());
         this.writeBuffer = ByteBuffer.allocate(nioParams.getWriteByteBufferSize());
     }
 
     void initStateIfNecessary() throws IOException {
-        if (this.readSelectorState == null) {
-            this.readSelectorState = new SelectorHolder(Selector.open());
-            this.writeSelectorState = new SelectorHolder(Selector.open());
+        if (this.selectorState == null) {
+            this.selectorState = new SelectorHolder(Selector.open());
 
             startIoLoops();
         }
@@ -60,30 +68,24 @@ public class NioLoopContext {
     }
 
     protected boolean cleanUp() {
-        int readRegistrationsCount = readSelectorState.registrations.size();
-        if(readRegistrationsCount != 0) {
+        int registrationsCount = selectorState.registrations.size();
+        if(registrationsCount != 0) {
             return false;
         }
         socketChannelFrameHandlerFactory.lock();
         try {
-            if (readRegistrationsCount != readSelectorState.registrations.size()) {
+            if (registrationsCount != selectorState.registrations.size()) {
                 // a connection request has come in meanwhile, don't do anything
                 return false;
             }
 
             try {
-                readSelectorState.selector.close();
-            } catch (IOException e) {
-                LOGGER.warn("Could not close read selector: {}", e.getMessage());
-            }
-            try {
-                writeSelectorState.selector.close();
+                selectorState.selector.close();
             } catch (IOException e) {
-                LOGGER.warn("Could not close write selector: {}", e.getMessage());
+                LOGGER.warn("Could not close selector: {}", e.getMessage());
             }
 
-            this.readSelectorState = null;
-            this.writeSelectorState = null;
+            this.selectorState = null;
         } finally {
             socketChannelFrameHandlerFactory.unlock();
         }
@@ -42,6 +42,15 @@ public class NioParams {
     /** the capacity of the queue used for outbound frames */
     private int writeQueueCapacity = 10000;
 
+    /** the min size of body frames written straight from the message body, 0 to disable */
+    private int gatheringWriteThreshold = 0;
+
+    /** whether to use direct buffers to read from sockets */
+    private boolean directReadBuffers = false;
+
+    /** the time IO threads spin on the selector before blocking, 0 to disable */
+    private int busyPollTimeInMicros = 0;
+
     /** the executor service used for IO threads and connections shutdown */
     private ExecutorService nioExecutor;
 
@@ -60,6 +69,9 @@ public class NioParams {
         setNbIoThreads(nioParams.getNbIoThreads());
         setWriteEnqueuingTimeoutInMs(nioParams.getWriteEnqueuingTimeoutInMs());
         setWriteQueueCapacity(nioParams.getWriteQueueCapacity());
+        setGatheringWriteThreshold(nioParams.getGatheringWriteThreshold());
+        setDirectReadBuffers(nioParams.isDirectReadBuffers());
+        setBusyPollTimeInMicros(nioParams.getBusyPollTimeInMicros());
         setNioExecutor(nioParams.getNioExecutor());
         setThreadFactory(nioParams.getThreadFactory());
     }
@@ -142,13 +154,13 @@ public class NioParams {
     /**
      * Sets the timeout for queuing outbound frames. Default is 10,000 ms.
      * Every requests to the server is divided into frames
-     * that are then queued in a {@link java.util.concurrent.BlockingQueue} before
+     * that are then queued in a {@link WriteQueue} before
      * being sent on the network by a IO thread.
      *
      * If the IO thread cannot cope with the frames dispatch, the
-     * {@link java.util.concurrent.BlockingQueue} gets filled up and blocks
+     * {@link WriteQueue} gets filled up and blocks
      * (blocking the calling thread by the same occasion). This timeout is the
-     * time the {@link java.util.concurrent.BlockingQueue} will wait before
+     * time the {@link WriteQueue} will wait before
      * rejecting the outbound frame. The calling thread will then received
      * an exception.
      *
@@ -233,6 +245,84 @@ public class NioParams {
         return this;
     }
 
+    public int getGatheringWriteThreshold() {
+        return gatheringWriteThreshold;
+    }
+
+    /**
+     * Set the min size in bytes of the body frames that are written
+     * straight from the message body array with a gathering write,
+     * instead of being copied to the write {@link java.nio.ByteBuffer} first.
+     * Default is 0 (disabled).
+     *
+     * Body frames are written after the publishing call returns, so
+     * the message body array must not be modified once published
+     * when this is enabled.
+     *
+     * This parameter isn't used when using SSL/TLS.
+     *
+     * @param gatheringWriteThreshold min size of the body frames to write without copy, 0 to disable
+     * @return this {@link NioParams} instance
+     */
+    public NioParams setGatheringWriteThreshold(int gatheringWriteThreshold) {
+        if (gatheringWriteThreshold < 0) {
+            throw new IllegalArgumentException("Gathering write threshold cannot be less than 0");
+        }
+        this.gatheringWriteThreshold = gatheringWriteThreshold;
+        return this;
+    }
+
+    public boolean isDirectReadBuffers() {
+        return directReadBuffers;
+    }
+
+    /**
+     * Use direct {@link java.nio.ByteBuffer}s to read from sockets.
+     * This saves a copy between the socket and the read buffer,
+     * frames are decoded straight from the direct buffer.
+     * Default is false.
+     *
+     * With SSL/TLS, this applies to the buffers of ciphered data.
+     *
+     * @param directReadBuffers true to read into direct buffers
+     * @return this {@link NioParams} instance
+     */
+    public NioParams setDirectReadBuffers(boolean directReadBuffers) {
+        this.directReadBuffers = directReadBuffers;
+        return this;
+    }
+
+    public int getBusyPollTimeInMicros() {
+        return busyPollTimeInMicros;
+    }
+
+    /**
+     * Set the time in microseconds IO threads keep polling the sockets
+     * without blocking when there's nothing to read or write, before
+     * blocking on the selector. Default is 0 (IO threads block right away).
+     *
+     * Busy polling avoids the latency of waking up a blocked IO thread
+     * when frames arrive, at the cost of a busy CPU core per IO thread
+     * as long as frames keep coming within the polling time. It is
+     * meant for latency-sensitive applications, along with enough IO threads
+     * (see {@link #setNbIoThreads(int)}) for them to be dedicated to
+     * a few connections. Nagle's algorithm is disabled by the default
+     * {@link SocketChannelConfigurator}.
+     *
+     * Heartbeats are sent and checked after the polling, so the
+     * polling time should be much lower than the heartbeat timeout.
+     *
+     * @param busyPollTimeInMicros polling time in microseconds, 0 to disable
+     * @return this {@link NioParams} instance
+     */
+    public NioParams setBusyPollTimeInMicros(int busyPollTimeInMicros) {
+        if (busyPollTimeInMicros < 0) {
+            throw new IllegalArgumentException("Busy poll time cannot be less than 0");
+        }
+        this.busyPollTimeInMicros = busyPollTimeInMicros;
+        return this;
+    }
+
     /**
      * Set the {@link java.nio.channels.SocketChannel} configurator.
      * This gets a chance to "configure" a socket channel
@@ -0,0 +1,144 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.impl.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Non-blocking writes to a socket channel that never spin.
+ * <p/>
+ * What the socket doesn't accept is copied into a pending buffer, as well as
+ * everything written while there are pending bytes. Writes then always
+ * consume the whole source buffers. The IO thread stops writing to the
+ * connection and waits for {@link java.nio.channels.SelectionKey#OP_WRITE}
+ * while there are pending bytes, so the pending buffer holds at most a
+ * write request and the content of the stream buffer.
+ * <p/>
+ * To be used only in the IO thread.
+ */
+class PendingOutputChannel implements GatheringByteChannel {
+
+    private static final int MIN_PENDING_CAPACITY = 8192;
+
+    private final SocketChannel channel;
+
+    /** bytes the socket hasn't accepted yet, in write mode, null if none */
+    private ByteBuffer pending;
+
+    /** bytes written to this channel so far, pending or not */
+    private long written;
+
+    PendingOutputChannel(SocketChannel channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int length = src.remaining();
+        written += length;
+        if (!hasPendingOutput()) {
+            channel.write(src);
+        }
+        if (src.hasRemaining()) {
+            append(src);
+        }
+        return length;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        long total = 0;
+        for (int i = offset; i < offset + length; i++) {
+            total += srcs[i].remaining();
+        }
+        written += total;
+        if (!hasPendingOutput()) {
+            channel.write(srcs, offset, length);
+        }
+        for (int i = offset; i < offset + length; i++) {
+            if (srcs[i].hasRemaining()) {
+                append(srcs[i]);
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    /**
+     * @return the number of bytes written to this channel so far,
+     * including those the socket hasn't accepted yet
+     */
+    long written() {
+        return written;
+    }
+
+    /**
+     * @return true if some bytes haven't been accepted by the socket yet
+     */
+    boolean hasPendingOutput() {
+        return pending != null && pending.position() > 0;
+    }
+
+    /**
+     * Write pending bytes, as much as the socket accepts.
+     *
+     * @return true if all the pending bytes have been written
+     * @throws IOException
+     */
+    boolean flushPendingOutput() throws IOException {
+        if (!hasPendingOutput()) {
+            return true;
+        }
+        pending.flip();
+        while (pending.hasRemaining() && channel.write(pending) > 0);
+        pending.compact();
+        if (pending.position() == 0) {
+            // don't keep the memory once the burst is over
+            pending = null;
+            return true;
+        }
+        return false;
+    }
+
+    private void append(ByteBuffer src) {
+        if (pending == null) {
+            pending = ByteBuffer.allocate(Math.max(MIN_PENDING_CAPACITY, src.remaining()));
+        } else if (pending.remaining() < src.remaining()) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + src.remaining()));
+            pending.flip();
+            bigger.put(pending);
+            pending = bigger;
+        }
+        pending.put(src);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -17,8 +17,10 @@ package com.rabbitmq.client.impl.nio;
 
 import java.nio.channels.Selector;
 import java.util.Collections;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  *
@@ -30,6 +32,10 @@ public class SelectorHolder {
     final Set<SocketChannelRegistration> registrations = Collections
         .newSetFromMap(new ConcurrentHashMap<SocketChannelRegistration, Boolean>());
 
+    /** connections with outbound frames to write, at most once each */
+    final Queue<SocketChannelFrameHandlerState> pendingWrites =
+        new ConcurrentLinkedQueue<SocketChannelFrameHandlerState>();
+
     SelectorHolder(Selector selector) {
         this.selector = selector;
     }
@@ -38,4 +44,14 @@ public class SelectorHolder {
         registrations.add(new SocketChannelRegistration(state, operations));
         selector.wakeup();
     }
+
+    /**
+     * Ask the IO thread to write the outbound frames of a connection.
+     * The caller must make sure a connection is scheduled only once
+     * until the IO thread has drained its write queue.
+     */
+    public void scheduleWrite(SocketChannelFrameHandlerState state) {
+        pendingWrites.offer(state);
+        selector.wakeup();
+    }
 }
@@ -16,19 +16,21 @@
 package com.rabbitmq.client.impl.nio;
 
 import com.rabbitmq.client.impl.AMQConnection;
+import com.rabbitmq.client.impl.ByteBufferPool;
+import com.rabbitmq.client.impl.EncodedFrameHandler;
 import com.rabbitmq.client.impl.Frame;
-import com.rabbitmq.client.impl.FrameHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
 
 /**
  *
  */
-public class SocketChannelFrameHandler implements FrameHandler {
+public class SocketChannelFrameHandler implements EncodedFrameHandler {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(SocketChannelFrameHandler.class);
 
@@ -76,6 +78,13 @@ public class SocketChannelFrameHandler implements FrameHandler {
     @Override
     public void initialize(AMQConnection connection) {
         state.setConnection(connection);
+        connection.setHeartbeatManager(new NioHeartbeatManager(state, state.timingWheel));
+        connection.setReadResumer(new Runnable() {
+            @Override
+            public void run() {
+                state.resumeReading();
+            }
+        });
     }
 
     @Override
@@ -88,6 +97,11 @@ public class SocketChannelFrameHandler implements FrameHandler {
         state.write(frame);
     }
 
+    @Override
+    public void writeFrames(ByteBuffer frames, ByteBufferPool pool) throws IOException {
+        state.write(frames, pool);
+    }
+
     @Override
     public void flush() throws IOException {
 
@@ -16,21 +16,23 @@
 package com.rabbitmq.client.impl.nio;
 
 import com.rabbitmq.client.impl.AMQConnection;
+import com.rabbitmq.client.impl.ByteBufferPool;
 import com.rabbitmq.client.impl.Frame;
+import com.rabbitmq.client.impl.TimingWheel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.net.ssl.SSLEngine;
-import java.io.DataInputStream;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
-import java.util.Queue;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  *
@@ -44,19 +46,32 @@ public class SocketChannelFrameHandlerState {
 
     private final SocketChannel channel;
 
-    private final BlockingQueue<WriteRequest> writeQueue;
+    private final WriteQueue writeQueue;
+
+    /**
+     * whether the IO thread is going to drain the write queue,
+     * only the first enqueuing after a drain wakes up the IO thread
+     */
+    private final AtomicBoolean writeScheduled = new AtomicBoolean(false);
 
     private volatile AMQConnection connection;
 
     /** should be used only in the NIO read thread */
     private long lastActivity;
 
-    private final SelectorHolder writeSelectorState;
+    /** writes to the socket, keeping what it doesn't accept */
+    private final PendingOutputChannel outboundChannel;
+
+    private final SelectorHolder selectorState;
 
-    private final SelectorHolder readSelectorState;
+    /** timeouts of the NIO loop, for heartbeats */
+    final TimingWheel timingWheel;
 
     private final int writeEnqueuingTimeoutInMs;
 
+    /** min size of body frames written without copy, 0 if disabled */
+    private final int gatheringWriteThreshold;
+
     final boolean ssl;
 
     final SSLEngine sslEngine;
@@ -75,14 +90,17 @@ public class SocketChannelFrameHandlerState {
 
     final DataOutputStream outputStream;
 
-    final DataInputStream inputStream;
+    /** decodes inbound frames, keeps partial frames between reads */
+    final FrameDecoder frameDecoder = new FrameDecoder();
 
     public SocketChannelFrameHandlerState(SocketChannel channel, NioLoopContext nioLoopsState, NioParams nioParams, SSLEngine sslEngine) {
         this.channel = channel;
-        this.readSelectorState = nioLoopsState.readSelectorState;
-        this.writeSelectorState = nioLoopsState.writeSelectorState;
-        this.writeQueue = new ArrayBlockingQueue<WriteRequest>(nioParams.getWriteQueueCapacity(), true);
+        this.selectorState = nioLoopsState.selectorState;
+        this.outboundChannel = new PendingOutputChannel(channel);
+        this.timingWheel = nioLoopsState.timingWheel;
+        this.writeQueue = new WriteQueue(nioParams.getWriteQueueCapacity());
         this.writeEnqueuingTimeoutInMs = nioParams.getWriteEnqueuingTimeoutInMs();
+        this.gatheringWriteThreshold = nioParams.getGatheringWriteThreshold();
         this.sslEngine = sslEngine;
         if(this.sslEngine == null) {
             this.ssl = false;
@@ -92,10 +110,7 @@ public class SocketChannelFrameHandlerState {
             this.cipherIn = null;
 
             this.outputStream = new DataOutputStream(
-                new ByteBufferOutputStream(channel, plainOut)
-            );
-            this.inputStream = new DataInputStream(
-                new ByteBufferInputStream(channel, plainIn)
+                new ByteBufferOutputStream(outboundChannel, plainOut)
             );
 
         } else {
@@ -103,13 +118,15 @@ public class SocketChannelFrameHandlerState {
             this.plainOut = ByteBuffer.allocate(sslEngine.getSession().getApplicationBufferSize());
             this.cipherOut = ByteBuffer.allocate(sslEngine.getSession().getPacketBufferSize());
             this.plainIn = ByteBuffer.allocate(sslEngine.getSession().getApplicationBufferSize());
-            this.cipherIn = ByteBuffer.allocate(sslEngine.getSession().getPacketBufferSize());
+            this.cipherIn = nioParams.isDirectReadBuffers() ?
+                ByteBuffer.allocateDirect(sslEngine.getSession().getPacketBufferSize()) :
+                ByteBuffer.allocate(sslEngine.getSession().getPacketBufferSize());
+            // inbound buffers are kept in read mode, with what is left from the previous reads
+            this.plainIn.flip();
+            this.cipherIn.flip();
 
             this.outputStream = new DataOutputStream(
-                new SslEngineByteBufferOutputStream(sslEngine, plainOut, cipherOut, channel)
-            );
-            this.inputStream = new DataInputStream(
-                new SslEngineByteBufferInputStream(sslEngine, plainIn, cipherIn, channel)
+                new SslEngineByteBufferOutputStream(sslEngine, plainOut, cipherOut, outboundChannel)
             );
         }
 
@@ -119,7 +136,7 @@ public class SocketChannelFrameHandlerState {
         return channel;
     }
 
-    public Queue<WriteRequest> getWriteQueue() {
+    public WriteQueue getWriteQueue() {
         return writeQueue;
     }
 
@@ -128,15 +145,41 @@ public class SocketChannelFrameHandlerState {
     }
 
     public void write(Frame frame) throws IOException {
+        if (frame.isWrapped()) {
+            if (!ssl && gatheringWriteThreshold > 0 && frame.size() >= gatheringWriteThreshold) {
+                sendWriteRequest(new GatheringFrameWriteRequest(frame, outboundChannel));
+                return;
+            }
+            // the caller owns the payload array, it can change once we return
+            frame = new Frame(frame.type, frame.channel, frame.getPayload());
+        }
         sendWriteRequest(new FrameWriteRequest(frame));
     }
 
+    public void write(ByteBuffer frames, ByteBufferPool pool) throws IOException {
+        sendWriteRequest(new ByteBufferWriteRequest(frames, pool, ssl ? null : outboundChannel));
+    }
+
+    /**
+     * Enqueue a heartbeat frame. Called from the IO thread,
+     * so doesn't wait if the write queue is full: frames are
+     * then about to be sent anyway.
+     */
+    void sendHeartbeat() {
+        try {
+            if (this.writeQueue.offer(new ByteBufferWriteRequest(Frame.heartbeat(), null, ssl ? null : outboundChannel), 0, TimeUnit.MILLISECONDS)) {
+                writeEnqueued();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     private void sendWriteRequest(WriteRequest writeRequest) throws IOException {
         try {
             boolean offered = this.writeQueue.offer(writeRequest, writeEnqueuingTimeoutInMs, TimeUnit.MILLISECONDS);
             if(offered) {
-                this.writeSelectorState.registerFrameHandlerState(this, SelectionKey.OP_WRITE);
-                this.readSelectorState.selector.wakeup();
+                writeEnqueued();
             } else {
                 throw new IOException("Frame enqueuing failed");
             }
@@ -145,8 +188,72 @@ public class SocketChannelFrameHandlerState {
         }
     }
 
+    private void writeEnqueued() {
+        if (this.writeScheduled.compareAndSet(false, true)) {
+            scheduleWrite();
+        }
+    }
+
+    private void scheduleWrite() {
+        this.selectorState.scheduleWrite(this);
+    }
+
+    /**
+     * @return true if the socket hasn't accepted all the written bytes yet.
+     * The connection must then wait for {@link SelectionKey#OP_WRITE}.
+     */
+    boolean hasPendingOutput() {
+        return outboundChannel.hasPendingOutput();
+    }
+
+    /**
+     * @return the number of bytes written to the socket channel so far,
+     * used to bound the time the IO thread spends on a connection's writes
+     */
+    long bytesWritten() {
+        return outboundChannel.written();
+    }
+
+    /**
+     * Write the bytes the socket hasn't accepted yet.
+     * @return true if there are no pending bytes left
+     */
+    boolean flushPendingOutput() throws IOException {
+        return outboundChannel.flushPendingOutput();
+    }
+
+    /**
+     * To be called by the IO thread once it has drained the write queue
+     * and the socket has accepted all the bytes.
+     * Schedules another write if requests have been enqueued in the meantime.
+     */
+    void endWriteDrain() {
+        this.writeScheduled.set(false);
+        if (!this.writeQueue.isEmpty() && this.writeScheduled.compareAndSet(false, true)) {
+            scheduleWrite();
+        }
+    }
+
     public void startReading() {
-        this.readSelectorState.registerFrameHandlerState(this, SelectionKey.OP_READ);
+        this.selectorState.registerFrameHandlerState(this, SelectionKey.OP_READ);
+    }
+
+    /**
+     * Register again for reads, after they have been paused.
+     */
+    public void resumeReading() {
+        this.selectorState.registerFrameHandlerState(this, SelectionKey.OP_READ);
+    }
+
+    /**
+     * @return true if read bytes haven't been decoded yet
+     */
+    boolean hasBufferedInput() {
+        if (ssl) {
+            return plainIn.hasRemaining() || cipherIn.hasRemaining();
+        } else {
+            return plainIn.hasRemaining();
+        }
     }
 
     public AMQConnection getConnection() {
@@ -157,6 +264,10 @@ public class SocketChannelFrameHandlerState {
         this.connection = connection;
     }
 
+    Selector selector() {
+        return selectorState.selector;
+    }
+
     public void setLastActivity(long lastActivity) {
         this.lastActivity = lastActivity;
     }
@@ -179,33 +290,58 @@ public class SocketChannelFrameHandlerState {
     }
 
     void prepareForReadSequence() throws IOException {
-        if(ssl) {
-            cipherIn.clear();
-            plainIn.clear();
-
-            cipherIn.flip();
-            plainIn.flip();
-        } else {
+        if(!ssl) {
             NioHelper.read(channel, plainIn);
             plainIn.flip();
         }
+        // TLS buffers are kept between read sequences, they can contain
+        // the beginning of a record
     }
 
+    /**
+     * Make inbound bytes available in {@link #plainIn}, reading
+     * from the socket if necessary. Never waits for the network.
+     *
+     * @return true if there are bytes to decode
+     */
     boolean continueReading() throws IOException {
         if(ssl) {
-            if (!plainIn.hasRemaining() && !cipherIn.hasRemaining()) {
-                // need to try to read something
-                cipherIn.clear();
-                int bytesRead = NioHelper.read(channel, cipherIn);
+            while (!plainIn.hasRemaining()) {
+                if (cipherIn.hasRemaining()) {
+                    plainIn.clear();
+                    SSLEngineResult result = sslEngine.unwrap(cipherIn, plainIn);
+                    plainIn.flip();
+                    switch (result.getStatus()) {
+                    case OK:
+                        if (plainIn.hasRemaining() || result.bytesConsumed() > 0) {
+                            // got something, or a record without application data
+                            continue;
+                        }
+                        break;
+                    case BUFFER_UNDERFLOW:
+                        // incomplete record, need to read more
+                        break;
+                    case BUFFER_OVERFLOW:
+                        throw new SSLException("buffer overflow in read");
+                    case CLOSED:
+                        throw new SSLException("closed in read");
+                    default:
+                        throw new IllegalStateException("Invalid SSL status: " + result.getStatus());
+                    }
+                }
+                cipherIn.compact();
+                int bytesRead;
+                try {
+                    bytesRead = NioHelper.read(channel, cipherIn);
+                } finally {
+                    cipherIn.flip();
+                }
                 if (bytesRead <= 0) {
+                    // nothing for now, the rest will come with the next read event
                     return false;
-                } else {
-                    cipherIn.flip();
-                    return true;
                 }
-            } else {
-                return true;
             }
+            return true;
         } else {
             if (!plainIn.hasRemaining()) {
                 plainIn.clear();
@@ -0,0 +1,163 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.impl.nio;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Bounded queue of outbound {@link WriteRequest}s, for many producers
+ * (the application threads) and a single consumer (the IO thread).
+ * <p/>
+ * Enqueuing doesn't take any lock as long as the queue isn't full:
+ * producers only swap the tail of a linked list. Producers block
+ * on a monitor only when the queue is full.
+ * <p/>
+ * Only the IO thread can call {@link #poll()}.
+ */
+public class WriteQueue {
+
+    private static final AtomicReferenceFieldUpdater<Node, Node> NEXT_UPDATER =
+        AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "next");
+
+    private final int capacity;
+
+    /** last enqueued node, swapped by producers */
+    private final AtomicReference<Node> tail;
+
+    /** sentinel node, whose next node is the next to poll, used only by the consumer */
+    private Node head;
+
+    private final AtomicInteger size = new AtomicInteger(0);
+
+    /** producers waiting because the queue is full */
+    private final Object notFull = new Object();
+    private volatile int waitingProducers = 0;
+
+    public WriteQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Write queue capacity must be greater than 0");
+        }
+        this.capacity = capacity;
+        this.head = new Node(null);
+        this.tail = new AtomicReference<Node>(this.head);
+    }
+
+    /**
+     * Enqueue a request, waiting if the queue is full.
+     *
+     * @param request the request to enqueue
+     * @param timeout how long to wait before giving up
+     * @param unit unit of the timeout
+     * @return true if the request has been enqueued, false if the timeout elapsed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean offer(WriteRequest request, long timeout, TimeUnit unit) throws InterruptedException {
+        if (!reserve()) {
+            if (!awaitCapacity(unit.toNanos(timeout))) {
+                return false;
+            }
+        }
+        Node node = new Node(request);
+        Node previous = tail.getAndSet(node);
+        // the consumer sees the node once it's linked
+        NEXT_UPDATER.lazySet(previous, node);
+        return true;
+    }
+
+    /**
+     * Dequeue a request. Must be called only by the IO thread.
+     *
+     * @return the next request, or null if there's none
+     */
+    public WriteRequest poll() {
+        Node next = head.next;
+        if (next == null) {
+            // empty, or a producer hasn't linked its node yet
+            return null;
+        }
+        WriteRequest request = next.request;
+        // the polled node becomes the sentinel
+        next.request = null;
+        head = next;
+        size.decrementAndGet();
+        if (waitingProducers > 0) {
+            synchronized (notFull) {
+                notFull.notifyAll();
+            }
+        }
+        return request;
+    }
+
+    /**
+     * @return true if no request is enqueued or being enqueued
+     */
+    public boolean isEmpty() {
+        return size.get() == 0;
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    private boolean reserve() {
+        while (true) {
+            int current = size.get();
+            if (current >= capacity) {
+                return false;
+            }
+            if (size.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private boolean awaitCapacity(long timeoutNanos) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        synchronized (notFull) {
+            waitingProducers++;
+            try {
+                while (!reserve()) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(notFull, remaining);
+                }
+                return true;
+            } finally {
+                waitingProducers--;
+            }
+        }
+    }
+
+    private static final class Node {
+
+        private WriteRequest request;
+
+        volatile Node next;
+
+        private Node(WriteRequest request) {
+            this.request = request;
+        }
+    }
+}
@@ -202,6 +202,26 @@ public class AutorecoveringChannel implements RecoverableChannel {
         delegate.basicPublish(exchange, routingKey, mandatory, immediate, props, body);
     }
 
+    @Override
+    public void basicPublish(PublishBatch batch) throws IOException {
+        delegate.basicPublish(batch);
+    }
+
+    @Override
+    public void basicPublish(PublishTemplate template, byte[] body) throws IOException {
+        delegate.basicPublish(template, body);
+    }
+
+    @Override
+    public PublishConfirm basicPublishWithConfirm(String exchange, String routingKey, AMQP.BasicProperties props, byte[] body) throws IOException {
+        return delegate.basicPublishWithConfirm(exchange, routingKey, props, body);
+    }
+
+    @Override
+    public PublishConfirm basicPublishWithConfirm(String exchange, String routingKey, boolean mandatory, AMQP.BasicProperties props, byte[] body) throws IOException {
+        return delegate.basicPublishWithConfirm(exchange, routingKey, mandatory, props, body);
+    }
+
     @Override
     public AMQP.Exchange.DeclareOk exchangeDeclare(String exchange, String type) throws IOException {
         return exchangeDeclare(exchange, type, false, false, null);
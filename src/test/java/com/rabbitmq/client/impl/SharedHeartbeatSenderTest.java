@@ -0,0 +1,302 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.impl;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.ConnectionFactory;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for {@link SharedHeartbeatSender}
+ */
+public class SharedHeartbeatSenderTest {
+
+    private final HeartbeatTimer timer = new HeartbeatTimer(Executors.defaultThreadFactory());
+
+    @Test
+    public void sendsPreEncodedHeartbeatWhenIdle() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(2);
+        final byte[][] written = new byte[1][];
+        FrameHandler frameHandler = frameHandler(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        }, written);
+        SharedHeartbeatSender sender = new SharedHeartbeatSender(frameHandler, timer);
+        sender.setHeartbeat(1);
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            assertArrayEquals(new byte[] {AMQP.FRAME_HEARTBEAT, 0, 0, 0, 0, 0, 0, (byte) AMQP.FRAME_END}, written[0]);
+        } finally {
+            sender.shutdown();
+        }
+    }
+
+    @Test
+    public void noHeartbeatWhenActive() throws Exception {
+        final AtomicInteger writes = new AtomicInteger(0);
+        SharedHeartbeatSender sender = new SharedHeartbeatSender(frameHandler(new Runnable() {
+            @Override
+            public void run() {
+                writes.incrementAndGet();
+            }
+        }, new byte[1][]), timer);
+        sender.setHeartbeat(1);
+        try {
+            long end = System.currentTimeMillis() + 1500;
+            while (System.currentTimeMillis() < end) {
+                sender.signalActivity();
+                Thread.sleep(50);
+            }
+            assertEquals(0, writes.get());
+        } finally {
+            sender.shutdown();
+        }
+    }
+
+    @Test
+    public void noHeartbeatAfterShutdown() throws Exception {
+        final AtomicInteger writes = new AtomicInteger(0);
+        SharedHeartbeatSender sender = new SharedHeartbeatSender(frameHandler(new Runnable() {
+            @Override
+            public void run() {
+                writes.incrementAndGet();
+            }
+        }, new byte[1][]), timer);
+        sender.setHeartbeat(1);
+        sender.shutdown();
+        sender.setHeartbeat(1);
+        Thread.sleep(1500);
+        assertEquals(0, writes.get());
+    }
+
+    @Test
+    public void blockedWriteDoesNotDelayOtherConnections() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger blockedWrites = new AtomicInteger(0);
+        SharedHeartbeatSender blockedSender = new SharedHeartbeatSender(frameHandler(new Runnable() {
+            @Override
+            public void run() {
+                blockedWrites.incrementAndGet();
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, new byte[1][]), timer);
+        final CountDownLatch otherWrites = new CountDownLatch(3);
+        SharedHeartbeatSender otherSender = new SharedHeartbeatSender(frameHandler(new Runnable() {
+            @Override
+            public void run() {
+                otherWrites.countDown();
+            }
+        }, new byte[1][]), timer);
+        blockedSender.setHeartbeat(1);
+        otherSender.setHeartbeat(1);
+        try {
+            assertTrue(blocked.await(5, TimeUnit.SECONDS));
+            assertTrue(otherWrites.await(5, TimeUnit.SECONDS));
+            // no new heartbeat while the previous one is still being written
+            assertEquals(1, blockedWrites.get());
+        } finally {
+            release.countDown();
+            blockedSender.shutdown();
+            otherSender.shutdown();
+        }
+    }
+
+    @Test
+    public void threadsAreCreatedWithConnectionThreadFactory() throws Exception {
+        AtomicInteger threads = new AtomicInteger(0);
+        ThreadFactory threadFactory = threadFactory(threads);
+        final CountDownLatch latch = new CountDownLatch(1);
+        SharedHeartbeatSender sender = new SharedHeartbeatSender(frameHandler(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        }, new byte[1][]), threadFactory);
+        sender.setHeartbeat(1);
+        try {
+            assertSame(HeartbeatTimer.forThreadFactory(threadFactory), HeartbeatTimer.forThreadFactory(threadFactory));
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            // the timer thread and a writer thread
+            assertEquals(2, threads.get());
+        } finally {
+            sender.shutdown();
+        }
+    }
+
+    @Test
+    public void noTimerWithoutHeartbeats() throws Exception {
+        AtomicInteger threads = new AtomicInteger(0);
+        ThreadFactory threadFactory = threadFactory(threads);
+        SharedHeartbeatSender sender = new SharedHeartbeatSender(frameHandler(NO_OP, new byte[1][]), threadFactory);
+        sender.setHeartbeat(0);
+        sender.shutdown();
+        assertFalse(HeartbeatTimer.isRegistered(threadFactory));
+        assertEquals(0, threads.get());
+    }
+
+    @Test
+    public void timerIsReleasedOnceHeartbeatsStop() throws Exception {
+        ThreadFactory threadFactory = threadFactory(new AtomicInteger(0));
+        SharedHeartbeatSender sender = new SharedHeartbeatSender(frameHandler(NO_OP, new byte[1][]), threadFactory);
+        sender.setHeartbeat(1);
+        assertTrue(HeartbeatTimer.isRegistered(threadFactory));
+        sender.shutdown();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (HeartbeatTimer.isRegistered(threadFactory) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(HeartbeatTimer.isRegistered(threadFactory));
+    }
+
+    @Test
+    public void noTimerForConnectionFailingBeforeTune() throws Exception {
+        AtomicInteger threads = new AtomicInteger(0);
+        ThreadFactory threadFactory = threadFactory(threads);
+        startAndFail(threadFactory, false);
+        assertFalse(HeartbeatTimer.isRegistered(threadFactory));
+        assertEquals(0, threads.get());
+    }
+
+    @Test
+    public void noTimerWhenFrameHandlerSendsHeartbeats() throws Exception {
+        AtomicInteger threads = new AtomicInteger(0);
+        ThreadFactory threadFactory = threadFactory(threads);
+        startAndFail(threadFactory, true);
+        assertFalse(HeartbeatTimer.isRegistered(threadFactory));
+        assertEquals(0, threads.get());
+    }
+
+    @Test
+    public void connectionsOfFactoryShareTimer() throws Exception {
+        ConnectionFactory connectionFactory = new ConnectionFactory();
+        if (VirtualThreads.isAvailable()) {
+            connectionFactory.setVirtualThreads(true);
+        }
+        SharedHeartbeatSender first = new SharedHeartbeatSender(frameHandler(NO_OP, new byte[1][]),
+            connectionFactory.params(null).getThreadFactory());
+        SharedHeartbeatSender second = new SharedHeartbeatSender(frameHandler(NO_OP, new byte[1][]),
+            connectionFactory.params(null).getThreadFactory());
+        first.setHeartbeat(1);
+        second.setHeartbeat(1);
+        try {
+            assertSame(HeartbeatTimer.forThreadFactory(connectionFactory.params(null).getThreadFactory()),
+                HeartbeatTimer.forThreadFactory(connectionFactory.params(null).getThreadFactory()));
+            assertTrue(HeartbeatTimer.isRegistered(connectionFactory.params(null).getThreadFactory()));
+        } finally {
+            first.shutdown();
+            second.shutdown();
+        }
+    }
+
+    /**
+     * Start a connection the broker never answers to, with a frame handler
+     * that sends heartbeats itself, like the NIO one, or not.
+     */
+    private static void startAndFail(ThreadFactory threadFactory, final boolean ownHeartbeats) {
+        FrameHandler frameHandler = (FrameHandler) Proxy.newProxyInstance(FrameHandler.class.getClassLoader(),
+            new Class<?>[] {FrameHandler.class}, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if ("initialize".equals(method.getName()) && ownHeartbeats) {
+                        ((AMQConnection) args[0]).setHeartbeatManager(new HeartbeatManager() {
+                            @Override
+                            public void signalActivity() { }
+
+                            @Override
+                            public void setHeartbeat(int heartbeatSeconds) { }
+
+                            @Override
+                            public void shutdown() { }
+                        });
+                    }
+                    return method.getReturnType() == int.class ? 0 : null;
+                }
+            });
+        ConnectionParams params = new ConnectionParams();
+        params.setClientProperties(new HashMap<String, Object>());
+        params.setThreadFactory(threadFactory);
+        params.setHandshakeTimeout(100);
+        try {
+            new AMQConnection(params, frameHandler).start();
+            fail("the broker doesn't answer");
+        } catch (Exception expected) {
+        }
+    }
+
+    private static final Runnable NO_OP = new Runnable() {
+        @Override
+        public void run() { }
+    };
+
+    private static ThreadFactory threadFactory(final AtomicInteger threads) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                threads.incrementAndGet();
+                Thread thread = new Thread(runnable);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    private static FrameHandler frameHandler(final Runnable onWrite, final byte[][] written) {
+        return (FrameHandler) Proxy.newProxyInstance(FrameHandler.class.getClassLoader(), new Class<?>[] {EncodedFrameHandler.class},
+            new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if ("writeFrames".equals(method.getName())) {
+                        ByteBuffer buffer = ((ByteBuffer) args[0]).duplicate();
+                        byte[] bytes = new byte[buffer.remaining()];
+                        buffer.get(bytes);
+                        written[0] = bytes;
+                        onWrite.run();
+                    } else if ("hashCode".equals(method.getName())) {
+                        return System.identityHashCode(proxy);
+                    } else if ("equals".equals(method.getName())) {
+                        return proxy == args[0];
+                    }
+                    return null;
+                }
+            });
+    }
+}
@@ -0,0 +1,96 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.impl;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Unit tests for {@link ShortStringCache}
+ */
+public class ShortStringCacheTest {
+
+    @Test
+    public void sameBytesGiveSameInstance() throws IOException {
+        ShortStringCache cache = new ShortStringCache();
+        String first = cache.get(bytes("amq.ctag-1"), 10);
+        assertEquals("amq.ctag-1", first);
+        assertSame(first, cache.get(bytes("amq.ctag-1"), 10));
+        assertEquals("amq.ctag-2", cache.get(bytes("amq.ctag-2"), 10));
+        // only the first bytes count
+        assertEquals("amq", cache.get(bytes("amq.ctag-1"), 3));
+    }
+
+    @Test
+    public void nonAsciiStringsAreDecoded() throws IOException {
+        ShortStringCache cache = new ShortStringCache();
+        String value = "\u00e9change-\u4e2d";
+        byte[] bytes = value.getBytes("UTF-8");
+        assertEquals(value, cache.get(bytes, bytes.length));
+        assertSame(cache.get(bytes, bytes.length), cache.get(bytes.clone(), bytes.length));
+    }
+
+    @Test
+    public void cacheIsBounded() throws IOException {
+        ShortStringCache cache = new ShortStringCache();
+        String first = cache.get(bytes("key-0"), 5);
+        for (int i = 0; i < ShortStringCache.SLOTS * 4; i++) {
+            String key = "key-" + i;
+            assertEquals(key, cache.get(bytes(key), key.length()));
+        }
+        // evicted or not, the value is right
+        assertEquals(first, cache.get(bytes("key-0"), 5));
+
+        char[] chars = new char[ShortStringCache.MAX_CACHED_LENGTH + 1];
+        Arrays.fill(chars, 'a');
+        String longValue = new String(chars);
+        String read = cache.get(bytes(longValue), chars.length);
+        assertEquals(longValue, read);
+        assertNotSame(read, cache.get(bytes(longValue), chars.length));
+    }
+
+    @Test
+    public void deliverArgumentsAreCached() throws IOException {
+        AMQImpl.Basic.Deliver deliver = new AMQImpl.Basic.Deliver("ctag", 1L, false, "exchange", "routing.key");
+        byte[] payload = deliver.toFrame(1).getPayload();
+        // one cache per connection
+        ShortStringCache cache = new ShortStringCache();
+        AMQImpl.Basic.Deliver first = (AMQImpl.Basic.Deliver) AMQImpl.readMethodFrom(in(payload), cache);
+        AMQImpl.Basic.Deliver second = (AMQImpl.Basic.Deliver) AMQImpl.readMethodFrom(in(payload), cache);
+        assertEquals("ctag", first.getConsumerTag());
+        assertEquals("exchange", first.getExchange());
+        assertEquals("routing.key", first.getRoutingKey());
+        assertSame(first.getConsumerTag(), second.getConsumerTag());
+        assertSame(first.getExchange(), second.getExchange());
+        assertSame(first.getRoutingKey(), second.getRoutingKey());
+    }
+
+    private static byte[] bytes(String value) throws IOException {
+        return value.getBytes("UTF-8");
+    }
+
+    private static DataInputStream in(byte[] payload) {
+        return new DataInputStream(new ByteArrayInputStream(payload));
+    }
+}
@@ -22,6 +22,10 @@ import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 
@@ -175,4 +179,148 @@ public class WorkPoolTests {
         List<Object> workList = new ArrayList<Object>(16);
         assertNull(this.pool.nextWorkBlock(workList, 1));
     }
+
+    /**
+     * Test producers block when a queue is full, until work is taken.
+     * @throws Exception untested
+     */
+    @Test public void fullQueueBlocksProducer() throws Exception {
+        final WorkPool<String, Object> pool = new WorkPool<String, Object>();
+        pool.registerKey("test");
+        for (int i = 0; i < 1000; i++) {
+            pool.addWorkItem("test", i);
+        }
+        final CountDownLatch added = new CountDownLatch(1);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                pool.addWorkItem("test", "last");
+                added.countDown();
+            }
+        });
+        producer.start();
+        assertFalse(added.await(100, TimeUnit.MILLISECONDS));
+
+        List<Object> workList = new ArrayList<Object>(16);
+        assertEquals("test", pool.nextWorkBlock(workList, 16));
+        assertTrue(added.await(5, TimeUnit.SECONDS));
+        producer.join();
+    }
+
+    /**
+     * Test a block can be extended only while its client is in progress.
+     * @throws Exception untested
+     */
+    @Test public void extendWorkBlock() throws Exception {
+        this.pool.registerKey("test");
+        for (int i = 0; i < 10; i++) {
+            this.pool.addWorkItem("test", i);
+        }
+        assertEquals(10, this.pool.queueSize("test"));
+        List<Object> workList = new ArrayList<Object>(16);
+        assertEquals(0, this.pool.extendWorkBlock("test", workList, 4));
+
+        assertEquals("test", this.pool.nextWorkBlock(workList, 2));
+        assertEquals(4, this.pool.extendWorkBlock("test", workList, 4));
+        assertEquals(6, workList.size());
+        assertEquals(5, workList.get(5));
+        assertEquals(4, this.pool.queueSize("test"));
+        assertEquals(4, this.pool.extendWorkBlock("test", workList, 10));
+        assertEquals(0, this.pool.queueSize("test"));
+
+        assertFalse(this.pool.finishWorkBlock("test"));
+        assertEquals(0, this.pool.queueSize("unknown"));
+    }
+
+    /**
+     * Test the max queue length can be set.
+     * @throws Exception untested
+     */
+    @Test public void maxQueueLength() throws Exception {
+        final WorkPool<String, Object> pool = new WorkPool<String, Object>(2);
+        pool.registerKey("test");
+        pool.addWorkItem("test", 1);
+        pool.addWorkItem("test", 2);
+        final CountDownLatch added = new CountDownLatch(1);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                pool.addWorkItem("test", 3);
+                added.countDown();
+            }
+        });
+        producer.start();
+        assertFalse(added.await(100, TimeUnit.MILLISECONDS));
+
+        List<Object> workList = new ArrayList<Object>(16);
+        assertEquals("test", pool.nextWorkBlock(workList, 1));
+        assertTrue(added.await(5, TimeUnit.SECONDS));
+        producer.join();
+        assertEquals(2, pool.queueSize("test"));
+    }
+
+    /**
+     * Test items of many clients added and processed concurrently
+     * are all processed once, in order for each client.
+     * @throws Exception untested
+     */
+    @Test public void concurrentClients() throws Exception {
+        final WorkPool<Integer, Integer> pool = new WorkPool<Integer, Integer>();
+        final int clients = 50;
+        final int itemsPerClient = 2000;
+        final int consumers = 8;
+        for (int i = 0; i < clients; i++) {
+            pool.registerKey(i);
+        }
+        final int[] lastItem = new int[clients];
+        final AtomicInteger processed = new AtomicInteger(0);
+        final AtomicBoolean outOfOrder = new AtomicBoolean(false);
+        final CountDownLatch producersDone = new CountDownLatch(clients);
+        for (int i = 0; i < clients; i++) {
+            final int client = i;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int item = 1; item <= itemsPerClient; item++) {
+                        pool.addWorkItem(client, item);
+                    }
+                    producersDone.countDown();
+                }
+            }).start();
+        }
+        List<Thread> consumerThreads = new ArrayList<Thread>();
+        for (int i = 0; i < consumers; i++) {
+            Thread consumer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    List<Integer> block = new ArrayList<Integer>(16);
+                    while (processed.get() < clients * itemsPerClient) {
+                        block.clear();
+                        Integer client = pool.nextWorkBlock(block, 16);
+                        if (client == null) {
+                            Thread.yield();
+                            continue;
+                        }
+                        // a client is in progress in one consumer at most
+                        for (Integer item : block) {
+                            if (item != lastItem[client] + 1) {
+                                outOfOrder.set(true);
+                            }
+                            lastItem[client] = item;
+                        }
+                        processed.addAndGet(block.size());
+                        pool.finishWorkBlock(client);
+                    }
+                }
+            });
+            consumer.start();
+            consumerThreads.add(consumer);
+        }
+        assertTrue(producersDone.await(30, TimeUnit.SECONDS));
+        for (Thread consumer : consumerThreads) {
+            consumer.join(30000);
+        }
+        assertEquals(clients * itemsPerClient, processed.get());
+        assertFalse(outOfOrder.get());
+    }
 }
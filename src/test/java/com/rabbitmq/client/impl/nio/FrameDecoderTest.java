@@ -0,0 +1,162 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.impl.nio;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.MalformedFrameException;
+import com.rabbitmq.client.impl.ByteBufferPool;
+import com.rabbitmq.client.impl.Frame;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit tests for {@link FrameDecoder}
+ */
+public class FrameDecoderTest {
+
+    private final Random random = new Random();
+
+    @Test
+    public void decodeWholeFrames() throws IOException {
+        List<Frame> frames = frames();
+        List<Frame> decoded = decode(encode(frames), Integer.MAX_VALUE, false, null);
+        assertFrames(frames, decoded);
+    }
+
+    @Test
+    public void decodeFramesStraddlingReads() throws IOException {
+        List<Frame> frames = frames();
+        byte[] encoded = encode(frames);
+        for (int chunkSize : new int[] {1, 2, 3, 7, 8, 9, 100, 1000}) {
+            assertFrames(frames, decode(encoded, chunkSize, false, null));
+            assertFrames(frames, decode(encoded, chunkSize, true, null));
+            assertFrames(frames, decode(encoded, chunkSize, false, new ByteBufferPool(512, 4, false)));
+        }
+    }
+
+    @Test
+    public void decodeIntoPooledBuffers() throws IOException {
+        ByteBufferPool pool = new ByteBufferPool(512, 4, false);
+        List<Frame> frames = frames();
+        List<Frame> decoded = decode(encode(frames), 50, true, pool);
+        assertFrames(frames, decoded);
+        for (Frame frame : decoded) {
+            assertEquals(frame.getPayloadSize() > 0 && frame.getPayloadSize() <= 512, frame.isPooled());
+            frame.release();
+        }
+    }
+
+    @Test
+    public void badFrameEndMarker() throws IOException {
+        byte[] encoded = encode(frames());
+        encoded[7 + 10] = 0;
+        FrameDecoder decoder = new FrameDecoder();
+        try {
+            decoder.decode(ByteBuffer.wrap(encoded), null);
+            fail("frame end marker should have been checked");
+        } catch (MalformedFrameException e) {
+            // OK
+        }
+    }
+
+    @Test
+    public void protocolVersionMismatch() throws IOException {
+        byte[] header = new byte[] {'A', 'M', 'Q', 'P', 1, 1, 8, 0};
+        for (int split : new int[] {header.length, 1, 5, 7}) {
+            FrameDecoder decoder = new FrameDecoder();
+            try {
+                ByteBuffer first = ByteBuffer.wrap(header, 0, split);
+                assertNull(decoder.decode(first, null));
+                assertFalse(first.hasRemaining());
+                decoder.decode(ByteBuffer.wrap(header, split, header.length - split), null);
+                fail("protocol header should have been detected");
+            } catch (MalformedFrameException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("server is 0-8"));
+            }
+        }
+    }
+
+    private List<Frame> frames() {
+        List<Frame> frames = new ArrayList<Frame>();
+        frames.add(frame(AMQP.FRAME_METHOD, 1, 10));
+        frames.add(frame(AMQP.FRAME_HEARTBEAT, 0, 0));
+        frames.add(frame(AMQP.FRAME_HEADER, 1, 100));
+        frames.add(frame(AMQP.FRAME_BODY, 1, 512));
+        frames.add(frame(AMQP.FRAME_BODY, 65535, 4000));
+        frames.add(frame(AMQP.FRAME_METHOD, 2, 1));
+        return frames;
+    }
+
+    private Frame frame(int type, int channel, int payloadSize) {
+        byte[] payload = new byte[payloadSize];
+        random.nextBytes(payload);
+        return new Frame(type, channel, payload);
+    }
+
+    private static byte[] encode(List<Frame> frames) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (Frame frame : frames) {
+            frame.writeTo(out);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static List<Frame> decode(byte[] encoded, int chunkSize, boolean direct, ByteBufferPool pool) throws IOException {
+        FrameDecoder decoder = new FrameDecoder();
+        List<Frame> frames = new ArrayList<Frame>();
+        ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(encoded.length) : ByteBuffer.allocate(encoded.length);
+        int offset = 0;
+        while (offset < encoded.length) {
+            // reads reuse the same buffer, like the IO thread
+            buffer.clear();
+            int length = Math.min(chunkSize, encoded.length - offset);
+            buffer.put(encoded, offset, length);
+            buffer.flip();
+            offset += length;
+            Frame frame;
+            while (buffer.hasRemaining()) {
+                if ((frame = decoder.decode(buffer, pool)) != null) {
+                    frames.add(frame);
+                }
+            }
+        }
+        return frames;
+    }
+
+    private static void assertFrames(List<Frame> expected, List<Frame> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).type, actual.get(i).type);
+            assertEquals(expected.get(i).channel, actual.get(i).channel);
+            assertArrayEquals(expected.get(i).getPayload(), actual.get(i).getPayload());
+        }
+    }
+}
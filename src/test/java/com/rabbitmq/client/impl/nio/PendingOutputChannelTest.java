@@ -0,0 +1,124 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.impl.nio;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link PendingOutputChannel}
+ */
+public class PendingOutputChannelTest {
+
+    private ServerSocketChannel server;
+    private SocketChannel client;
+    private SocketChannel peer;
+
+    @Before
+    public void init() throws IOException {
+        server = ServerSocketChannel.open();
+        server.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+        client = SocketChannel.open(new InetSocketAddress("127.0.0.1", server.socket().getLocalPort()));
+        peer = server.accept();
+        client.configureBlocking(false);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        client.close();
+        peer.close();
+        server.close();
+    }
+
+    @Test
+    public void writesDirectlyWhenSocketAcceptsBytes() throws IOException {
+        PendingOutputChannel channel = new PendingOutputChannel(client);
+        ByteBuffer src = ByteBuffer.wrap(new byte[] {1, 2, 3});
+        assertEquals(3, channel.write(src));
+        assertFalse(src.hasRemaining());
+        assertFalse(channel.hasPendingOutput());
+        assertTrue(channel.flushPendingOutput());
+
+        ByteBuffer received = ByteBuffer.allocate(3);
+        while (received.hasRemaining()) {
+            peer.read(received);
+        }
+        assertEquals(1, received.get(0));
+        assertEquals(3, received.get(2));
+    }
+
+    @Test
+    public void keepsWhatTheSocketDoesNotAccept() throws IOException {
+        PendingOutputChannel channel = new PendingOutputChannel(client);
+        int chunkSize = 64 * 1024;
+        int chunks = 0;
+        // the peer doesn't read, the socket buffers end up full
+        while (!channel.hasPendingOutput()) {
+            ByteBuffer chunk = chunk(chunks, chunkSize);
+            assertEquals(chunkSize, channel.write(chunk));
+            assertFalse(chunk.hasRemaining());
+            chunks++;
+        }
+        // written after pending bytes, must not go past them
+        ByteBuffer[] gathered = new ByteBuffer[] {chunk(chunks, chunkSize / 2), chunk(chunks + 1, chunkSize / 2)};
+        assertEquals(chunkSize, channel.write(gathered));
+        chunks++;
+        assertTrue(channel.hasPendingOutput());
+        // pending bytes count as written
+        assertEquals((long) chunks * chunkSize, channel.written());
+
+        ByteBuffer received = ByteBuffer.allocate(chunks * chunkSize);
+        while (received.hasRemaining()) {
+            channel.flushPendingOutput();
+            peer.read(received);
+        }
+        assertTrue(channel.flushPendingOutput());
+        assertFalse(channel.hasPendingOutput());
+
+        received.flip();
+        for (int i = 0; i < chunks - 1; i++) {
+            for (int j = 0; j < chunkSize; j++) {
+                assertEquals((byte) i, received.get());
+            }
+        }
+        for (int j = 0; j < chunkSize / 2; j++) {
+            assertEquals((byte) (chunks - 1), received.get());
+        }
+        for (int j = 0; j < chunkSize / 2; j++) {
+            assertEquals((byte) chunks, received.get());
+        }
+    }
+
+    private static ByteBuffer chunk(int value, int size) {
+        ByteBuffer chunk = ByteBuffer.allocate(size);
+        while (chunk.hasRemaining()) {
+            chunk.put((byte) value);
+        }
+        chunk.flip();
+        return chunk;
+    }
+}
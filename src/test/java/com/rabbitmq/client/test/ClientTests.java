@@ -16,6 +16,10 @@
 
 package com.rabbitmq.client.test;
 
+import com.rabbitmq.client.impl.SharedHeartbeatSenderTest;
+import com.rabbitmq.client.impl.ShortStringCacheTest;
+import com.rabbitmq.client.impl.nio.FrameDecoderTest;
+import com.rabbitmq.client.impl.nio.PendingOutputChannelTest;
 import com.rabbitmq.utility.IntAllocatorTests;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
@@ -45,7 +49,26 @@ import org.junit.runners.Suite;
     DnsRecordIpAddressResolverTests.class,
     StandardMetricsCollectorTest.class,
     DnsSrvRecordAddressResolverTest.class,
-    JavaNioTest.class
+    JavaNioTest.class,
+    FrameEncoderTest.class,
+    PooledInboundFramesTest.class,
+    PublishBatchTest.class,
+    CoalescingFlusherTest.class,
+    ConfirmTrackerTest.class,
+    PublishConfirmTest.class,
+    ConfirmWindowTest.class,
+    ConsumerWorkServiceTest.class,
+    InlineConsumerTest.class,
+    VirtualThreadsTest.class,
+    TimingWheelTest.class,
+    SharedHeartbeatSenderTest.class,
+    WriteQueueTest.class,
+    PendingOutputChannelTest.class,
+    FrameDecoderTest.class,
+    LazyContentHeaderPropertiesTest.class,
+    LazyTableTest.class,
+    ShortStringCacheTest.class,
+    PublishTemplateTest.class
 })
 public class ClientTests {
 
@@ -0,0 +1,195 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.test;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ExtendedMetricsCollector;
+import com.rabbitmq.client.NoOpMetricsCollector;
+import com.rabbitmq.client.impl.AMQConnection;
+import com.rabbitmq.client.impl.ByteBufferPool;
+import com.rabbitmq.client.impl.CoalescingFlusher;
+import com.rabbitmq.client.impl.EncodedFrameHandler;
+import com.rabbitmq.client.impl.Frame;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks when {@link CoalescingFlusher} flushes.
+ */
+public class CoalescingFlusherTest {
+
+    static final long NO_DEADLINE = Long.MAX_VALUE / 1000;
+
+    @Test public void lastWriterOutFlushes() throws IOException {
+        FlushCountingFrameHandler handler = new FlushCountingFrameHandler();
+        RecordingMetricsCollector metrics = new RecordingMetricsCollector();
+        CoalescingFlusher flusher = new CoalescingFlusher(handler, Integer.MAX_VALUE, NO_DEADLINE, null, metrics);
+
+        flusher.enter();
+        flusher.enter();
+        flusher.written(3, 100);
+        flusher.leave(true);
+        assertEquals(0, handler.flushes);
+        flusher.written(3, 100);
+        flusher.leave(true);
+        assertEquals(1, handler.flushes);
+
+        assertEquals(1, flusher.getFlushCount());
+        assertEquals(6, flusher.getFlushedFrameCount());
+        assertEquals(1, metrics.framesPerFlush.size());
+        assertEquals(6, metrics.framesPerFlush.get(0).intValue());
+    }
+
+    @Test public void thresholdTriggersFlush() throws IOException {
+        FlushCountingFrameHandler handler = new FlushCountingFrameHandler();
+        CoalescingFlusher flusher = new CoalescingFlusher(handler, 1000, NO_DEADLINE, null, new NoOpMetricsCollector());
+
+        flusher.enter();
+        flusher.enter();
+        flusher.written(1, 999);
+        flusher.leave(true);
+        assertEquals(0, handler.flushes);
+
+        flusher.enter();
+        flusher.written(1, 1);
+        flusher.leave(true);
+        assertEquals(1, handler.flushes);
+        flusher.leave(true);
+        assertEquals(2, handler.flushes);
+        // the last flush had nothing to send
+        assertEquals(1, flusher.getFlushCount());
+    }
+
+    @Test public void deadlineTriggersFlush() throws IOException {
+        FlushCountingFrameHandler handler = new FlushCountingFrameHandler();
+        CoalescingFlusher flusher = new CoalescingFlusher(handler, Integer.MAX_VALUE, 0, null, new NoOpMetricsCollector());
+
+        flusher.enter();
+        flusher.enter();
+        flusher.written(1, 10);
+        flusher.leave(true);
+        assertEquals(1, handler.flushes);
+    }
+
+    @Test public void failedWriterDoesNotFlush() throws IOException {
+        FlushCountingFrameHandler handler = new FlushCountingFrameHandler();
+        CoalescingFlusher flusher = new CoalescingFlusher(handler, Integer.MAX_VALUE, NO_DEADLINE, null, new NoOpMetricsCollector());
+
+        flusher.enter();
+        flusher.enter();
+        flusher.leave(false);
+        flusher.written(1, 10);
+        flusher.leave(true);
+        assertEquals(1, handler.flushes);
+        assertEquals(1, flusher.getFlushedFrameCount());
+    }
+
+    @Test public void lastWriterOutFlushesEvenIfItFailed() throws IOException {
+        FlushCountingFrameHandler handler = new FlushCountingFrameHandler();
+        CoalescingFlusher flusher = new CoalescingFlusher(handler, Integer.MAX_VALUE, NO_DEADLINE, null, new NoOpMetricsCollector());
+
+        flusher.enter();
+        flusher.enter();
+        flusher.written(1, 10);
+        flusher.leave(true);
+        assertEquals(0, handler.flushes);
+        // the frames of the first writer are not stranded
+        flusher.leave(false);
+        assertEquals(1, handler.flushes);
+        assertEquals(1, flusher.getFlushedFrameCount());
+
+        // nothing pending, nothing to flush
+        flusher.enter();
+        flusher.leave(false);
+        assertEquals(1, handler.flushes);
+    }
+
+    @Test public void failedWriterDoesNotReportFlushFailure() throws IOException {
+        FlushCountingFrameHandler handler = new FlushCountingFrameHandler();
+        handler.failure = new IOException("broken pipe");
+        CoalescingFlusher flusher = new CoalescingFlusher(handler, Integer.MAX_VALUE, NO_DEADLINE, null, new NoOpMetricsCollector());
+
+        flusher.enter();
+        flusher.written(1, 10);
+        // the writer has its own failure to report
+        flusher.leave(false);
+        assertEquals(1, handler.flushes);
+    }
+
+    static class RecordingMetricsCollector extends NoOpMetricsCollector implements ExtendedMetricsCollector {
+
+        final List<Integer> framesPerFlush = new ArrayList<Integer>();
+
+        @Override
+        public void framesFlushed(Connection connection, int frames) {
+            framesPerFlush.add(frames);
+        }
+
+        @Override
+        public void unconfirmedMessages(Channel channel, int unconfirmed) {
+        }
+
+        @Override
+        public void consumerQueueDepth(Channel channel, int depth) {
+        }
+    }
+
+    static class FlushCountingFrameHandler implements EncodedFrameHandler {
+
+        int flushes = 0;
+
+        IOException failure = null;
+
+        @Override public void setTimeout(int timeoutMs) { }
+
+        @Override public int getTimeout() { return 0; }
+
+        @Override public void sendHeader() { }
+
+        @Override public void initialize(AMQConnection connection) { }
+
+        @Override public Frame readFrame() { return null; }
+
+        @Override public void writeFrame(Frame frame) { }
+
+        @Override public void writeFrames(ByteBuffer frames, ByteBufferPool pool) { }
+
+        @Override public void flush() throws IOException {
+            flushes++;
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        @Override public void close() { }
+
+        @Override public InetAddress getLocalAddress() { return null; }
+
+        @Override public int getLocalPort() { return -1; }
+
+        @Override public InetAddress getAddress() { return null; }
+
+        @Override public int getPort() { return -1; }
+    }
+}
@@ -0,0 +1,173 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.test;
+
+import com.rabbitmq.client.impl.ConfirmTracker;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks {@link ConfirmTracker} against a {@link TreeSet}.
+ */
+public class ConfirmTrackerTest {
+
+    @Test public void singleAcks() {
+        ConfirmTracker<Object> tracker = new ConfirmTracker<Object>();
+        for (long i = 1; i <= 10; i++) {
+            tracker.add(i);
+        }
+        assertEquals(10, tracker.size());
+        assertTrue(tracker.remove(1));
+        assertFalse(tracker.remove(1));
+        assertTrue(tracker.remove(5));
+        assertFalse(tracker.remove(42));
+        assertEquals(8, tracker.size());
+        assertEquals(2, tracker.first());
+    }
+
+    @Test public void multipleAcks() {
+        ConfirmTracker<Object> tracker = new ConfirmTracker<Object>();
+        for (long i = 1; i <= 200; i++) {
+            tracker.add(i);
+        }
+        tracker.remove(150);
+        assertEquals(100, tracker.removeUpTo(100));
+        assertEquals(101, tracker.first());
+        assertEquals(99, tracker.removeUpTo(1000));
+        assertTrue(tracker.isEmpty());
+        assertEquals(-1, tracker.first());
+        assertEquals(0, tracker.removeUpTo(1000));
+
+        // the window starts again from the next sequence number
+        tracker.add(201);
+        assertEquals(201, tracker.first());
+        assertEquals(1, tracker.removeUpTo(201));
+    }
+
+    @Test public void windowGrowsWhileOldestIsUnconfirmed() {
+        ConfirmTracker<Object> tracker = new ConfirmTracker<Object>();
+        int count = 50000;
+        for (long i = 1; i <= count; i++) {
+            tracker.add(i);
+            if (i > 1) {
+                tracker.remove(i - 1);
+            }
+        }
+        // only the last one is left
+        assertEquals(1, tracker.size());
+        assertEquals(count, tracker.first());
+
+        tracker = new ConfirmTracker<Object>();
+        for (long i = 1; i <= count; i++) {
+            tracker.add(i);
+        }
+        assertEquals(count, tracker.size());
+        assertEquals(count - 1, tracker.removeUpTo(count - 1));
+        assertEquals(count, tracker.first());
+    }
+
+    @Test public void sameAsSortedSet() {
+        Random random = new Random(42);
+        ConfirmTracker<Object> tracker = new ConfirmTracker<Object>();
+        SortedSet<Long> set = new TreeSet<Long>();
+        long next = 1;
+        for (int i = 0; i < 100000; i++) {
+            int operation = random.nextInt(10);
+            if (operation < 6) {
+                tracker.add(next);
+                set.add(next);
+                next++;
+            } else if (operation < 9) {
+                long seqNo = next - 1 - random.nextInt(2000);
+                assertEquals(set.remove(seqNo), tracker.remove(seqNo));
+            } else {
+                long seqNo = next - 1 - random.nextInt(2000);
+                SortedSet<Long> head = set.headSet(seqNo + 1);
+                int expected = head.size();
+                head.clear();
+                assertEquals(expected, tracker.removeUpTo(seqNo));
+            }
+            assertEquals(set.size(), tracker.size());
+            assertEquals(set.isEmpty() ? -1 : set.first(), tracker.first());
+        }
+    }
+
+    @Test public void attachmentsAreHandedBackInOrder() {
+        ConfirmTracker<String> tracker = new ConfirmTracker<String>();
+        // enough to make the window grow with attachments in it
+        int count = 5000;
+        for (long i = 1; i <= count; i++) {
+            tracker.add(i, i % 2 == 0 ? "m" + i : null);
+        }
+        List<String> removed = new ArrayList<String>();
+        assertTrue(tracker.remove(2, removed));
+        assertTrue(tracker.remove(3, removed));
+        assertEquals(Arrays.asList("m2"), removed);
+
+        removed.clear();
+        assertEquals(8, tracker.removeUpTo(10, removed));
+        assertEquals(Arrays.asList("m4", "m6", "m8", "m10"), removed);
+
+        removed.clear();
+        tracker.removeAttachments(removed);
+        assertEquals(count / 2 - 5, removed.size());
+        assertEquals("m12", removed.get(0));
+        assertEquals("m" + count, removed.get(removed.size() - 1));
+        // the sequence numbers stay, without their attachments
+        assertEquals(count - 10, tracker.size());
+        removed.clear();
+        tracker.removeUpTo(count, removed);
+        assertTrue(removed.isEmpty());
+        assertTrue(tracker.isEmpty());
+    }
+
+    @Test public void lastSequenceNumbersCanBeRemovedAndAddedAgain() {
+        ConfirmTracker<String> tracker = new ConfirmTracker<String>();
+        for (long i = 1; i <= 100; i++) {
+            tracker.add(i, "m" + i);
+        }
+        assertTrue(tracker.remove(99));
+        assertEquals(10, tracker.removeFrom(90));
+        assertEquals(89, tracker.size());
+        assertEquals(0, tracker.removeFrom(90));
+
+        // the removed sequence numbers are reused
+        tracker.add(90, "n90");
+        tracker.add(91);
+        assertEquals(91, tracker.size());
+        List<String> removed = new ArrayList<String>();
+        assertEquals(91, tracker.removeUpTo(91, removed));
+        assertEquals(90, removed.size());
+        assertEquals("n90", removed.get(removed.size() - 1));
+        assertTrue(tracker.isEmpty());
+
+        tracker.add(200);
+        assertEquals(1, tracker.removeFrom(1));
+        assertTrue(tracker.isEmpty());
+        tracker.add(1);
+        assertEquals(1, tracker.first());
+    }
+}
@@ -0,0 +1,213 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.test;
+
+import com.rabbitmq.client.AlreadyClosedException;
+import com.rabbitmq.client.ConfirmWindowFullException;
+import com.rabbitmq.client.PublishBatch;
+import com.rabbitmq.client.ShutdownSignalException;
+import com.rabbitmq.client.impl.AMQCommand;
+import com.rabbitmq.client.impl.AMQImpl;
+import com.rabbitmq.client.impl.ChannelN;
+import com.rabbitmq.client.impl.ConnectionParams;
+import com.rabbitmq.client.impl.Frame;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the max number of unconfirmed messages per channel.
+ */
+public class ConfirmWindowTest {
+
+    final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test public void failFastWhenFull() throws Exception {
+        ChannelN channel = PublishConfirmTest.confirmChannel(connection(2, false), executor);
+        channel.basicPublish("", "q", null, new byte[0]);
+        channel.basicPublish("", "q", null, new byte[0]);
+        try {
+            channel.basicPublish("", "q", null, new byte[0]);
+            fail("the window is full");
+        } catch (ConfirmWindowFullException e) {
+            assertEquals(2, e.getMaxUnconfirmedMessages());
+        }
+        // the rejected message doesn't get a sequence number
+        assertEquals(3, channel.getNextPublishSeqNo());
+
+        channel.handleCompleteInboundCommand(new AMQCommand(new AMQImpl.Basic.Ack(1, false)));
+        channel.basicPublish("", "q", null, new byte[0]);
+    }
+
+    @Test public void blockUntilConfirmed() throws Exception {
+        final ChannelN channel = PublishConfirmTest.confirmChannel(connection(2, true), executor);
+        channel.basicPublish("", "q", null, new byte[0]);
+        channel.basicPublish("", "q", null, new byte[0]);
+
+        final CountDownLatch published = new CountDownLatch(2);
+        for (int i = 0; i < 2; i++) {
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        channel.basicPublish("", "q", null, new byte[0]);
+                        published.countDown();
+                    } catch (Exception e) {
+                        // the latch is not counted down
+                    }
+                }
+            });
+        }
+        assertFalse(published.await(100, TimeUnit.MILLISECONDS));
+
+        channel.handleCompleteInboundCommand(new AMQCommand(new AMQImpl.Basic.Ack(2, true)));
+        assertTrue(published.await(5, TimeUnit.SECONDS));
+        assertEquals(5, channel.getNextPublishSeqNo());
+    }
+
+    @Test public void closeWakesUpBlockedPublishers() throws Exception {
+        final ChannelN channel = PublishConfirmTest.confirmChannel(connection(1, true), executor);
+        channel.basicPublish("", "q", null, new byte[0]);
+
+        final AtomicReference<Exception> error = new AtomicReference<Exception>();
+        final CountDownLatch done = new CountDownLatch(1);
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    channel.basicPublish("", "q", null, new byte[0]);
+                } catch (Exception e) {
+                    error.set(e);
+                }
+                done.countDown();
+            }
+        });
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+
+        channel.processShutdownSignal(new ShutdownSignalException(false, false, null, channel), true, false);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(error.get() instanceof AlreadyClosedException);
+    }
+
+    @Test public void failedPublishGivesItsRoomBack() throws Exception {
+        final AtomicBoolean failWrites = new AtomicBoolean(false);
+        ConnectionParams params = PublishBatchTest.RecordingConnection.params();
+        params.setMaxUnconfirmedMessagesPerChannel(1);
+        params.setBlockOnMaxUnconfirmedMessages(false);
+        PublishBatchTest.RecordingConnection connection = new PublishBatchTest.RecordingConnection(params) {
+            @Override
+            public void writeFrame(Frame f) {
+                if (failWrites.get()) {
+                    throw new IllegalStateException("write failed");
+                }
+                super.writeFrame(f);
+            }
+        };
+        ChannelN channel = PublishConfirmTest.confirmChannel(connection, executor);
+
+        failWrites.set(true);
+        for (int i = 0; i < 3; i++) {
+            try {
+                channel.basicPublishWithConfirm("", "q", null, new byte[0]);
+                fail("the write fails");
+            } catch (IllegalStateException expected) {
+            }
+        }
+        // nothing is left to confirm, and there is room for another message
+        assertTrue(channel.waitForConfirms(1000));
+        failWrites.set(false);
+        channel.basicPublishWithConfirm("", "q", null, new byte[0]);
+    }
+
+    @Test public void unsentMessageIsNotTracked() throws Exception {
+        final ChannelN channel = PublishConfirmTest.confirmChannel(connection(1, true), executor);
+        try {
+            // the routing key can't be encoded, the channel stays open
+            channel.basicPublish("", longRoutingKey(), null, new byte[0]);
+            fail("the routing key is too long");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(1, channel.getNextPublishSeqNo());
+        assertTrue(channel.waitForConfirms(1000));
+
+        // the room is back, this doesn't block
+        Future<?> published = executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                channel.basicPublish("", "q", null, new byte[0]);
+                return null;
+            }
+        });
+        published.get(5, TimeUnit.SECONDS);
+        // and the broker's confirm for sequence number 1 is for this message
+        channel.handleCompleteInboundCommand(new AMQCommand(new AMQImpl.Basic.Ack(1, false)));
+        assertTrue(channel.waitForConfirms(1000));
+    }
+
+    @Test public void unsentMessagesOfBatchAreNotTracked() throws Exception {
+        ChannelN channel = PublishConfirmTest.confirmChannel(connection(3, false), executor);
+        PublishBatch batch = new PublishBatch()
+            .add("", "q", null, new byte[0])
+            .add("", longRoutingKey(), null, new byte[0])
+            .add("", "q", null, new byte[0]);
+        try {
+            channel.basicPublish(batch);
+            fail("the routing key is too long");
+        } catch (IllegalArgumentException expected) {
+        }
+        // the first message was sent
+        assertEquals(2, channel.getNextPublishSeqNo());
+
+        // the window has room for 2 messages again
+        channel.basicPublish(new PublishBatch()
+            .add("", "q", null, new byte[0])
+            .add("", "q", null, new byte[0]));
+        channel.handleCompleteInboundCommand(new AMQCommand(new AMQImpl.Basic.Ack(3, true)));
+        assertTrue(channel.waitForConfirms(1000));
+    }
+
+    private static String longRoutingKey() {
+        StringBuilder routingKey = new StringBuilder();
+        for (int i = 0; i < 256; i++) {
+            routingKey.append('k');
+        }
+        return routingKey.toString();
+    }
+
+    static PublishBatchTest.RecordingConnection connection(int maxUnconfirmed, boolean block) {
+        ConnectionParams params = PublishBatchTest.RecordingConnection.params();
+        params.setMaxUnconfirmedMessagesPerChannel(maxUnconfirmed);
+        params.setBlockOnMaxUnconfirmedMessages(block);
+        return new PublishBatchTest.RecordingConnection(params);
+    }
+}
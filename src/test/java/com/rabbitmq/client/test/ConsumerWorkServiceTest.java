@@ -0,0 +1,329 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.test;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ExtendedMetricsCollector;
+import com.rabbitmq.client.NoOpMetricsCollector;
+import com.rabbitmq.client.impl.ConsumerDispatchParams;
+import com.rabbitmq.client.impl.ConsumerWorkService;
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the scheduling of consumer callbacks across channels.
+ */
+public class ConsumerWorkServiceTest {
+
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @After public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test public void roundRobin() throws Exception {
+        List<String> runs = run(new ConsumerDispatchParams().setBlockSize(2), 4);
+        assertEquals(asList("a", "a", "b", "b", "a", "a", "b", "b"), runs);
+    }
+
+    @Test public void drain() throws Exception {
+        List<String> runs = run(new ConsumerDispatchParams().setBlockSize(2)
+            .setScheduling(ConsumerDispatchParams.Scheduling.DRAIN), 4);
+        assertEquals(asList("a", "a", "a", "a", "b", "b", "b", "b"), runs);
+    }
+
+    @Test public void weighted() throws Exception {
+        final Channel a = channel("a");
+        List<String> runs = run(a, channel("b"), new ConsumerDispatchParams().setBlockSize(1)
+            .setScheduling(ConsumerDispatchParams.Scheduling.WEIGHTED)
+            .setChannelWeigher(new ConsumerDispatchParams.ChannelWeigher() {
+                @Override
+                public int weigh(Channel channel) {
+                    return channel == a ? 3 : 1;
+                }
+            }), 4);
+        assertEquals(asList("a", "a", "a", "b", "a", "b", "b", "b"), runs);
+    }
+
+    @Test public void queueDepthMetrics() throws Exception {
+        QueueDepthMetricsCollector metrics = new QueueDepthMetricsCollector();
+        ConsumerWorkService service = new ConsumerWorkService(executor, null, 0,
+            new ConsumerDispatchParams().setBlockSize(2), metrics);
+        Channel channel = channel("a");
+        service.registerKey(channel);
+        CountDownLatch done = new CountDownLatch(100);
+        for (int i = 0; i < 100; i++) {
+            service.addWork(channel, countDown(done));
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        // the first block is sampled, the next ones only once per interval
+        assertFalse(metrics.sampledChannels.isEmpty());
+        assertTrue(metrics.sampledChannels.size() < 50);
+        assertTrue(metrics.sampledChannels.get(0) == channel);
+    }
+
+    @Test public void queueDepthMetricsWithChannelAffinity() throws Exception {
+        QueueDepthMetricsCollector metrics = new QueueDepthMetricsCollector();
+        ConsumerWorkService service = new ConsumerWorkService(null, Executors.defaultThreadFactory(), 0,
+            new ConsumerDispatchParams().setAffinityThreads(1), metrics);
+        try {
+            Channel channel = channel("a");
+            service.registerKey(channel);
+            CountDownLatch done = new CountDownLatch(100);
+            for (int i = 0; i < 100; i++) {
+                service.addWork(channel, countDown(done));
+            }
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertFalse(metrics.sampledChannels.isEmpty());
+            assertTrue(metrics.sampledChannels.size() < 100);
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test public void channelAffinity() throws Exception {
+        ConsumerWorkService service = new ConsumerWorkService(null, Executors.defaultThreadFactory(), 0,
+            new ConsumerDispatchParams().setAffinityThreads(2), new NoOpMetricsCollector());
+        try {
+            Channel one = channel("one", 1);
+            Channel two = channel("two", 2);
+            service.registerKey(one);
+            service.registerKey(two);
+            final List<Thread> oneThreads = new CopyOnWriteArrayList<Thread>();
+            final List<Thread> twoThreads = new CopyOnWriteArrayList<Thread>();
+            final List<Integer> oneItems = new CopyOnWriteArrayList<Integer>();
+            CountDownLatch done = new CountDownLatch(200);
+            for (int i = 0; i < 100; i++) {
+                service.addWork(one, recordThread(oneThreads, oneItems, i, done));
+                service.addWork(two, recordThread(twoThreads, null, i, done));
+            }
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertEquals(1, new HashSet<Thread>(oneThreads).size());
+            assertEquals(1, new HashSet<Thread>(twoThreads).size());
+            assertNotSame(oneThreads.get(0), twoThreads.get(0));
+            for (int i = 0; i < 100; i++) {
+                assertEquals(i, oneItems.get(i).intValue());
+            }
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test public void channelAffinityRebalancing() throws Exception {
+        ConsumerWorkService service = new ConsumerWorkService(null, Executors.defaultThreadFactory(), 0,
+            new ConsumerDispatchParams().setAffinityThreads(2).setAffinityRebalanceThreshold(1),
+            new NoOpMetricsCollector());
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            // both channels are pinned to the first loop
+            Channel busy = channel("busy", 2);
+            Channel other = channel("other", 4);
+            service.registerKey(busy);
+            service.registerKey(other);
+            service.addWork(busy, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            CountDownLatch otherDone = new CountDownLatch(1);
+            service.addWork(other, countDown(otherDone));
+            // the other channel moved to the idle loop
+            assertTrue(otherDone.await(2, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            service.shutdown();
+        }
+    }
+
+    @Test public void fullQueuePausesReads() throws Exception {
+        ConsumerWorkService service = new ConsumerWorkService(executor, null, 0,
+            new ConsumerDispatchParams().setQueueCapacity(4)
+                .setBackpressure(ConsumerDispatchParams.Backpressure.PAUSE_READS),
+            new NoOpMetricsCollector());
+        final CountDownLatch resumed = new CountDownLatch(1);
+        service.setReadResumer(countDown(resumed));
+        Channel channel = channel("a");
+        service.registerKey(channel);
+        final CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(10);
+        service.addWork(channel, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        // the queue goes over capacity, but the caller isn't blocked
+        for (int i = 0; i < 10; i++) {
+            service.addWork(channel, countDown(done));
+        }
+        assertTrue(service.isSaturated());
+        assertFalse(service.awaitUnsaturated(50));
+
+        // a channel waiting for a RPC response needs reads
+        service.setUnlimited(channel, true);
+        assertFalse(service.isSaturated());
+        service.setUnlimited(channel, false);
+        assertTrue(service.isSaturated());
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(resumed.await(5, TimeUnit.SECONDS));
+        assertTrue(service.awaitUnsaturated(1000));
+        assertFalse(service.isSaturated());
+    }
+
+    private List<String> run(ConsumerDispatchParams params, int itemsPerChannel) throws Exception {
+        return run(channel("a"), channel("b"), params, itemsPerChannel);
+    }
+
+    private List<String> run(Channel a, Channel b, ConsumerDispatchParams params, int itemsPerChannel) throws Exception {
+        ConsumerWorkService service = new ConsumerWorkService(executor, null, 0, params,
+            new NoOpMetricsCollector());
+        service.registerKey(a);
+        service.registerKey(b);
+        // hold the only dispatch thread until all the work is queued
+        final CountDownLatch queued = new CountDownLatch(1);
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    queued.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        final List<String> runs = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch done = new CountDownLatch(2 * itemsPerChannel);
+        for (int i = 0; i < itemsPerChannel; i++) {
+            service.addWork(a, record(runs, a.toString(), done));
+        }
+        for (int i = 0; i < itemsPerChannel; i++) {
+            service.addWork(b, record(runs, b.toString(), done));
+        }
+        queued.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        return runs;
+    }
+
+    private static Runnable record(final List<String> runs, final String label, final CountDownLatch done) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                runs.add(label);
+                done.countDown();
+            }
+        };
+    }
+
+    private static Runnable recordThread(final List<Thread> threads, final List<Integer> items,
+                                         final int item, final CountDownLatch done) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                threads.add(Thread.currentThread());
+                if (items != null) {
+                    items.add(item);
+                }
+                done.countDown();
+            }
+        };
+    }
+
+    private static Runnable countDown(final CountDownLatch latch) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        };
+    }
+
+    private static Channel channel(String name) {
+        return channel(name, 1);
+    }
+
+    private static Channel channel(final String name, final int number) {
+        return (Channel) Proxy.newProxyInstance(Channel.class.getClassLoader(), new Class<?>[] {Channel.class},
+            new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if ("toString".equals(method.getName())) {
+                        return name;
+                    } else if ("hashCode".equals(method.getName())) {
+                        return System.identityHashCode(proxy);
+                    } else if ("equals".equals(method.getName())) {
+                        return proxy == args[0];
+                    } else if ("getChannelNumber".equals(method.getName())) {
+                        return number;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            });
+    }
+
+    static class QueueDepthMetricsCollector extends NoOpMetricsCollector implements ExtendedMetricsCollector {
+
+        final List<Channel> sampledChannels = new CopyOnWriteArrayList<Channel>();
+
+        @Override
+        public void framesFlushed(Connection connection, int frames) {
+        }
+
+        @Override
+        public void unconfirmedMessages(Channel channel, int unconfirmed) {
+        }
+
+        @Override
+        public void consumerQueueDepth(Channel channel, int depth) {
+            sampledChannels.add(channel);
+        }
+    }
+
+    private static List<String> asList(String... labels) {
+        List<String> list = new ArrayList<String>();
+        Collections.addAll(list, labels);
+        return list;
+    }
+}
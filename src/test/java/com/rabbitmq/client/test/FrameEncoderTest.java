@@ -0,0 +1,199 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.test;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.PublishTemplate;
+import com.rabbitmq.client.impl.AMQCommand;
+import com.rabbitmq.client.impl.AMQConnection;
+import com.rabbitmq.client.impl.AMQContentHeader;
+import com.rabbitmq.client.impl.AMQImpl;
+import com.rabbitmq.client.impl.ByteBufferPool;
+import com.rabbitmq.client.impl.ConnectionParams;
+import com.rabbitmq.client.impl.Frame;
+import com.rabbitmq.client.impl.FrameEncoder;
+import com.rabbitmq.client.impl.Method;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks {@link FrameEncoder} produces the same bytes as {@link Frame}s.
+ */
+public class FrameEncoderTest {
+
+    static final int FRAME_MAX = 4096;
+
+    @Test public void methodOnly() throws IOException {
+        Method method = new AMQImpl.Basic.Ack(42L, true);
+        RecordingConnection connection = new RecordingConnection();
+        new FrameEncoder(connection, connection.pool).encode(1, method, null, null);
+
+        assertArrayEquals(legacyFrames(1, method, null, null), connection.written.toByteArray());
+        assertEquals(1, connection.buffersWritten);
+    }
+
+    @Test public void methodWithLargeContent() throws IOException {
+        Map<String, Object> headers = new HashMap<String, Object>();
+        headers.put("foo", "bar");
+        headers.put("number", 42);
+        AMQP.BasicProperties properties = new AMQP.BasicProperties.Builder()
+            .contentType("application/octet-stream")
+            .headers(headers)
+            .deliveryMode(2)
+            .build();
+        byte[] body = new byte[3 * FRAME_MAX + 100];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) i;
+        }
+        Method method = (Method) new AMQImpl.Basic.Publish.Builder().exchange("amq.direct").routingKey("rk").build();
+
+        RecordingConnection connection = new RecordingConnection();
+        FrameEncoder encoder = new FrameEncoder(connection, connection.pool);
+        // twice, to make sure the encoder can be reused
+        encoder.encode(3, method, (AMQContentHeader) properties, body);
+        encoder.encode(3, method, (AMQContentHeader) properties, body);
+
+        byte[] expected = legacyFrames(3, method, (AMQContentHeader) properties, body);
+        ByteArrayOutputStream twice = new ByteArrayOutputStream();
+        twice.write(expected);
+        twice.write(expected);
+        assertArrayEquals(twice.toByteArray(), connection.written.toByteArray());
+    }
+
+    @Test public void emptyContent() throws IOException {
+        Method method = (Method) new AMQImpl.Basic.Publish.Builder().exchange("").routingKey("q").build();
+        AMQContentHeader header = new AMQP.BasicProperties();
+        RecordingConnection connection = new RecordingConnection();
+        new FrameEncoder(connection, connection.pool).encode(1, method, header, new byte[0]);
+
+        assertArrayEquals(legacyFrames(1, method, header, new byte[0]), connection.written.toByteArray());
+        assertEquals(1, connection.buffersWritten);
+    }
+
+    @Test public void methodLargerThanFrameMaxIsSentAsFrame() throws IOException {
+        Map<String, Object> arguments = Collections.<String, Object>singletonMap("big", new String(new char[2 * FRAME_MAX]));
+        Method method = (Method) new AMQImpl.Queue.Declare.Builder().queue("q").arguments(arguments).build();
+        RecordingConnection connection = new RecordingConnection();
+        new FrameEncoder(connection, connection.pool).encode(1, method, null, null);
+
+        assertArrayEquals(legacyFrames(1, method, null, null), connection.written.toByteArray());
+        assertEquals(0, connection.buffersWritten);
+        assertEquals(1, connection.framesWritten);
+    }
+
+    @Test public void publishTemplate() throws IOException {
+        Map<String, Object> headers = new HashMap<String, Object>();
+        headers.put("foo", "bar");
+        headers.put("number", 42);
+        AMQP.BasicProperties properties = new AMQP.BasicProperties.Builder()
+            .contentType("text/plain")
+            .headers(headers)
+            .build();
+        PublishTemplate template = new PublishTemplate("amq.direct", "rk", true, properties);
+        Method method = (Method) new AMQImpl.Basic.Publish.Builder()
+            .exchange("amq.direct").routingKey("rk").mandatory(true).build();
+        byte[] small = "hello".getBytes();
+        byte[] large = new byte[2 * FRAME_MAX + 10];
+
+        RecordingConnection connection = new RecordingConnection();
+        FrameEncoder encoder = new FrameEncoder(connection, connection.pool);
+        // only the body size changes from one message to the next
+        encoder.encode(2, template.getEncoded(), small);
+        encoder.encode(2, template.getEncoded(), large);
+        encoder.encode(2, template.getEncoded(), new byte[0]);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(legacyFrames(2, method, (AMQContentHeader) properties, small));
+        expected.write(legacyFrames(2, method, (AMQContentHeader) properties, large));
+        expected.write(legacyFrames(2, method, (AMQContentHeader) properties, new byte[0]));
+        assertArrayEquals(expected.toByteArray(), connection.written.toByteArray());
+    }
+
+    @Test public void publishTemplateHeaderLargerThanFrameMaxIsSentAsFrame() throws IOException {
+        Map<String, Object> headers = Collections.<String, Object>singletonMap("big", new String(new char[2 * FRAME_MAX]));
+        AMQP.BasicProperties properties = new AMQP.BasicProperties.Builder().headers(headers).build();
+        PublishTemplate template = new PublishTemplate("", "q", properties);
+        Method method = (Method) new AMQImpl.Basic.Publish.Builder().exchange("").routingKey("q").build();
+        byte[] body = "hello".getBytes();
+
+        RecordingConnection connection = new RecordingConnection();
+        new FrameEncoder(connection, connection.pool).encode(1, template.getEncoded(), body);
+
+        assertArrayEquals(legacyFrames(1, method, (AMQContentHeader) properties, body), connection.written.toByteArray());
+        assertEquals(1, connection.framesWritten);
+    }
+
+    private static byte[] legacyFrames(int channelNumber, Method method, AMQContentHeader header, byte[] body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        method.toFrame(channelNumber).writeTo(out);
+        if (method.hasContent()) {
+            header.toFrame(channelNumber, body.length).writeTo(out);
+            int bodyPayloadMax = FRAME_MAX - AMQCommand.EMPTY_FRAME_SIZE;
+            for (int offset = 0; offset < body.length; offset += bodyPayloadMax) {
+                int fragmentLength = Math.min(body.length - offset, bodyPayloadMax);
+                Frame.fromBodyFragment(channelNumber, body, offset, fragmentLength).writeTo(out);
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static class RecordingConnection extends AMQConnection {
+
+        final ByteBufferPool pool = new ByteBufferPool(FRAME_MAX, 2, false);
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        int buffersWritten = 0;
+        int framesWritten = 0;
+
+        RecordingConnection() {
+            super(params(), null);
+        }
+
+        static ConnectionParams params() {
+            ConnectionParams params = new ConnectionParams();
+            params.setClientProperties(new HashMap<String, Object>());
+            return params;
+        }
+
+        @Override
+        public void writeFrames(ByteBuffer frames, ByteBufferPool pool) {
+            buffersWritten++;
+            while (frames.hasRemaining()) {
+                written.write(frames.get());
+            }
+            pool.release(frames);
+        }
+
+        @Override
+        public void writeFrame(Frame f) throws IOException {
+            framesWritten++;
+            DataOutputStream out = new DataOutputStream(written);
+            f.writeTo(out);
+            out.flush();
+        }
+    }
+}
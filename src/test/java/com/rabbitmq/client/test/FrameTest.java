@@ -1,21 +1,29 @@
 package com.rabbitmq.client.test;
 
 import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.impl.ByteBufferPool;
 import com.rabbitmq.client.impl.Frame;
+import com.rabbitmq.client.impl.FrameHandler;
 import com.rabbitmq.client.impl.nio.ByteBufferInputStream;
 import com.rabbitmq.client.impl.nio.ByteBufferOutputStream;
+import com.rabbitmq.client.impl.nio.GatheringFrameWriteRequest;
 import org.junit.Test;
 
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.util.*;
 
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertThat;
 
 /**
@@ -129,6 +137,64 @@ public class FrameTest {
         checkWrittenChunks(totalFrameSize, channel);
     }
 
+    @Test public void writeWrappedBodyFragment() throws IOException {
+        byte[] body = new byte[20000];
+        new Random().nextBytes(body);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        Frame.fromBodyFragment(1, body, 5000, 10000).writeTo(new DataOutputStream(expected));
+
+        Frame frame = Frame.wrapBodyFragment(1, body, 5000, 10000);
+        assertThat(frame.size(), equalTo(expected.size()));
+        assertThat(frame.getPayload().length, equalTo(10000));
+
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        frame.writeTo(new DataOutputStream(written));
+        assertThat(written.toByteArray(), equalTo(expected.toByteArray()));
+
+        AccumulatorWritableByteChannel channel = new AccumulatorWritableByteChannel();
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        new GatheringFrameWriteRequest(frame, channel).handle(
+            new DataOutputStream(new ByteBufferOutputStream(channel, buffer)));
+        assertThat(channel.toByteArray(), equalTo(expected.toByteArray()));
+    }
+
+    @Test public void writeEncodedFramesOneByOne() throws IOException {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(expected);
+        new Frame(AMQP.FRAME_METHOD, 1, new byte[] {1, 2, 3}).writeTo(out);
+        new Frame(AMQP.FRAME_BODY, 300, new byte[1000]).writeTo(out);
+        out.flush();
+
+        ByteBufferPool pool = new ByteBufferPool(4096, 1, false);
+        ByteBuffer frames = pool.acquire();
+        frames.put(expected.toByteArray());
+        frames.flip();
+
+        // a frame handler that can't write encoded frames
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        final List<Frame> writtenFrames = new ArrayList<Frame>();
+        FrameHandler handler = (FrameHandler) Proxy.newProxyInstance(FrameHandler.class.getClassLoader(),
+            new Class<?>[] {FrameHandler.class}, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if ("writeFrame".equals(method.getName())) {
+                        Frame frame = (Frame) args[0];
+                        writtenFrames.add(frame);
+                        frame.writeTo(new DataOutputStream(written));
+                    }
+                    return null;
+                }
+            });
+        Frame.writeEncoded(handler, frames, pool);
+
+        assertThat(writtenFrames.size(), equalTo(2));
+        assertThat(writtenFrames.get(1).channel, equalTo(300));
+        assertThat(written.toByteArray(), equalTo(expected.toByteArray()));
+        // the buffer went back to the pool
+        assertThat(pool.acquire(), sameInstance(frames));
+    }
+
     private void checkWrittenChunks(int totalFrameSize, AccumulatorWritableByteChannel channel) {
         int totalWritten  = 0;
         for (byte[] chunk : channel.chunks) {
@@ -137,12 +203,36 @@ public class FrameTest {
         assertThat(totalWritten, equalTo(totalFrameSize));
     }
 
-    private static class AccumulatorWritableByteChannel implements WritableByteChannel {
+    private static class AccumulatorWritableByteChannel implements GatheringByteChannel {
 
         List<byte[]> chunks = new ArrayList<byte[]>();
 
         Random random = new Random();
 
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            long written = 0;
+            for (int i = offset; i < offset + length; i++) {
+                while (srcs[i].hasRemaining()) {
+                    written += write(srcs[i]);
+                }
+            }
+            return written;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) throws IOException {
+            return write(srcs, 0, srcs.length);
+        }
+
+        byte[] toByteArray() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (byte[] chunk : chunks) {
+                out.write(chunk, 0, chunk.length);
+            }
+            return out.toByteArray();
+        }
+
         @Override
         public int write(ByteBuffer src) throws IOException {
             int remaining = src.remaining();
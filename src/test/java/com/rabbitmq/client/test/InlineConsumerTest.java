@@ -0,0 +1,135 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.test;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Consumer;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.InlineConsumer;
+import com.rabbitmq.client.impl.AMQCommand;
+import com.rabbitmq.client.impl.AMQImpl;
+import com.rabbitmq.client.impl.ChannelN;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks callbacks of {@link InlineConsumer}s are called on the thread
+ * handling inbound commands.
+ */
+public class InlineConsumerTest {
+
+    final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test public void inlineConsumerCalledOnReadingThread() throws Exception {
+        PublishBatchTest.RecordingConnection connection = new PublishBatchTest.RecordingConnection();
+        ChannelN channel = PublishConfirmTest.channel(connection, executor);
+        RecordingInlineConsumer consumer = new RecordingInlineConsumer(channel);
+        consume(connection, channel, "ctag", consumer);
+        assertEquals(1, consumer.threads.size());
+        assertSame(Thread.currentThread(), consumer.threads.get(0));
+
+        channel.handleCompleteInboundCommand(delivery("ctag", 1));
+        channel.handleCompleteInboundCommand(delivery("ctag", 2));
+        // no hand-off, deliveries have been handled already
+        assertEquals(3, consumer.threads.size());
+        assertSame(Thread.currentThread(), consumer.threads.get(2));
+        assertEquals(2L, consumer.lastDeliveryTag);
+    }
+
+    @Test public void otherConsumersCalledOnConsumerThreads() throws Exception {
+        PublishBatchTest.RecordingConnection connection = new PublishBatchTest.RecordingConnection();
+        ChannelN channel = PublishConfirmTest.channel(connection, executor);
+        final CountDownLatch delivered = new CountDownLatch(1);
+        final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+        consume(connection, channel, "ctag", new DefaultConsumer(channel) {
+            @Override
+            public void handleDelivery(String consumerTag, Envelope envelope,
+                                       AMQP.BasicProperties properties, byte[] body) {
+                threads.add(Thread.currentThread());
+                delivered.countDown();
+            }
+        });
+        channel.handleCompleteInboundCommand(delivery("ctag", 1));
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        assertNotSame(Thread.currentThread(), threads.get(0));
+    }
+
+    private static void consume(PublishBatchTest.RecordingConnection connection, final ChannelN channel,
+                                final String consumerTag, final Consumer consumer) throws Exception {
+        Thread consume = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    channel.basicConsume("q", false, consumerTag, consumer);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        consume.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (connection.frames.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        channel.handleCompleteInboundCommand(new AMQCommand(new AMQImpl.Basic.ConsumeOk(consumerTag)));
+        consume.join(5000);
+    }
+
+    private static AMQCommand delivery(String consumerTag, long deliveryTag) {
+        return new AMQCommand(new AMQImpl.Basic.Deliver(consumerTag, deliveryTag, false, "", "q"),
+            new AMQP.BasicProperties(), new byte[0]);
+    }
+
+    static class RecordingInlineConsumer extends DefaultConsumer implements InlineConsumer {
+
+        final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+        volatile long lastDeliveryTag;
+
+        RecordingInlineConsumer(ChannelN channel) {
+            super(channel);
+        }
+
+        @Override
+        public void handleConsumeOk(String consumerTag) {
+            threads.add(Thread.currentThread());
+        }
+
+        @Override
+        public void handleDelivery(String consumerTag, Envelope envelope,
+                                   AMQP.BasicProperties properties, byte[] body) {
+            threads.add(Thread.currentThread());
+            lastDeliveryTag = envelope.getDeliveryTag();
+        }
+    }
+}
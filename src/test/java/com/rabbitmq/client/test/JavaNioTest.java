@@ -91,6 +91,27 @@ public class JavaNioTest {
         }
     }
 
+    @Test
+    public void busyPolling() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        ConnectionFactory connectionFactory = new ConnectionFactory();
+        connectionFactory.useNio();
+        connectionFactory.setNioParams(new NioParams().setBusyPollTimeInMicros(1000));
+        Connection connection = null;
+        try {
+            connection = basicGetBasicConsume(connectionFactory, "nio.queue", latch);
+            boolean messagesReceived = latch.await(5, TimeUnit.SECONDS);
+            assertTrue("Message has not been received", messagesReceived);
+        } finally {
+            safeClose(connection);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeBusyPollTime() {
+        new NioParams().setBusyPollTimeInMicros(-1);
+    }
+
     @Test
     public void nioLoopCleaning() throws Exception {
         ConnectionFactory connectionFactory = new ConnectionFactory();
@@ -0,0 +1,147 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.test;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.MalformedFrameException;
+import com.rabbitmq.client.impl.AMQImpl;
+import com.rabbitmq.client.impl.Frame;
+import com.rabbitmq.client.impl.LongStringHelper;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Content header properties decoded on access.
+ */
+public class LazyContentHeaderPropertiesTest {
+
+    @Test public void propertiesAreTheSameAsEagerlyDecodedOnes() throws IOException {
+        Map<String, Object> nested = new HashMap<String, Object>();
+        nested.put("n", 1);
+        Map<String, Object> headers = new HashMap<String, Object>();
+        headers.put("string", "value");
+        headers.put("int", 42);
+        headers.put("long", 42L);
+        headers.put("decimal", new BigDecimal("1.5"));
+        headers.put("table", nested);
+        headers.put("array", Arrays.asList(1, "two", nested));
+        headers.put("bytes", new byte[] {1, 2, 3});
+        headers.put("void", null);
+        AMQP.BasicProperties properties = new AMQP.BasicProperties.Builder()
+            .contentType("text/plain").contentEncoding("utf-8").headers(headers)
+            .deliveryMode(2).priority(5).correlationId("c").replyTo("r").expiration("1000")
+            .messageId("m").timestamp(new Date(1000000000000L)).type("t").userId("u")
+            .appId("a").clusterId("cl").build();
+
+        byte[] payload = payload(properties, 100);
+        AMQP.BasicProperties eager = (AMQP.BasicProperties) AMQImpl.readContentHeaderFrom(in(payload));
+        AMQP.BasicProperties lazy = (AMQP.BasicProperties) AMQImpl.readContentHeaderFrom(in(payload), payload.length);
+
+        assertEquals(100, lazy.getBodySize());
+        assertEquals(eager.getContentType(), lazy.getContentType());
+        assertEquals(eager.getContentEncoding(), lazy.getContentEncoding());
+        assertEquals(eager.getDeliveryMode(), lazy.getDeliveryMode());
+        assertEquals(eager.getPriority(), lazy.getPriority());
+        assertEquals(eager.getCorrelationId(), lazy.getCorrelationId());
+        assertEquals(eager.getReplyTo(), lazy.getReplyTo());
+        assertEquals(eager.getExpiration(), lazy.getExpiration());
+        assertEquals(eager.getMessageId(), lazy.getMessageId());
+        assertEquals(eager.getTimestamp(), lazy.getTimestamp());
+        assertEquals(eager.getType(), lazy.getType());
+        assertEquals(eager.getUserId(), lazy.getUserId());
+        assertEquals(eager.getAppId(), lazy.getAppId());
+        assertEquals(eager.getClusterId(), lazy.getClusterId());
+        assertEquals(new Date(1000000000000L), lazy.getTimestamp());
+
+        Map<String, Object> lazyHeaders = lazy.getHeaders();
+        assertEquals(eager.getHeaders().keySet(), lazyHeaders.keySet());
+        assertEquals(LongStringHelper.asLongString("value"), lazyHeaders.get("string"));
+        assertEquals(42, lazyHeaders.get("int"));
+        assertEquals(42L, lazyHeaders.get("long"));
+        assertEquals(new BigDecimal("1.5"), lazyHeaders.get("decimal"));
+        assertEquals(nested, lazyHeaders.get("table"));
+        assertEquals(eager.getHeaders().get("array"), lazyHeaders.get("array"));
+        assertArrayEquals(new byte[] {1, 2, 3}, (byte[]) lazyHeaders.get("bytes"));
+        assertNull(lazyHeaders.get("void"));
+        // decoded only once
+        assertSame(lazy.getHeaders(), lazy.getHeaders());
+        // re-encoded as received
+        assertArrayEquals(payload, payload(lazy, 100));
+        assertArrayEquals(payload, payload(lazy.builder().build(), 100));
+    }
+
+    @Test public void absentPropertiesAreNull() throws IOException {
+        AMQP.BasicProperties properties = new AMQP.BasicProperties.Builder().messageId("m").build();
+        byte[] payload = payload(properties, 0);
+        AMQP.BasicProperties lazy = (AMQP.BasicProperties) AMQImpl.readContentHeaderFrom(in(payload), payload.length);
+        assertEquals("m", lazy.getMessageId());
+        assertNull(lazy.getContentType());
+        assertNull(lazy.getHeaders());
+        assertNull(lazy.getTimestamp());
+        assertNull(lazy.getClusterId());
+    }
+
+    @Test public void malformedPropertiesAreRejectedUpFront() throws IOException {
+        Map<String, Object> headers = new HashMap<String, Object>();
+        headers.put("k", "v");
+        byte[] payload = payload(new AMQP.BasicProperties.Builder().headers(headers).build(), 0);
+
+        // truncated table
+        assertMalformed(Arrays.copyOf(payload, payload.length - 1), payload.length);
+
+        // unknown field type, after the key
+        byte[] unknownType = payload.clone();
+        int typeIndex = payload.length - 1 - 4 - 1;
+        assertEquals('S', unknownType[typeIndex]);
+        unknownType[typeIndex] = 'Z';
+        assertMalformed(unknownType, unknownType.length);
+
+        // table length beyond the header
+        byte[] tooLong = payload.clone();
+        tooLong[14 + 3] = 100;
+        assertMalformed(tooLong, tooLong.length);
+    }
+
+    private static void assertMalformed(byte[] payload, int size) throws IOException {
+        try {
+            AMQImpl.readContentHeaderFrom(in(payload), size);
+            fail("malformed properties should be rejected");
+        } catch (MalformedFrameException e) {
+            // OK
+        } catch (java.io.EOFException e) {
+            // OK, not enough bytes
+        }
+    }
+
+    private static byte[] payload(AMQP.BasicProperties properties, long bodySize) throws IOException {
+        Frame frame = ((com.rabbitmq.client.impl.AMQContentHeader) properties).toFrame(1, bodySize);
+        return frame.getPayload();
+    }
+
+    private static DataInputStream in(byte[] payload) {
+        return new DataInputStream(new ByteArrayInputStream(payload));
+    }
+}
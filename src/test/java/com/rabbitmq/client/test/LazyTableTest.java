@@ -0,0 +1,205 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.test;
+
+import com.rabbitmq.client.MalformedFrameException;
+import com.rabbitmq.client.impl.Frame;
+import com.rabbitmq.client.impl.LazyTable;
+import com.rabbitmq.client.impl.LongStringHelper;
+import com.rabbitmq.client.impl.ValueReader;
+import com.rabbitmq.client.impl.ValueWriter;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Field tables decoded on access.
+ */
+public class LazyTableTest {
+
+    @Test public void valuesAreDecoded() throws IOException {
+        Map<String, Object> nested = new HashMap<String, Object>();
+        nested.put("n", 1);
+        Map<String, Object> table = new HashMap<String, Object>();
+        table.put("longstr", LongStringHelper.asLongString("value"));
+        table.put("int", 42);
+        table.put("decimal", new BigDecimal("1.5"));
+        table.put("timestamp", new Date(1000000000000L));
+        table.put("table", nested);
+        table.put("array", Arrays.<Object>asList(1, LongStringHelper.asLongString("two"), nested));
+        table.put("byte", (byte) 3);
+        table.put("double", 1.5d);
+        table.put("float", 2.5f);
+        table.put("long", 42L);
+        table.put("short", (short) -2);
+        table.put("boolean", true);
+        table.put("void", null);
+
+        Map<String, Object> read = read(write(table));
+        assertTrue(read instanceof LazyTable);
+        assertEquals(table.size(), read.size());
+        assertEquals(table, read);
+        assertTrue(read.containsKey("void"));
+        assertFalse(read.containsKey("unknown"));
+        assertNull(read.get("unknown"));
+        assertTrue(read.get("table") instanceof LazyTable);
+
+        table.put("bytes", new byte[] {1, 2, 3});
+        read = read(write(table));
+        assertArrayEquals(new byte[] {1, 2, 3}, (byte[]) read.get("bytes"));
+    }
+
+    @Test public void unchangedTableIsWrittenAsReceived() throws IOException {
+        // duplicate keys would be dropped if the table was encoded again
+        byte[] encoded = table(entry("a", 'I', 0, 0, 0, 1), entry("b", 'V'), entry("a", 'I', 0, 0, 0, 2));
+        Map<String, Object> read = read(encoded);
+        assertEquals(2, read.size());
+        assertEquals(1, read.get("a"));
+        assertEquals(encoded.length - 4, Frame.tableSize(read));
+        assertArrayEquals(encoded, write(read));
+
+        read.put("c", 3);
+        assertEquals(3, read.size());
+        Map<String, Object> expected = new HashMap<String, Object>();
+        expected.put("a", 1);
+        expected.put("b", null);
+        expected.put("c", 3);
+        assertEquals(expected, read(write(read)));
+    }
+
+    @Test public void changesToNestedValuesAreWritten() throws IOException {
+        Map<String, Object> nested = new HashMap<String, Object>();
+        nested.put("n", 1);
+        Map<String, Object> table = new HashMap<String, Object>();
+        table.put("table", nested);
+        table.put("array", new ArrayList<Object>(Arrays.<Object>asList(1, 2)));
+
+        Map<String, Object> read = read(write(table));
+        @SuppressWarnings("unchecked")
+        Map<String, Object> readNested = (Map<String, Object>) read.get("table");
+        readNested.put("m", 2);
+        @SuppressWarnings("unchecked")
+        List<Object> readArray = (List<Object>) read.get("array");
+        readArray.add(3);
+
+        nested.put("m", 2);
+        ((List<Object>) table.get("array")).add(3);
+        assertEquals(table, read(write(read)));
+    }
+
+    @Test public void largeTables() throws IOException {
+        Map<String, Object> table = new HashMap<String, Object>();
+        for (int i = 0; i < 100; i++) {
+            table.put("key" + i, i);
+        }
+        Map<String, Object> read = read(write(table));
+        assertEquals(100, read.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, read.get("key" + i));
+        }
+        assertEquals(table, read);
+        assertEquals(table.hashCode(), read.hashCode());
+    }
+
+    @Test public void entriesCanBeRemovedWhileIterating() throws IOException {
+        Map<String, Object> table = new HashMap<String, Object>();
+        table.put("a", 1);
+        table.put("b", 2);
+        table.put("c", 3);
+        Map<String, Object> read = read(write(table));
+        Iterator<Map.Entry<String, Object>> iterator = read.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Object> entry = iterator.next();
+            if (entry.getKey().equals("b")) {
+                iterator.remove();
+            } else if (entry.getKey().equals("c")) {
+                entry.setValue(4);
+            }
+        }
+        table.remove("b");
+        table.put("c", 4);
+        assertEquals(table, read);
+        assertEquals(table, read(write(read)));
+    }
+
+    @Test public void malformedTablesAreRejected() throws IOException {
+        assertMalformed(table(entry("a", 'Z')));
+        assertMalformed(table(entry("a", 'I', 0, 0)));
+        assertMalformed(table(entry("a", 'S', 0, 0, 0, 10, 1, 2)));
+        assertMalformed(table(entry("a", 'F', 0, 0, 0, 2, 1, 'b')));
+    }
+
+    private static void assertMalformed(byte[] encoded) throws IOException {
+        try {
+            read(encoded);
+            fail("malformed table should be rejected");
+        } catch (MalformedFrameException e) {
+            // OK
+        }
+    }
+
+    private static byte[] entry(String key, int... value) {
+        byte[] entry = new byte[1 + key.length() + value.length];
+        entry[0] = (byte) key.length();
+        for (int i = 0; i < key.length(); i++) {
+            entry[1 + i] = (byte) key.charAt(i);
+        }
+        for (int i = 0; i < value.length; i++) {
+            entry[1 + key.length() + i] = (byte) value[i];
+        }
+        return entry;
+    }
+
+    private static byte[] table(byte[]... entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        int length = 0;
+        for (byte[] entry : entries) {
+            length += entry.length;
+        }
+        out.writeInt(length);
+        for (byte[] entry : entries) {
+            out.write(entry);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] write(Map<String, Object> table) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        new ValueWriter(out).writeTable(table);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static Map<String, Object> read(byte[] encoded) throws IOException {
+        return new ValueReader(new DataInputStream(new ByteArrayInputStream(encoded))).readTable();
+    }
+}
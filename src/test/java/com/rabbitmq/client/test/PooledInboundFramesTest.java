@@ -0,0 +1,156 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.test;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.MessageBody;
+import com.rabbitmq.client.impl.AMQCommand;
+import com.rabbitmq.client.impl.AMQContentHeader;
+import com.rabbitmq.client.impl.AMQImpl;
+import com.rabbitmq.client.impl.ByteBufferPool;
+import com.rabbitmq.client.impl.Frame;
+import com.rabbitmq.client.impl.Method;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Inbound frames read into pooled buffers.
+ */
+public class PooledInboundFramesTest {
+
+    static final int BUFFER_SIZE = 1024;
+
+    @Test public void singleFrameBodyIsHandedOverWithoutCopy() throws IOException {
+        CountingPool pool = new CountingPool();
+        byte[] body = "hello, world".getBytes("UTF-8");
+        AMQCommand command = readCommand(pool, body, BUFFER_SIZE);
+        // method and header frames are released once parsed
+        assertEquals(2, pool.released);
+
+        MessageBody messageBody = command.takeMessageBody();
+        ByteBuffer buffer = messageBody.getBuffer();
+        assertTrue(buffer.isReadOnly());
+        byte[] read = new byte[buffer.remaining()];
+        buffer.get(read);
+        assertArrayEquals(body, read);
+
+        messageBody.retain();
+        messageBody.release();
+        assertEquals(2, pool.released);
+        assertEquals(body.length, messageBody.getBuffer().capacity());
+        messageBody.release();
+        assertEquals(3, pool.released);
+        try {
+            messageBody.getBuffer();
+            fail("released body should not be usable");
+        } catch (IllegalStateException e) {
+            // OK
+        }
+        try {
+            messageBody.release();
+            fail("body should not be released twice");
+        } catch (IllegalStateException e) {
+            // OK
+        }
+        assertEquals(3, pool.released);
+    }
+
+    @Test public void framesLargerThanPoolBuffersAreNotPooled() throws IOException {
+        CountingPool pool = new CountingPool();
+        AMQCommand command = readCommand(pool, new byte[2 * BUFFER_SIZE], 2 * BUFFER_SIZE);
+        assertEquals(2 * BUFFER_SIZE, command.getContentBody().length);
+        assertEquals(2, pool.released);
+    }
+
+    @Test public void multiFrameBodyIsCopied() throws IOException {
+        CountingPool pool = new CountingPool();
+        byte[] body = new byte[3 * BUFFER_SIZE];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) i;
+        }
+        AMQCommand command = readCommand(pool, body, 500);
+        assertArrayEquals(body, command.getContentBody());
+
+        command = readCommand(pool, body, 500);
+        MessageBody messageBody = command.takeMessageBody();
+        byte[] read = new byte[messageBody.getBuffer().remaining()];
+        messageBody.getBuffer().get(read);
+        assertArrayEquals(body, read);
+        messageBody.release();
+        assertEquals(pool.acquired, pool.released);
+    }
+
+    @Test public void contentBodyCanBeRetrievedFromPooledFrame() throws IOException {
+        CountingPool pool = new CountingPool();
+        byte[] body = "hello".getBytes("UTF-8");
+        AMQCommand command = readCommand(pool, body, BUFFER_SIZE);
+        assertArrayEquals(body, command.getContentBody());
+        assertEquals(3, pool.released);
+        assertArrayEquals(body, command.getContentBody());
+    }
+
+    private static AMQCommand readCommand(ByteBufferPool pool, byte[] body, int fragmentSize) throws IOException {
+        Method method = new AMQImpl.Basic.Deliver("ctag", 1L, false, "", "rk");
+        AMQContentHeader header = new AMQP.BasicProperties.Builder().contentType("text/plain").build();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        method.toFrame(1).writeTo(out);
+        header.toFrame(1, body.length).writeTo(out);
+        for (int offset = 0; offset < body.length; offset += fragmentSize) {
+            Frame.fromBodyFragment(1, body, offset, Math.min(fragmentSize, body.length - offset)).writeTo(out);
+        }
+        out.flush();
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        AMQCommand command = new AMQCommand();
+        boolean complete = false;
+        while (!complete) {
+            complete = command.handleFrame(Frame.readFrom(in, pool));
+        }
+        assertEquals("text/plain", ((AMQP.BasicProperties) command.getContentHeader()).getContentType());
+        return command;
+    }
+
+    static class CountingPool extends ByteBufferPool {
+
+        int acquired = 0;
+        int released = 0;
+
+        CountingPool() {
+            super(BUFFER_SIZE, 4, false);
+        }
+
+        @Override
+        public ByteBuffer acquire() {
+            acquired++;
+            return super.acquire();
+        }
+
+        @Override
+        public void release(ByteBuffer buffer) {
+            released++;
+            super.release(buffer);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.test;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.MessageProperties;
+import com.rabbitmq.client.PublishBatch;
+import com.rabbitmq.client.impl.AMQConnection;
+import com.rabbitmq.client.impl.AMQImpl;
+import com.rabbitmq.client.impl.ChannelN;
+import com.rabbitmq.client.impl.ConnectionParams;
+import com.rabbitmq.client.impl.ConsumerWorkService;
+import com.rabbitmq.client.impl.Frame;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks a {@link PublishBatch} is written in order with a single flush.
+ */
+public class PublishBatchTest {
+
+    @Test public void batchIsWrittenInOrderWithOneFlush() throws IOException {
+        RecordingConnection connection = new RecordingConnection();
+        ChannelN channel = new ChannelN(connection, 1,
+            new ConsumerWorkService(Executors.newSingleThreadExecutor(), null, 1));
+
+        PublishBatch batch = new PublishBatch()
+            .add("x", "a", MessageProperties.BASIC, "1".getBytes())
+            .add("x", "b", true, null, "2".getBytes())
+            .add("", "c", null, new byte[0]);
+        channel.basicPublish(batch);
+
+        assertEquals(1, connection.flushes);
+        // method and header for each message, body frames only when not empty
+        assertEquals(8, connection.frames.size());
+        String[] routingKeys = { "a", "b", "c" };
+        int message = 0;
+        for (Frame frame : connection.frames) {
+            if (frame.type == AMQP.FRAME_METHOD) {
+                AMQImpl.Basic.Publish publish =
+                    (AMQImpl.Basic.Publish) AMQImpl.readMethodFrom(frame.getInputStream());
+                assertEquals(routingKeys[message], publish.getRoutingKey());
+                assertEquals(message == 1, publish.getMandatory());
+                message++;
+            }
+        }
+        assertEquals(3, message);
+    }
+
+    @Test public void emptyBatch() throws IOException {
+        PublishBatch batch = new PublishBatch();
+        assertTrue(batch.isEmpty());
+        batch.add("x", "a", null, new byte[1]);
+        assertEquals(1, batch.size());
+        batch.clear();
+        assertTrue(batch.isEmpty());
+    }
+
+    static class RecordingConnection extends AMQConnection {
+
+        final List<Frame> frames = Collections.synchronizedList(new ArrayList<Frame>());
+        int flushes = 0;
+
+        RecordingConnection() {
+            this(params());
+        }
+
+        RecordingConnection(ConnectionParams params) {
+            super(params, null);
+        }
+
+        static ConnectionParams params() {
+            ConnectionParams params = new ConnectionParams();
+            params.setClientProperties(new HashMap<String, Object>());
+            return params;
+        }
+
+        @Override
+        public void writeFrame(Frame f) {
+            frames.add(f);
+        }
+
+        @Override
+        public void flush() {
+            flushes++;
+        }
+    }
+}
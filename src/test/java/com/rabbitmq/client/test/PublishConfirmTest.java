@@ -0,0 +1,154 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.test;
+
+import com.rabbitmq.client.PublishConfirm;
+import com.rabbitmq.client.PublishConfirmListener;
+import com.rabbitmq.client.ShutdownSignalException;
+import com.rabbitmq.client.impl.AMQCommand;
+import com.rabbitmq.client.impl.AMQImpl;
+import com.rabbitmq.client.impl.ChannelN;
+import com.rabbitmq.client.impl.ConsumerWorkService;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks {@link PublishConfirm}s are completed by acks and nacks.
+ */
+public class PublishConfirmTest {
+
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @After public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test public void notSelected() throws IOException {
+        ChannelN channel = channel(new PublishBatchTest.RecordingConnection(), executor);
+        try {
+            channel.basicPublishWithConfirm("", "q", null, new byte[0]);
+            fail("confirms are not selected");
+        } catch (IllegalStateException e) {
+            // OK
+        }
+    }
+
+    @Test public void acksAndNacks() throws Exception {
+        ChannelN channel = confirmChannel(new PublishBatchTest.RecordingConnection(), executor);
+        PublishConfirm first = channel.basicPublishWithConfirm("", "q", null, new byte[0]);
+        PublishConfirm second = channel.basicPublishWithConfirm("", "q", null, new byte[0]);
+        PublishConfirm third = channel.basicPublishWithConfirm("", "q", true, null, new byte[0]);
+        PublishConfirm fourth = channel.basicPublishWithConfirm("", "q", null, new byte[0]);
+        assertEquals(1, first.getSequenceNumber());
+        assertEquals(4, fourth.getSequenceNumber());
+
+        final AtomicInteger listenerCalls = new AtomicInteger(0);
+        PublishConfirmListener listener = new PublishConfirmListener() {
+            @Override
+            public void handleConfirm(PublishConfirm confirm) {
+                listenerCalls.incrementAndGet();
+            }
+        };
+        first.addListener(listener);
+        second.addListener(listener);
+
+        channel.handleCompleteInboundCommand(new AMQCommand(new AMQImpl.Basic.Ack(2, true)));
+        assertTrue(first.isDone());
+        assertTrue(second.isDone());
+        assertFalse(third.isDone());
+        assertEquals(Boolean.TRUE, first.get());
+        assertEquals(Boolean.TRUE, second.get(1, TimeUnit.SECONDS));
+        assertEquals(2, listenerCalls.get());
+
+        channel.handleCompleteInboundCommand(new AMQCommand(new AMQImpl.Basic.Nack(4, false, false)));
+        assertFalse(third.isDone());
+        assertEquals(Boolean.FALSE, fourth.get());
+        assertFalse(fourth.isAck());
+
+        try {
+            third.get(10, TimeUnit.MILLISECONDS);
+            fail("the third message is not confirmed");
+        } catch (TimeoutException e) {
+            // OK
+        }
+        channel.handleCompleteInboundCommand(new AMQCommand(new AMQImpl.Basic.Ack(3, false)));
+        assertTrue(third.isAck());
+
+        // already done, called right away
+        third.addListener(listener);
+        assertEquals(3, listenerCalls.get());
+    }
+
+    @Test public void channelClosed() throws Exception {
+        ChannelN channel = confirmChannel(new PublishBatchTest.RecordingConnection(), executor);
+        PublishConfirm confirm = channel.basicPublishWithConfirm("", "q", null, new byte[0]);
+        ShutdownSignalException signal = new ShutdownSignalException(false, false, null, channel);
+        channel.processShutdownSignal(signal, true, false);
+        try {
+            confirm.get();
+            fail("the channel is closed");
+        } catch (ExecutionException e) {
+            assertSame(signal, e.getCause());
+            assertSame(signal, confirm.getCause());
+        }
+    }
+
+    static ChannelN channel(PublishBatchTest.RecordingConnection connection, ExecutorService executor) {
+        return new ChannelN(connection, 1, new ConsumerWorkService(executor, null, 1));
+    }
+
+    /**
+     * Create a channel and put it in confirm mode.
+     */
+    static ChannelN confirmChannel(PublishBatchTest.RecordingConnection connection,
+                                   ExecutorService executor) throws Exception {
+        final ChannelN channel = channel(connection, executor);
+        Thread select = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    channel.confirmSelect();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        select.start();
+        // Confirm.Select is written once its continuation is registered
+        long deadline = System.currentTimeMillis() + 5000;
+        while (connection.frames.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        channel.handleCompleteInboundCommand(new AMQCommand(new AMQImpl.Confirm.SelectOk()));
+        select.join(5000);
+        connection.frames.clear();
+        return channel;
+    }
+}
@@ -0,0 +1,89 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.test;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.MessageProperties;
+import com.rabbitmq.client.PublishTemplate;
+import com.rabbitmq.client.impl.AMQContentHeader;
+import com.rabbitmq.client.impl.AMQImpl;
+import com.rabbitmq.client.impl.ChannelN;
+import com.rabbitmq.client.impl.ConsumerWorkService;
+import com.rabbitmq.client.impl.Frame;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks messages published with a {@link PublishTemplate} carry
+ * the method and properties of the template.
+ */
+public class PublishTemplateTest {
+
+    @Test public void messagesCarryTheTemplate() throws IOException {
+        PublishBatchTest.RecordingConnection connection = new PublishBatchTest.RecordingConnection();
+        ChannelN channel = new ChannelN(connection, 1,
+            new ConsumerWorkService(Executors.newSingleThreadExecutor(), null, 1));
+
+        Map<String, Object> headers = new HashMap<String, Object>();
+        headers.put("foo", "bar");
+        AMQP.BasicProperties properties = new AMQP.BasicProperties.Builder()
+            .headers(headers).deliveryMode(2).build();
+        PublishTemplate template = new PublishTemplate("x", "rk", true, properties);
+        // the properties are encoded once and for all
+        headers.put("foo", "changed");
+        headers.put("other", 1);
+        channel.basicPublish(template, "one".getBytes());
+        channel.basicPublish(template, "three".getBytes());
+
+        // method, header and body for each message
+        assertEquals(6, connection.frames.size());
+        String[] bodies = { "one", "three" };
+        for (int i = 0; i < bodies.length; i++) {
+            Frame methodFrame = connection.frames.get(3 * i);
+            AMQImpl.Basic.Publish publish =
+                (AMQImpl.Basic.Publish) AMQImpl.readMethodFrom(methodFrame.getInputStream());
+            assertEquals("x", publish.getExchange());
+            assertEquals("rk", publish.getRoutingKey());
+            assertTrue(publish.getMandatory());
+
+            Frame headerFrame = connection.frames.get(3 * i + 1);
+            assertEquals(AMQP.FRAME_HEADER, headerFrame.type);
+            AMQP.BasicProperties received = (AMQP.BasicProperties) AMQImpl.readContentHeaderFrom(
+                headerFrame.getInputStream(), headerFrame.getPayloadSize());
+            assertEquals(Integer.valueOf(2), received.getDeliveryMode());
+            assertEquals("bar", received.getHeaders().get("foo").toString());
+            assertEquals(1, received.getHeaders().size());
+            assertEquals(bodies[i].length(), ((AMQContentHeader) received).getBodySize());
+
+            assertArrayEquals(bodies[i].getBytes(), connection.frames.get(3 * i + 2).getPayload());
+        }
+    }
+
+    @Test public void nullPropertiesAreMinimal() {
+        PublishTemplate template = new PublishTemplate("", "q", null);
+        assertSame(MessageProperties.MINIMAL_BASIC, template.getProps());
+        assertEquals("q", template.getRoutingKey());
+    }
+}
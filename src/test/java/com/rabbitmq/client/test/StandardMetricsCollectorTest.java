@@ -21,6 +21,7 @@ import com.rabbitmq.client.impl.StandardMetricsCollector;
 import org.junit.Test;
 
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -142,4 +143,36 @@ public class StandardMetricsCollectorTest {
         assertThat(metrics.getChannels().getCount(), is(1L));
     }
 
+    @Test public void consumerQueueDepthPerChannel() {
+        StandardMetricsCollector metrics = new StandardMetricsCollector();
+        Connection connection = mock(Connection.class);
+        when(connection.getId()).thenReturn("connection-1");
+        Channel channel1 = mock(Channel.class);
+        when(channel1.getConnection()).thenReturn(connection);
+        when(channel1.getChannelNumber()).thenReturn(1);
+        when(channel1.isOpen()).thenReturn(true);
+        Channel channel2 = mock(Channel.class);
+        when(channel2.getConnection()).thenReturn(connection);
+        when(channel2.getChannelNumber()).thenReturn(2);
+        when(channel2.isOpen()).thenReturn(true);
+
+        metrics.newConnection(connection);
+        metrics.newChannel(channel1);
+        metrics.newChannel(channel2);
+
+        metrics.consumerQueueDepth(channel1, 10);
+        metrics.consumerQueueDepth(channel1, 20);
+        metrics.consumerQueueDepth(channel2, 5);
+        assertThat(metrics.getConsumerQueueDepth(channel1).getCount(), is(2L));
+        assertThat(metrics.getConsumerQueueDepth(channel1).getSnapshot().getMax(), is(20L));
+        assertThat(metrics.getConsumerQueueDepth(channel2).getCount(), is(1L));
+        assertThat(metrics.getMetricRegistry().getHistograms()
+            .containsKey("rabbitmq.consumer_queue_depth.connection-1.2"), is(true));
+
+        metrics.closeChannel(channel2);
+        assertThat(metrics.getConsumerQueueDepth(channel2), nullValue());
+        assertThat(metrics.getMetricRegistry().getHistograms()
+            .containsKey("rabbitmq.consumer_queue_depth.connection-1.2"), is(false));
+    }
+
 }
@@ -21,11 +21,15 @@ import org.junit.Test;
 
 import java.io.*;
 import java.math.BigDecimal;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 public class TableTest
 {
@@ -78,4 +82,74 @@ public class TableTest
         table.put("e", -126);
         assertEquals(table, unmarshal(marshal(table)));
     }
+
+    @Test public void utf8Strings()
+        throws IOException
+    {
+        String[] strings = { "caf\u00e9", "\u20ac 12", "smile \uD83D\uDE00", "unpaired \uD800 surrogate", "" };
+        Map<String, Object> table = new HashMap<String, Object>();
+        for (String string : strings) {
+            table.put(string, string);
+        }
+        Map<String, Object> read = unmarshal(marshal(table));
+        assertEquals(strings.length, read.size());
+        for (String string : strings) {
+            String expected = new String(string.getBytes("utf-8"), "utf-8");
+            assertEquals(expected, read.get(expected).toString());
+        }
+    }
+
+    @Test public void nestedTablesAndArrays()
+        throws IOException
+    {
+        Map<String, Object> inner = new HashMap<String, Object>();
+        inner.put("list", Arrays.<Object>asList("\u00e9t\u00e9", 1, Arrays.asList(2L, "x")));
+        inner.put("array", new Object[] { true, "y" });
+        Map<String, Object> table = new HashMap<String, Object>();
+        table.put("inner", inner);
+        table.put("after", 42);
+
+        Map<String, Object> read = unmarshal(marshal(table));
+        assertEquals(42, read.get("after"));
+        @SuppressWarnings("unchecked")
+        Map<String, Object> readInner = (Map<String, Object>) read.get("inner");
+        List<?> list = (List<?>) readInner.get("list");
+        assertEquals("\u00e9t\u00e9", list.get(0).toString());
+        assertEquals(1, list.get(1));
+        assertEquals(2L, ((List<?>) list.get(2)).get(0));
+        assertEquals(Arrays.asList(true, "y"), Arrays.asList(((List<?>) readInner.get("array")).get(0),
+                                                            ((List<?>) readInner.get("array")).get(1).toString()));
+    }
+
+    @Test public void shortStrings()
+        throws IOException
+    {
+        for (String string : new String[] { "ascii", "caf\u00e9", "\uD83D\uDE00" }) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            MethodArgumentWriter writer = new MethodArgumentWriter(new ValueWriter(new DataOutputStream(buffer)));
+            writer.writeShortstr(string);
+            writer.flush();
+            byte[] utf8 = string.getBytes("utf-8");
+            byte[] expected = new byte[utf8.length + 1];
+            expected[0] = (byte) utf8.length;
+            System.arraycopy(utf8, 0, expected, 1, utf8.length);
+            assertArrayEquals(expected, buffer.toByteArray());
+        }
+    }
+
+    @Test public void keyTooLong()
+        throws IOException
+    {
+        Map<String, Object> table = new HashMap<String, Object>();
+        table.put(new String(new char[200]).replace('\0', '\u00e9'), 1);
+        try {
+            marshal(table);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+        // nothing left over from the failed attempt
+        table.clear();
+        table.put("a", 1);
+        assertEquals(table, unmarshal(marshal(table)));
+    }
 }
@@ -0,0 +1,131 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.test;
+
+import com.rabbitmq.client.impl.TimingWheel;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks timeouts of {@link TimingWheel} expire at the right tick.
+ */
+public class TimingWheelTest {
+
+    final List<String> runs = new ArrayList<String>();
+
+    @Test public void timeoutsRunOnceExpired() {
+        TimingWheel wheel = new TimingWheel(10, 8);
+        wheel.advance(0);
+        wheel.schedule(record("b"), 55);
+        wheel.schedule(record("a"), 25);
+        wheel.advance(20);
+        assertTrue(runs.isEmpty());
+        wheel.advance(30);
+        assertEquals(list("a"), runs);
+        wheel.advance(50);
+        assertEquals(list("a"), runs);
+        assertFalse(wheel.isEmpty());
+        wheel.advance(60);
+        assertEquals(list("a", "b"), runs);
+        assertTrue(wheel.isEmpty());
+    }
+
+    @Test public void timeoutsBeyondOneRound() {
+        TimingWheel wheel = new TimingWheel(10, 4);
+        wheel.advance(0);
+        // the wheel spans 40 ms, this timeout takes several rounds
+        wheel.schedule(record("late"), 125);
+        wheel.schedule(record("early"), 15);
+        wheel.advance(100);
+        assertEquals(list("early"), runs);
+        wheel.advance(130);
+        assertEquals(list("early", "late"), runs);
+    }
+
+    @Test public void cancelledTimeoutsDontRun() {
+        TimingWheel wheel = new TimingWheel(10, 8);
+        wheel.advance(0);
+        TimingWheel.Timeout timeout = wheel.schedule(record("cancelled"), 20);
+        wheel.schedule(record("kept"), 20);
+        wheel.advance(10);
+        timeout.cancel();
+        wheel.advance(30);
+        assertEquals(list("kept"), runs);
+        assertTrue(wheel.isEmpty());
+    }
+
+    @Test public void expiredDeadlineRunsOnNextTick() {
+        TimingWheel wheel = new TimingWheel(10, 8);
+        wheel.advance(100);
+        wheel.schedule(record("expired"), 50);
+        wheel.advance(105);
+        assertTrue(runs.isEmpty());
+        wheel.advance(110);
+        assertEquals(list("expired"), runs);
+    }
+
+    @Test public void tasksCanScheduleTasks() {
+        final TimingWheel wheel = new TimingWheel(10, 8);
+        wheel.advance(0);
+        wheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                runs.add("first");
+                wheel.schedule(record("second"), 40);
+            }
+        }, 20);
+        wheel.advance(30);
+        assertEquals(list("first"), runs);
+        wheel.advance(50);
+        assertEquals(list("first", "second"), runs);
+    }
+
+    @Test public void wheelSizeRoundedToPowerOfTwo() {
+        TimingWheel wheel = new TimingWheel(1, 5);
+        wheel.advance(0);
+        for (int i = 1; i <= 20; i++) {
+            wheel.schedule(record(String.valueOf(i)), i);
+        }
+        for (int i = 1; i <= 20; i++) {
+            wheel.advance(i);
+            assertEquals(i, runs.size());
+            assertEquals(String.valueOf(i), runs.get(i - 1));
+        }
+    }
+
+    private Runnable record(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                runs.add(name);
+            }
+        };
+    }
+
+    private static List<String> list(String... names) {
+        List<String> list = new ArrayList<String>();
+        for (String name : names) {
+            list.add(name);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,83 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.test;
+
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.impl.VirtualThreads;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks virtual threads are used when available and requested.
+ */
+public class VirtualThreadsTest {
+
+    @Test public void unavailableVirtualThreadsAreRejected() {
+        if (VirtualThreads.isAvailable()) {
+            return;
+        }
+        ConnectionFactory cf = new ConnectionFactory();
+        try {
+            cf.setVirtualThreads(true);
+            fail("virtual threads are not supported by this JVM");
+        } catch (IllegalArgumentException e) {
+            // OK
+        }
+        cf.setVirtualThreads(false);
+    }
+
+    @Test public void virtualThreadsRequireJava24() {
+        int javaVersion = VirtualThreads.javaVersion(System.getProperty("java.specification.version"));
+        if (javaVersion < VirtualThreads.MINIMUM_JAVA_VERSION) {
+            assertFalse(VirtualThreads.isAvailable());
+        }
+        assertEquals(6, VirtualThreads.javaVersion("1.6"));
+        assertEquals(8, VirtualThreads.javaVersion("1.8"));
+        assertEquals(21, VirtualThreads.javaVersion("21"));
+        assertEquals(24, VirtualThreads.javaVersion("24"));
+        assertEquals(0, VirtualThreads.javaVersion(null));
+        assertEquals(0, VirtualThreads.javaVersion("unknown"));
+    }
+
+    @Test public void threadFactoryCreatesVirtualThreads() throws Exception {
+        if (!VirtualThreads.isAvailable()) {
+            return;
+        }
+        new ConnectionFactory().setVirtualThreads(true);
+        ThreadFactory threadFactory = VirtualThreads.threadFactory("test-");
+        final AtomicReference<Thread> thread = new AtomicReference<Thread>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        threadFactory.newThread(new Runnable() {
+            @Override
+            public void run() {
+                thread.set(Thread.currentThread());
+                latch.countDown();
+            }
+        }).start();
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(Boolean.TRUE, Thread.class.getMethod("isVirtual").invoke(thread.get()));
+        assertEquals("test-0", thread.get().getName());
+    }
+}
@@ -0,0 +1,149 @@
+// Copyright (c) 2007-Present Pivotal Software, Inc.  All rights reserved.
+//
+// This software, the RabbitMQ Java client library, is triple-licensed under the
+// Mozilla Public License 1.1 ("MPL"), the GNU General Public License version 2
+// ("GPL") and the Apache License version 2 ("ASL"). For the MPL, please see
+// LICENSE-MPL-RabbitMQ. For the GPL, please see LICENSE-GPL2.  For the ASL,
+// please see LICENSE-APACHE2.
+//
+// This software is distributed on an "AS IS" basis, WITHOUT WARRANTY OF ANY KIND,
+// either express or implied. See the LICENSE file for specific language governing
+// rights and limitations of this software.
+//
+// If you have any questions regarding licensing, please contact us at
+// info@rabbitmq.com.
+
+package com.rabbitmq.client.test;
+
+import com.rabbitmq.client.impl.nio.WriteQueue;
+import com.rabbitmq.client.impl.nio.WriteRequest;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class WriteQueueTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void fifo() throws Exception {
+        WriteQueue queue = new WriteQueue(10);
+        assertTrue(queue.isEmpty());
+        assertNull(queue.poll());
+        Request first = new Request(0, 0);
+        Request second = new Request(0, 1);
+        assertTrue(queue.offer(first, 1, TimeUnit.SECONDS));
+        assertTrue(queue.offer(second, 1, TimeUnit.SECONDS));
+        assertEquals(2, queue.size());
+        assertSame(first, queue.poll());
+        assertSame(second, queue.poll());
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void offerTimesOutWhenFull() throws Exception {
+        WriteQueue queue = new WriteQueue(2);
+        assertTrue(queue.offer(new Request(0, 0), 1, TimeUnit.SECONDS));
+        assertTrue(queue.offer(new Request(0, 1), 1, TimeUnit.SECONDS));
+        long start = System.nanoTime();
+        assertFalse(queue.offer(new Request(0, 2), 100, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(2, queue.size());
+    }
+
+    @Test
+    public void pollUnblocksWaitingProducer() throws Exception {
+        final WriteQueue queue = new WriteQueue(1);
+        assertTrue(queue.offer(new Request(0, 0), 1, TimeUnit.SECONDS));
+        final CountDownLatch started = new CountDownLatch(1);
+        Future<Boolean> offered = executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                started.countDown();
+                return queue.offer(new Request(0, 1), 10, TimeUnit.SECONDS);
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertFalse(offered.isDone());
+        assertEquals(0, ((Request) queue.poll()).sequence);
+        assertTrue(offered.get(5, TimeUnit.SECONDS));
+        assertEquals(1, ((Request) queue.poll()).sequence);
+    }
+
+    @Test
+    public void manyProducersKeepTheirOrder() throws Exception {
+        final int producers = 8;
+        final int requestsPerProducer = 20000;
+        final WriteQueue queue = new WriteQueue(100);
+        List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+        for (int i = 0; i < producers; i++) {
+            final int producer = i;
+            futures.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    for (int j = 0; j < requestsPerProducer; j++) {
+                        if (!queue.offer(new Request(producer, j), 10, TimeUnit.SECONDS)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+            }));
+        }
+        int[] expected = new int[producers];
+        int received = 0;
+        long deadline = System.currentTimeMillis() + 30000;
+        while (received < producers * requestsPerProducer && System.currentTimeMillis() < deadline) {
+            Request request = (Request) queue.poll();
+            if (request == null) {
+                Thread.yield();
+                continue;
+            }
+            assertEquals(expected[request.producer], request.sequence);
+            expected[request.producer]++;
+            received++;
+        }
+        assertEquals(producers * requestsPerProducer, received);
+        for (Future<Boolean> future : futures) {
+            assertTrue(future.get(5, TimeUnit.SECONDS));
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    private static class Request implements WriteRequest {
+
+        private final int producer;
+        private final int sequence;
+
+        private Request(int producer, int sequence) {
+            this.producer = producer;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void handle(DataOutputStream dataOutputStream) {
+        }
+    }
+}